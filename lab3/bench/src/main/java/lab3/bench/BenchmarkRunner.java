@@ -0,0 +1,33 @@
+package lab3.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+
+/**
+ * Точка входа в тесты производительности. Принимает обычные параметры командной строки JMH
+ * и всегда добавляет профилировщик gc, чтобы в отчете была частота выделения памяти.
+ **/
+public class BenchmarkRunner
+{
+    /** Запускает тесты с указанными параметрами JMH. **/
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException
+    {
+        CommandLineOptions cmd = new CommandLineOptions(args);
+        OptionsBuilder builder = new OptionsBuilder();
+        builder.parent(cmd);
+        builder.addProfiler(GCProfiler.class);
+
+        // Без явного фильтра запускаются все тесты модуля.
+        if (cmd.getIncludes().isEmpty())
+            builder.include(PathfindingBenchmark.class.getSimpleName());
+
+        Options options = builder.build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,82 @@
+package lab3.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+
+/**
+ * Доступ к классам лабораторной работы из тестов производительности. Классы лежат в пакете по
+ * умолчанию, а JMH не принимает тесты без пакета; из именованного пакета такие классы нельзя
+ * импортировать, поэтому нужные методы вызываются через дескрипторы методов. Дескрипторы
+ * хранятся в статических final-полях, и JIT-компилятор встраивает вызовы так же, как прямые.
+ **/
+final class Lab3
+{
+    /** <code>MapGenerators.generate(String, int, int, long)</code>. **/
+    static final MethodHandle GENERATE;
+
+    /** <code>AStarPathfinder.computePath(Map2D)</code>. **/
+    static final MethodHandle COMPUTE_PATH;
+
+    /** <code>AStarPathfinder.computeJumpPointPath(Map2D)</code>. **/
+    static final MethodHandle COMPUTE_JUMP_POINT_PATH;
+
+    /** <code>new PathfinderContext()</code>. **/
+    static final MethodHandle NEW_CONTEXT;
+
+    /** <code>new PathResult()</code>. **/
+    static final MethodHandle NEW_RESULT;
+
+    /** <code>PathfinderContext.computePath(Map2D, PathResult)</code>. **/
+    static final MethodHandle CONTEXT_COMPUTE_PATH;
+
+    static
+    {
+        try
+        {
+            ClassLoader loader = Lab3.class.getClassLoader();
+            Class<?> map2d = Class.forName("Map2D", true, loader);
+            Class<?> generators = Class.forName("MapGenerators", true, loader);
+            Class<?> pathfinder = Class.forName("AStarPathfinder", true, loader);
+            Class<?> context = Class.forName("PathfinderContext", true, loader);
+            Class<?> result = Class.forName("PathResult", true, loader);
+            Class<?> waypoint = Class.forName("Waypoint", true, loader);
+
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+
+            GENERATE = lookup.findStatic(generators, "generate",
+                    MethodType.methodType(map2d, String.class, int.class, int.class, long.class))
+                    .asType(MethodType.methodType(Object.class, String.class, int.class,
+                            int.class, long.class));
+
+            COMPUTE_PATH = lookup.findStatic(pathfinder, "computePath",
+                    MethodType.methodType(waypoint, map2d))
+                    .asType(MethodType.methodType(Object.class, Object.class));
+
+            COMPUTE_JUMP_POINT_PATH = lookup.findStatic(pathfinder, "computeJumpPointPath",
+                    MethodType.methodType(waypoint, map2d))
+                    .asType(MethodType.methodType(Object.class, Object.class));
+
+            NEW_CONTEXT = lookup.findConstructor(context, MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(Object.class));
+
+            NEW_RESULT = lookup.findConstructor(result, MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(Object.class));
+
+            CONTEXT_COMPUTE_PATH = lookup.findVirtual(context, "computePath",
+                    MethodType.methodType(boolean.class, map2d, result))
+                    .asType(MethodType.methodType(boolean.class, Object.class, Object.class,
+                            Object.class));
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /** Содержит только статические поля. **/
+    private Lab3()
+    {
+    }
+}
@@ -0,0 +1,93 @@
+package lab3.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Тесты производительности <code>AStarPathfinder.computePath</code> на картах разных размеров
+ * и моделей препятствий. Режим {@link Mode#Throughput} дает операции в секунду, режим
+ * {@link Mode#SampleTime} — распределение задержки с процентилями; частоту выделения памяти
+ * показывает профилировщик gc, который {@link BenchmarkRunner} включает по умолчанию.
+ * <p>
+ * Карты строятся детерминированно из {@link #seed}, поэтому результаты разных запусков и
+ * разных версий кода сравнимы между собой.
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+public class PathfindingBenchmark
+{
+    /** Сторона квадратной карты. **/
+    @Param({ "64", "256", "1024", "4096" })
+    public int size;
+
+    /** Модель препятствий, см. <code>MapGenerators.MODELS</code>. **/
+    @Param({ "noise", "maze", "rooms", "open" })
+    public String model;
+
+    /** Начальное значение генератора карты. **/
+    @Param({ "42" })
+    public long seed;
+
+    /** Карта (экземпляр <code>Map2D</code>). **/
+    private Object map;
+
+    /** Переиспользуемый контекст поиска (экземпляр <code>PathfinderContext</code>). **/
+    private Object context;
+
+    /** Переиспользуемый результат (экземпляр <code>PathResult</code>). **/
+    private Object result;
+
+    /** Строит карту один раз на запуск. **/
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable
+    {
+        map = (Object) Lab3.GENERATE.invokeExact(model, size, size, seed);
+        context = (Object) Lab3.NEW_CONTEXT.invokeExact();
+        result = (Object) Lab3.NEW_RESULT.invokeExact();
+    }
+
+    /** Поиск через <code>AStarPathfinder.computePath(Map2D)</code>, как в приложении. **/
+    @Benchmark
+    public Object computePath() throws Throwable
+    {
+        return (Object) Lab3.COMPUTE_PATH.invokeExact(map);
+    }
+
+    /**
+     * Поиск через <code>AStarPathfinder.computeJumpPointPath(Map2D)</code>. На карте
+     * <code>"open"</code> с одинаковой стоимостью ячеек работает поиск с точками прыжка, на
+     * остальных — обычный A*.
+     **/
+    @Benchmark
+    public Object computeJumpPointPath() throws Throwable
+    {
+        return (Object) Lab3.COMPUTE_JUMP_POINT_PATH.invokeExact(map);
+    }
+
+    /**
+     * Поиск через переиспользуемый <code>PathfinderContext</code>: показывает стоимость
+     * самого поиска без построения цепочки путевых точек.
+     **/
+    @Benchmark
+    public boolean computePathWithContext() throws Throwable
+    {
+        return (boolean) Lab3.CONTEXT_COMPUTE_PATH.invokeExact(context, map, result);
+    }
+}
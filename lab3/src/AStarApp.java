@@ -1,5 +1,9 @@
 import java.awt.*;
 import java.awt.event.*;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import javax.swing.*;
 
 
@@ -9,9 +13,19 @@ import javax.swing.*;
  * может рисовать или убирать препятствия на карте, а затем нажимать кнопку, чтобы вычислить
  * путь от начала до конца с использованием алгоритма поиска пути A*. Если путь
  * найден, он отображается зеленым цветом.
+ * <p>
+ * Поиск выполняется в фоновом потоке, поэтому интерфейс не замирает на больших картах. Пока
+ * поиск идет, открытые и раскрытые ячейки показываются с частотой не больше
+ * {@link #FRAMES_PER_SECOND} кадров в секунду; изменение карты пользователем отменяет поиск.
  **/
 public class AStarApp {
 
+    /** Наибольшая частота обновления изображения хода поиска. **/
+    private static final int FRAMES_PER_SECOND = 30;
+
+    /** Наименьший промежуток между кадрами хода поиска. **/
+    private static final long FRAME_NANOS = 1000000000L / FRAMES_PER_SECOND;
+
     /** Количество ячеек сетки в направлении X. **/
     private int width;
 
@@ -25,17 +39,112 @@ public class AStarApp {
     private Location finishLoc;
 
     /**
-     * Это двухмерный массив компонентов пользовательского интерфейса, которые обеспечивают отображение и управление
-     * ячеек на карте.
-     ***/
-    private JMapCell[][] mapCells;
+     * Компонент, который рисует все ячейки карты и хранит их состояние. Перерисовывает только
+     * изменившиеся ячейки.
+     **/
+    private JMapGrid mapGrid;
+
+    /** Фоновый поток, в котором выполняется поиск пути. **/
+    private final ExecutorService searchExecutor =
+            Executors.newSingleThreadExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r)
+                {
+                    Thread t = new Thread(r, "pathfinder");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    /**
+     * Контекст поиска. Используется только фоновым потоком, поэтому массивы поиска
+     * переиспользуются между запусками.
+     **/
+    private final PathfinderContext context = new PathfinderContext();
+
+    /** Токен отмены текущего поиска или <code>null</code>. Доступен только потоку Swing. **/
+    private CancellationToken searchToken;
+
+    /**
+     * Номер текущего поиска. Результаты, которые фоновый поток присылает для поиска с другим
+     * номером, устарели и отбрасываются. Доступен только потоку Swing.
+     **/
+    private int searchGeneration;
+
+    /**
+     * Этот внутренний класс получает уведомления о ходе поиска в фоновом потоке и копит
+     * изменившиеся ячейки. Не чаще, чем раз в {@link #FRAME_NANOS}, накопленные ячейки
+     * передаются в поток Swing одним пакетом.
+     **/
+    private class FrontierPublisher implements SearchListener
+    {
+        /** Номер поиска, ход которого публикуется. **/
+        private final int generation;
+
+        /** Ячейки (y * width + x), добавленные в открытый список с прошлого кадра. **/
+        private int[] opened = new int[256];
+
+        /** Количество ячеек в {@link #opened}. **/
+        private int numOpened;
+
+        /** Ячейки, раскрытые с прошлого кадра. **/
+        private int[] closed = new int[256];
+
+        /** Количество ячеек в {@link #closed}. **/
+        private int numClosed;
+
+        /** Время публикации прошлого кадра. **/
+        private long lastFrame = System.nanoTime();
+
+        FrontierPublisher(int generation)
+        {
+            this.generation = generation;
+        }
+
+        public void nodeOpened(int x, int y, float prevCost, float remainingCost)
+        {
+            if (numOpened == opened.length)
+                opened = Arrays.copyOf(opened, numOpened * 2);
+            opened[numOpened++] = y * width + x;
+        }
+
+        public void nodeExpanded(int x, int y, float prevCost, float remainingCost)
+        {
+            if (numClosed == closed.length)
+                closed = Arrays.copyOf(closed, numClosed * 2);
+            closed[numClosed++] = y * width + x;
+
+            long now = System.nanoTime();
+            if (now - lastFrame >= FRAME_NANOS)
+            {
+                lastFrame = now;
+                publish();
+            }
+        }
+
+        /** Передает накопленные ячейки в поток Swing. **/
+        void publish()
+        {
+            if (numOpened == 0 && numClosed == 0)
+                return;
+
+            final int[] o = Arrays.copyOf(opened, numOpened);
+            final int[] c = Arrays.copyOf(closed, numClosed);
+            numOpened = 0;
+            numClosed = 0;
+
+            SwingUtilities.invokeLater(new Runnable() {
+                public void run() { showFrontier(generation, o, c); }
+            });
+        }
+    }
 
     /**
      * Этот внутренний класс обрабатывает события мыши в основной сетке ячеек карты,
      * изменение ячеек в зависимости от состояния кнопки мыши и первоначального редактирования
-     * что было выполнено.
+     * что было выполнено. Редактирование выполняется левой кнопкой; правая кнопка и колесо
+     * обрабатываются самой сеткой для сдвига и масштаба.
      **/
-    private class MapCellHandler implements MouseListener
+    private class MapCellHandler implements MouseListener, MouseMotionListener
     {
         /**
          * Это значение будет истинным, если кнопка мыши была нажата и мы
@@ -50,40 +159,108 @@ public class AStarApp {
          **/
         private boolean makePassable;
 
+        /** Последняя измененная ячейка или <code>null</code>. **/
+        private Location lastCell;
+
         /** Инициирует операцию модификации. **/
         public void mousePressed(MouseEvent e)
         {
+            if (!SwingUtilities.isLeftMouseButton(e))
+                return;
+
+            Location cell = mapGrid.getCellAt(e.getPoint());
+            if (cell == null)
+                return;
+
             modifying = true;
 
-            JMapCell cell = (JMapCell) e.getSource();
+            // Карта меняется, поэтому идущий поиск уже не нужен.
+            cancelSearch();
 
             // Если текущая ячейка проходима, то мы делаем их
             // непроходим; если это непроходимо, то мы делаем их проходимыми.
 
-            makePassable = !cell.isPassable();
+            makePassable = !mapGrid.isPassable(cell.xCoord, cell.yCoord);
 
-            cell.setPassable(makePassable);
+            mapGrid.setPassable(cell.xCoord, cell.yCoord, makePassable);
+            lastCell = cell;
         }
 
         /** Завершает операцию модификации. **/
         public void mouseReleased(MouseEvent e)
         {
-            modifying = false;
+            if (SwingUtilities.isLeftMouseButton(e))
+            {
+                modifying = false;
+                lastCell = null;
+            }
         }
 
         /**
          * Если мышь была нажата, модификация продолжается
-         * операция в новую ячейку.
+         * операция в новую ячейку. Ячейки между прошлой и новой позицией мыши тоже
+         * изменяются, чтобы быстрое движение не оставляло разрывов.
          **/
-        public void mouseEntered(MouseEvent e)
+        public void mouseDragged(MouseEvent e)
+        {
+            if (!modifying)
+                return;
+
+            Location cell = mapGrid.getCellAt(e.getPoint());
+            if (cell == null || cell.equals(lastCell))
+                return;
+
+            if (lastCell == null)
+                mapGrid.setPassable(cell.xCoord, cell.yCoord, makePassable);
+            else
+                modifyLine(lastCell, cell);
+
+            lastCell = cell;
+        }
+
+        /** Изменяет ячейки отрезка между двумя ячейками (алгоритм Брезенхэма). **/
+        private void modifyLine(Location from, Location to)
         {
-            if (modifying)
+            int x = from.xCoord;
+            int y = from.yCoord;
+            int dx = Math.abs(to.xCoord - x);
+            int dy = -Math.abs(to.yCoord - y);
+            int sx = (x < to.xCoord) ? 1 : -1;
+            int sy = (y < to.yCoord) ? 1 : -1;
+            int err = dx + dy;
+
+            while (true)
             {
-                JMapCell cell = (JMapCell) e.getSource();
-                cell.setPassable(makePassable);
+                mapGrid.setPassable(x, y, makePassable);
+                if (x == to.xCoord && y == to.yCoord)
+                    break;
+
+                int e2 = 2 * err;
+                if (e2 >= dy)
+                {
+                    err += dy;
+                    x += sx;
+                }
+                if (e2 <= dx)
+                {
+                    err += dx;
+                    y += sy;
+                }
             }
         }
 
+        /** Не требуется для этого обработчика. **/
+        public void mouseMoved(MouseEvent e)
+        {
+            // Этого мы игнорируем.
+        }
+
+        /** Не требуется для этого обработчика. **/
+        public void mouseEntered(MouseEvent e)
+        {
+            // Этого мы игнорируем.
+        }
+
         /** Не требуется для этого обработчика. **/
         public void mouseExited(MouseEvent e)
         {
@@ -128,40 +305,13 @@ public class AStarApp {
 
         contentPane.setLayout(new BorderLayout());
 
-        // Используйте GridBagLayout, потому что он фактически учитывает предпочтительный размер
-        // определяется компонентами, которые он размещает.
-
-        GridBagLayout gbLayout = new GridBagLayout();
-        GridBagConstraints gbConstraints = new GridBagConstraints();
-        gbConstraints.fill = GridBagConstraints.BOTH;
-        gbConstraints.weightx = 1;
-        gbConstraints.weighty = 1;
-        gbConstraints.insets.set(0, 0, 1, 1);
-
-        JPanel mapPanel = new JPanel(gbLayout);
-        mapPanel.setBackground(Color.GRAY);
-
-        mapCells = new JMapCell[width][height];
+        mapGrid = new JMapGrid(width, height);
 
         MapCellHandler cellHandler = new MapCellHandler();
+        mapGrid.addMouseListener(cellHandler);
+        mapGrid.addMouseMotionListener(cellHandler);
 
-        for (int y = 0; y < height; y++)
-        {
-            for (int x = 0; x < width; x++)
-            {
-                mapCells[x][y] = new JMapCell();
-
-                gbConstraints.gridx = x;
-                gbConstraints.gridy = y;
-
-                gbLayout.setConstraints(mapCells[x][y], gbConstraints);
-
-                mapPanel.add(mapCells[x][y]);
-                mapCells[x][y].addMouseListener(cellHandler);
-            }
-        }
-
-        contentPane.add(mapPanel, BorderLayout.CENTER);
+        contentPane.add(mapGrid, BorderLayout.CENTER);
 
         JButton findPathButton = new JButton("Find Path");
         findPathButton.addActionListener(new ActionListener() {
@@ -173,8 +323,8 @@ public class AStarApp {
         frame.pack();
         frame.setVisible(true);
 
-        mapCells[startLoc.xCoord][startLoc.yCoord].setEndpoint(true);
-        mapCells[finishLoc.xCoord][finishLoc.yCoord].setEndpoint(true);
+        mapGrid.setEndpoint(startLoc.xCoord, startLoc.yCoord, true);
+        mapGrid.setEndpoint(finishLoc.xCoord, finishLoc.yCoord, true);
     }
 
     /** Запускает приложение. Вызывается из метода {@link #main}.**/
@@ -187,17 +337,20 @@ public class AStarApp {
 
     /**
      * Этот вспомогательный метод пытается вычислить путь, используя текущую карту
-     * государство. Реализация довольно медленная; новый объект {@link Map2D}
-     * создается и инициализируется из текущего состояния приложения. Тогда А*
-     * вызывается поиск пути, и если путь найден, дисплей обновляется до
-     * показать путь, который был найден. (Лучшее решение будет использовать Модель
+     * государство. Новый объект {@link Map2D} создается и инициализируется из текущего
+     * состояния приложения в потоке Swing, а сам поиск пути A* выполняется в фоновом потоке.
+     * Ход поиска показывается по мере его выполнения, а найденный путь отображается одним
+     * пакетом. (Лучшее решение будет использовать Модель
      * Посмотреть шаблон проектирования контроллера.)
      **/
     private void findAndShowPath()
     {
+        // Предыдущий поиск, если он еще идет, больше не нужен.
+        cancelSearch();
+
         // Создаем объект Map2D, содержащий текущее состояние пользовательского ввода.
 
-        Map2D map = new Map2D(width, height);
+        final Map2D map = new Map2D(width, height);
         map.setStart(startLoc);
         map.setFinish(finishLoc);
 
@@ -205,35 +358,113 @@ public class AStarApp {
         {
             for (int x = 0; x < width; x++)
             {
-                mapCells[x][y].setPath(false);
-
-                if (mapCells[x][y].isPassable())
+                if (mapGrid.isPassable(x, y))
                     map.setCellValue(x, y, 0);
                 else
                     map.setCellValue(x, y, Integer.MAX_VALUE);
             }
         }
 
-        // Пытаемся вычислить путь. Если можно вычислить, отметьте все ячейки в
-        // дорожка.
+        final int generation = searchGeneration;
+        final CancellationToken token = new CancellationToken();
+        searchToken = token;
+
+        searchExecutor.execute(new Runnable() {
+            public void run() { runSearch(map, generation, token); }
+        });
+    }
+
+    /**
+     * Выполняет поиск в фоновом потоке и передает найденный путь в поток Swing. Если поиск
+     * отменен, результат отбрасывается.
+     **/
+    private void runSearch(Map2D map, final int generation, CancellationToken token)
+    {
+        FrontierPublisher publisher = new FrontierPublisher(generation);
+
+        SearchOptions options = new SearchOptions();
+        options.setListener(publisher);
+        options.setCancellationToken(token);
+
+        final PathResult result = new PathResult();
+        context.computePath(map, startLoc.xCoord, startLoc.yCoord,
+                finishLoc.xCoord, finishLoc.yCoord, result, options);
 
-        Waypoint wp = AStarPathfinder.computePath(map);
+        if (token.isCancelled())
+            return;
 
-        while (wp != null)
+        publisher.publish();
+
+        SwingUtilities.invokeLater(new Runnable() {
+            public void run() { showPath(generation, result); }
+        });
+    }
+
+    /**
+     * Отменяет идущий поиск и стирает с карты его ход и найденный путь. Вызывается из потока
+     * Swing.
+     **/
+    private void cancelSearch()
+    {
+        if (searchToken != null)
         {
-            Location loc = wp.getLocation();
-            mapCells[loc.xCoord][loc.yCoord].setPath(true);
+            searchToken.cancel();
+            searchToken = null;
+        }
+
+        searchGeneration++;
+
+        mapGrid.clearSearchMarks();
+    }
+
+    /** Показывает очередной кадр хода поиска. Вызывается из потока Swing. **/
+    private void showFrontier(int generation, int[] opened, int[] closed)
+    {
+        if (generation != searchGeneration)
+            return;
 
-            wp = wp.getPrevious();
+        for (int i = 0; i < opened.length; i++)
+            mapGrid.markFrontier(opened[i] % width, opened[i] / width, true, false);
+
+        for (int i = 0; i < closed.length; i++)
+            mapGrid.markFrontier(closed[i] % width, closed[i] / width, false, true);
+
+        mapGrid.repaintDirty();
+    }
+
+    /**
+     * Отмечает все ячейки найденного пути и перерисовывает карту один раз. Вызывается из
+     * потока Swing.
+     **/
+    private void showPath(int generation, PathResult result)
+    {
+        if (generation != searchGeneration)
+            return;
+
+        searchToken = null;
+
+        if (result.isFound())
+        {
+            for (int k = 0; k < result.getLength(); k++)
+                mapGrid.markPath(result.getX(k), result.getY(k), true);
         }
+        mapGrid.repaintDirty();
     }
 
     /**
-     * Точка входа для приложения. Нет аргументов командной строки.
-     * признается в настоящее время.
+     * Точка входа для приложения. Необязательные аргументы командной строки — ширина и
+     * высота карты; по умолчанию карта 40x30.
      **/
     public static void main(String[] args) {
-        AStarApp app = new AStarApp(40, 30);
+        int w = 40;
+        int h = 30;
+        if (args.length >= 2)
+        {
+            w = Integer.parseInt(args[0]);
+            h = Integer.parseInt(args[1]);
+        }
+
+        AStarApp app = new AStarApp(w, h);
         app.start();
     }
 }
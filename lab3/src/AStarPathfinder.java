@@ -1,5 +1,10 @@
-import java.util.HashMap;
-import java.util.HashSet;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
@@ -16,6 +21,19 @@ public class AStarPathfinder {
      **/
     public static final float COST_LIMIT = 1e6f;
 
+    /** Длина шага в соседнюю ячейку по прямой. **/
+    public static final float STRAIGHT_STEP = estimateTravelCost(0, 0, 1, 0);
+
+    /** Длина шага в соседнюю ячейку по диагонали. **/
+    public static final float DIAGONAL_STEP = estimateTravelCost(0, 0, 1, 1);
+
+    /**
+     * Контекст поиска и результат для статических методов, свой в каждом потоке. Мягкая ссылка
+     * позволяет сборщику мусора освободить массивы простаивающего потока.
+     **/
+    private static final ThreadLocal<SoftReference<CachedContext>> CONTEXTS =
+            new ThreadLocal<SoftReference<CachedContext>>();
+
 
     /**
      * Попытки вычислить путь, который перемещается между началом и концом
@@ -23,15 +41,287 @@ public class AStarPathfinder {
      * возвращается <em>последний</em> шаг пути; эта путевая точка может быть
      * используется для ходьбы назад к исходной точке. Если путь не найден,
      * Возвращается <code>null</code>.
+     * Поиск выполняется в {@link PathfinderContext}, который каждый поток переиспользует между
+     * вызовами, поэтому повторные запросы не выделяют массивы состояния заново. Если состояние
+     * в плоских массивах не помещается в память, используется {@link AStarState}.
      **/
     public static Waypoint computePath(Map2D map)
     {
-        // Переменные, необходимые для поиска A*.
-        AStarState state = new AStarState(map);
-        Location finishLoc = map.getFinish();
+        // Для карт, которые не помещаются в плоские массивы (например, MappedMap2D размером
+        // в десятки миллиардов ячеек), состояние хранит только посещенные ячейки.
+        if (!GridSearchState.canHold(map.getWidth(), map.getHeight()))
+            return computePath(map, new AStarState(map));
+
+        CachedContext cached = acquireContext();
+        try
+        {
+            cached.context.computePath(map, cached.result);
+            return cached.result.toWaypoint();
+        }
+        finally
+        {
+            cached.release();
+        }
+    }
+
+    /**
+     * Вычисляет путь между началом и концом карты, собирая статистику, уведомляя слушателя и
+     * записывая метрики согласно <code>options</code> (см. {@link SearchOptions}). Как и
+     * {@link #computePath(Map2D)}, возвращает <code>null</code>, если путь до конца карты не
+     * найден, в том числе если поиск остановлен по сроку, бюджету или отмене. Частичный путь
+     * в этом случае можно получить через {@link PathfinderContext} и
+     * {@link PathResult#getStatus()}.
+     * <p>
+     * Параметры поддерживает только поиск в плоских массивах. Если состояние поиска по карте в
+     * них не помещается (см. {@link GridSearchState#canHold(int, int)}), то при выключенных
+     * параметрах путь ищется так же, как в {@link #computePath(Map2D)}, а при включенных
+     * генерируется исключение <code>IllegalArgumentException</code>.
+     **/
+    public static Waypoint computePath(Map2D map, SearchOptions options)
+    {
+        if (!GridSearchState.canHold(map.getWidth(), map.getHeight()))
+        {
+            if (options != null && !options.isDefault())
+            {
+                throw new IllegalArgumentException("search options are not supported on a " +
+                        map.getWidth() + "x" + map.getHeight() + " map, which is too large " +
+                        "for a flat search state");
+            }
+            return computePath(map);
+        }
+
+        Location start = map.getStart();
+        Location finish = map.getFinish();
+
+        CachedContext cached = acquireContext();
+        try
+        {
+            boolean found = cached.context.computePath(map, start.xCoord, start.yCoord,
+                    finish.xCoord, finish.yCoord, cached.result, options);
+            return found ? cached.result.toWaypoint() : null;
+        }
+        finally
+        {
+            cached.release();
+        }
+    }
+
+    /**
+     * Вычисляет путь между началом и концом карты так же, как {@link #computePath(Map2D)}, но
+     * возвращает его в компактном виде {@link CompactPath} без цепочки путевых точек.
+     * Возвращает <code>null</code>, если путь не найден. Для карт, состояние которых не
+     * помещается в плоские массивы, путь ищется в {@link AStarState} и затем сжимается.
+     **/
+    public static CompactPath computeCompactPath(Map2D map)
+    {
+        if (!GridSearchState.canHold(map.getWidth(), map.getHeight()))
+            return CompactPath.fromWaypoint(computePath(map, new AStarState(map)));
+
+        CachedContext cached = acquireContext();
+        try
+        {
+            cached.context.computePath(map, cached.result);
+            return cached.result.toCompactPath();
+        }
+        finally
+        {
+            cached.release();
+        }
+    }
+
+    /**
+     * Вычисляет путь между указанными местоположениями, не используя начальное и конечное
+     * местоположения, сохраненные в карте. Возвращает последнюю путевую точку пути или
+     * <code>null</code>, если путь не найден. Для карт, состояние которых не помещается в
+     * плоские массивы, используется {@link AStarState}, как в {@link #computePath(Map2D)}.
+     **/
+    public static Waypoint computePath(Map2D map, Location start, Location finish)
+    {
+        // Как и в computePath(Map2D): большие карты ищутся в состоянии посещенных ячеек.
+        if (!GridSearchState.canHold(map.getWidth(), map.getHeight()))
+        {
+            if (!map.contains(start) || !map.contains(finish))
+                throw new IllegalArgumentException("start and finish must be inside the map");
+
+            return search(map, start, finish, new AStarState(map));
+        }
+
+        CachedContext cached = acquireContext();
+        try
+        {
+            cached.context.computePath(map, start.xCoord, start.yCoord,
+                    finish.xCoord, finish.yCoord, cached.result);
+            return cached.result.toWaypoint();
+        }
+        finally
+        {
+            cached.release();
+        }
+    }
+
+    /**
+     * Вычисляет путь от указанного местоположения до той из целей, путь до которой дешевле
+     * всего, одним поиском (см. {@link PathfinderContext#computePathToNearest}). Возвращает
+     * последнюю путевую точку пути — ее местоположение и есть достигнутая цель — или
+     * <code>null</code>, если ни одна цель не достижима.
+     **/
+    public static Waypoint computePathToNearest(Map2D map, Location start, List<Location> goals)
+    {
+        GoalSet goalSet = new GoalSet(goals);
+        CachedContext cached = acquireContext();
+        try
+        {
+            cached.context.computePathToNearest(map, start.xCoord, start.yCoord,
+                    goalSet, cached.result, null);
+            return cached.result.toWaypoint();
+        }
+        finally
+        {
+            cached.release();
+        }
+    }
+
+    /**
+     * Вычисляет путь между началом и концом карты двунаправленным поиском A*: одновременно от
+     * начала и от конца. Стоимость пути такая же, как у {@link #computePath(Map2D)}, а если
+     * конечная ячейка отрезана препятствиями, поиск завершается, не обходя всю карту.
+     **/
+    public static Waypoint computeBidirectionalPath(Map2D map)
+    {
+        Location start = map.getStart();
+        Location finish = map.getFinish();
+
+        CachedContext cached = acquireContext();
+        try
+        {
+            cached.context.computeBidirectionalPath(map, start.xCoord, start.yCoord,
+                    finish.xCoord, finish.yCoord, cached.result);
+            return cached.result.toWaypoint();
+        }
+        finally
+        {
+            cached.release();
+        }
+    }
+
+    /**
+     * Вычисляет пути для списка запросов над одной картой параллельно в общем
+     * {@link ForkJoinPool}. Возвращает последние путевые точки путей в порядке запросов
+     * (<code>null</code> для запросов, путь для которых не найден).
+     **/
+    public static List<Waypoint> computePaths(Map2D map, List<PathQuery> queries)
+    {
+        return computePaths(map, queries, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Вычисляет пути для списка запросов над одной картой параллельно в указанном пуле потоков.
+     * Карта используется только для чтения и не должна изменяться, пока выполняется вызов.
+     * Запускается по одной задаче на поток пула, и каждая задача создает один
+     * {@link PathfinderContext} на все свои запросы; очередной запрос задача берет из общего
+     * счетчика, поэтому потоки не простаивают из-за разной длины путей. Между задачами нет
+     * общего изменяемого состояния, кроме счетчика. Число задач ограничено так, чтобы их
+     * состояния вместе занимали не больше половины кучи; если состояние карты не помещается в
+     * плоские массивы, каждый запрос ищется в {@link AStarState}. Возвращает последние путевые
+     * точки путей в порядке запросов.
+     **/
+    public static List<Waypoint> computePaths(final Map2D map, final List<PathQuery> queries,
+                                              ForkJoinPool pool)
+    {
+        final Waypoint[] results = new Waypoint[queries.size()];
+        final AtomicInteger nextQuery = new AtomicInteger();
+
+        int workers = Math.max(1, Math.min(queries.size(), pool.getParallelism()));
+
+        // Каждая задача держит свое плоское состояние, поэтому вместе они не должны занимать
+        // больше половины кучи, как и одно состояние в GridSearchState.canHold. Если не
+        // помещается и одно, каждый запрос ищется в AStarState.
+        final boolean flat = GridSearchState.canHold(map.getWidth(), map.getHeight());
+        if (flat)
+        {
+            long perWorker = GridSearchState.estimateMemoryUsage(map.getWidth(), map.getHeight());
+            long fit = Runtime.getRuntime().maxMemory() / 2 / Math.max(1, perWorker);
+            workers = (int) Math.max(1, Math.min(workers, fit));
+        }
+
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int k = 0; k < workers; k++)
+        {
+            tasks.add(new Callable<Void>() {
+                public Void call()
+                {
+                    PathfinderContext context = flat ? new PathfinderContext() : null;
+                    PathResult result = new PathResult();
+
+                    for (int i = nextQuery.getAndIncrement(); i < results.length;
+                         i = nextQuery.getAndIncrement())
+                    {
+                        PathQuery q = queries.get(i);
+                        if (!flat)
+                        {
+                            results[i] = computePath(map, q.getStart(), q.getFinish());
+                            continue;
+                        }
+
+                        context.computePath(map, q.getStart().xCoord, q.getStart().yCoord,
+                                q.getFinish().xCoord, q.getFinish().yCoord, result);
+                        results[i] = result.toWaypoint();
+                    }
+                    return null;
+                }
+            });
+        }
+
+        ParallelTasks.invokeAll(pool, tasks, "path computation");
+
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Вычисляет путь между началом и концом карты с помощью поиска с точками прыжка
+     * ({@link JumpPointSearch}), если все проходимые ячейки карты имеют одинаковую стоимость.
+     * На открытых картах такой поиск раскрывает на порядок меньше ячеек. Для остальных карт
+     * вызывается обычный {@link #computePath(Map2D)}. Стоимость найденного пути в обоих случаях
+     * одинакова, хотя сам путь может отличаться от пути обычного A* среди путей равной стоимости.
+     **/
+    public static Waypoint computeJumpPointPath(Map2D map)
+    {
+        JumpPointSearch search = JumpPointSearch.forMap(map);
+        if (search == null)
+            return computePath(map);
+
+        return search.computePath();
+    }
+
+    /**
+     * Вычисляет путь так же, как {@link #computePath(Map2D)}, но использует переданный объект
+     * состояния поиска. Объект состояния должен быть новым и относиться к этой же карте.
+     **/
+    public static Waypoint computePath(Map2D map, SearchState state)
+    {
+        if (state.getMap() != map)
+            throw new IllegalArgumentException("state belongs to a different map");
 
+        // Плоское состояние обходится по номерам ячеек, без путевых точек на каждом шаге.
+        if (state instanceof GridSearchState)
+        {
+            PathResult result = new PathResult();
+            new PathfinderContext((GridSearchState) state).computePath(map, result);
+            return result.toWaypoint();
+        }
+
+        return search(map, map.getStart(), map.getFinish(), state);
+    }
+
+    /**
+     * Поиск A* между указанными местоположениями в переданном объекте состояния, который
+     * хранит путевые точки.
+     **/
+    private static Waypoint search(Map2D map, Location startLoc, Location finishLoc,
+                                   SearchState state)
+    {
         // Установите начальную путевую точку, чтобы начать поиск A*.
-        Waypoint start = new Waypoint(map.getStart(), null);
+        Waypoint start = new Waypoint(startLoc, null);
         start.setCosts(0, estimateTravelCost(start.getLocation(), finishLoc));
         state.addOpenWaypoint(start);
 
@@ -46,13 +336,15 @@ public class AStarPathfinder {
             // Если лучшее место — это место финиша, то мы закончили!
             if (best.getLocation().equals(finishLoc))
             {
-                finalWaypoint = best;
+                // Состояние может возвращать путевые точки без цепочки,
+                // поэтому берем полный путь у самого состояния.
+                finalWaypoint = state.getWaypoint(best.getLocation());
                 foundPath = true;
             }
 
             // Добавить/обновить всех соседей текущего лучшего местоположения. Это
             // эквивалентно попытке выполнить все «следующие шаги» из этого места.
-            takeNextStep(best, state);
+            takeNextStep(best, state, finishLoc);
 
             // Наконец, переместите это место из "открытого" списка в "закрытый"
             // список.
@@ -67,7 +359,7 @@ public class AStarPathfinder {
      * шагов" от этой путевой точки. Новые путевые точки добавляются в "открытый
      * waypoints" коллекция переданного объекта состояния A*.
      **/
-    private static void takeNextStep(Waypoint currWP, AStarState state)
+    private static void takeNextStep(Waypoint currWP, SearchState state, Location finishLoc)
     {
         Location loc = currWP.getLocation();
         Map2D map = state.getMap();
@@ -76,16 +368,16 @@ public class AStarPathfinder {
         {
             for (int x = loc.xCoord - 1; x <= loc.xCoord + 1; x++)
             {
-                Location nextLoc = new Location(x, y);
-
                 // Если "следующее местоположение" находится за пределами карты, пропустите его.
-                if (!map.contains(nextLoc))
+                if (!map.contains(x, y))
                     continue;
 
                 // Если «следующее место» — это место, пропустите его.
-                if (nextLoc == loc)
+                if (x == loc.xCoord && y == loc.yCoord)
                     continue;
 
+                Location nextLoc = new Location(x, y);
+
                 // Если это место уже находится в "закрытом" наборе
                 // затем перейдите к следующему местоположению.
                 if (state.isLocationClosed(nextLoc))
@@ -103,14 +395,14 @@ public class AStarPathfinder {
                         estimateTravelCost(currWP.getLocation(),
                                 nextWP.getLocation());
 
-                prevCost += map.getCellValue(nextLoc);
+                prevCost += map.getCellValueUnchecked(nextLoc.xCoord, nextLoc.yCoord);
 
                 // Пропустите это «следующее место», если оно слишком затратно.
                 if (prevCost >= COST_LIMIT)
                     continue;
 
                 nextWP.setCosts(prevCost,
-                        estimateTravelCost(nextLoc, map.getFinish()));
+                        estimateTravelCost(nextLoc, finishLoc));
 
                 // Добавляем путевую точку в набор открытых путевых точек. Если там
                 // уже является путевой точкой для этого местоположения, новый
@@ -128,9 +420,76 @@ public class AStarPathfinder {
      **/
     private static float estimateTravelCost(Location currLoc, Location destLoc)
     {
-        int dx = destLoc.xCoord - currLoc.xCoord;
-        int dy = destLoc.yCoord - currLoc.yCoord;
+        return estimateTravelCost(currLoc.xCoord, currLoc.yCoord,
+                destLoc.xCoord, destLoc.yCoord);
+    }
+
+    /**
+     * Возвращает длину шага (dx, dy) в соседнюю ячейку: {@link #STRAIGHT_STEP} или
+     * {@link #DIAGONAL_STEP}. Поиски прибавляют к накопленной стоимости сначала длину шага,
+     * затем значение ячейки, чтобы стоимости путей совпадали во всех классах до последнего
+     * разряда.
+     **/
+    public static float stepLength(int dx, int dy)
+    {
+        return (dx == 0 || dy == 0) ? STRAIGHT_STEP : DIAGONAL_STEP;
+    }
+
+    /**
+     * Возвращает стоимость одного шага (dx, dy) в соседнюю ячейку со значением
+     * <code>value</code>: длину шага плюс значение ячейки.
+     **/
+    public static float stepCost(int dx, int dy, int value)
+    {
+        return stepLength(dx, dy) + value;
+    }
+
+    /** Оценивает стоимость проезда между двумя ячейками, заданными координатами. **/
+    static float estimateTravelCost(int currX, int currY, int destX, int destY)
+    {
+        // В long, чтобы квадраты не переполнялись на картах шире 46 340 ячеек.
+        long dx = destX - currX;
+        long dy = destY - currY;
 
         return (float) Math.sqrt(dx * dx + dy * dy);
     }
+
+    /**
+     * Возвращает контекст поиска текущего потока. Если контекст уже занят (статический метод
+     * вызван повторно, например из слушателя поиска), возвращает новый контекст.
+     **/
+    private static CachedContext acquireContext()
+    {
+        SoftReference<CachedContext> ref = CONTEXTS.get();
+        CachedContext cached = (ref != null) ? ref.get() : null;
+
+        if (cached == null)
+        {
+            cached = new CachedContext();
+            CONTEXTS.set(new SoftReference<CachedContext>(cached));
+        }
+        else if (cached.inUse)
+        {
+            cached = new CachedContext();
+        }
+
+        cached.inUse = true;
+        return cached;
+    }
+
+    /** Контекст поиска и результат, которые поток переиспользует между вызовами. **/
+    private static final class CachedContext
+    {
+        final PathfinderContext context = new PathfinderContext();
+        final PathResult result = new PathResult();
+
+        /** True, пока контекст используется вызовом статического метода. **/
+        boolean inUse;
+
+        /** Освобождает контекст для следующего вызова в этом потоке. **/
+        void release()
+        {
+            inUse = false;
+        }
+    }
 }
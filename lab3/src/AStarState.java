@@ -5,13 +5,15 @@
  **/
 import java.util.HashMap;
 import java.util.Map;
-public class AStarState
+public class AStarState implements SearchState
 {
     /** Это ссылка на карту, по которой перемещается алгоритм A*. **/
     private Map2D map;
     //инициализировали два поля класса AStarState хэш-карты - открытых и закрытых полей.
     private Map<Location, Waypoint> openWaypoints;
     private Map<Location, Waypoint> closedWaypoints;
+    //Куча открытых точек, упорядоченная по общей стоимости; позволяет не перебирать всю хэш-карту.
+    private WaypointHeap openHeap;
 
     /** Инициализировать новый объект состояния для использования алгоритмом поиска пути A*. **/
     public AStarState(Map2D map)
@@ -22,6 +24,7 @@ public class AStarState
         this.map = map;
         openWaypoints = new HashMap<Location, Waypoint>();
         closedWaypoints = new HashMap<Location, Waypoint>();
+        openHeap = new WaypointHeap();
     }
 
     /** Возвращает карту, по которой перемещается навигатор A*. **/
@@ -31,25 +34,13 @@ public class AStarState
     }
 
     /**
-     * Этот метод сканирует все открытые путевые точки и возвращает путевую точку с минимальной общей стоимостью.
+     * Этот метод возвращает открытую путевую точку с минимальной общей стоимостью; при равной стоимости
+     * выбирается точка с меньшей оценкой оставшейся стоимости.
      * Если открытых путевых точек нет, этот метод возвращает <code>null</code>.
      **/
-    public Waypoint getMinOpenWaypoint()//в нём программа перебирает все значения
-    // openWaypoints и находит среди них минимум по общей стоимости waypoint-а.
+    public Waypoint getMinOpenWaypoint()//минимум всегда лежит в корне кучи открытых точек.
     {
-        Waypoint minWaypoint = null;
-        Waypoint comparableWaypoint = null;
-        float minCost = Float.MAX_VALUE;
-        //Итерируем по всем открытым точкам и постепенно находим минимум.
-        for (int i = 0; i < openWaypoints.size(); i++){
-            comparableWaypoint = (Waypoint) openWaypoints.values().toArray()[i];//Метод values () возвращает массив, содержащий список констант перечисления.
-            // toArray-приведение списков к массивам:
-            if(comparableWaypoint.getTotalCost() < minCost){
-                minWaypoint = comparableWaypoint;
-                minCost = comparableWaypoint.getTotalCost();
-            }
-        }
-        return minWaypoint;
+        return openHeap.peek();
     }
 
     /**
@@ -65,8 +56,15 @@ public class AStarState
         //Пробуем найти точку в открытых точках.
         Waypoint toCompare = openWaypoints.get(newWP.getLocation());
         //Если точка не найдена или она присутсвует, но её пред. значение меньше то добавляем/заменяем ее в коллекции.
-        if(toCompare == null || toCompare.getPreviousCost() > newWP.getPreviousCost()){
+        if(toCompare == null){
             openWaypoints.put(newWP.getLocation(), newWP);
+            openHeap.add(newWP);
+            return true;
+        }
+        //Иначе заменяем старую точку в куче на более дешевую (decrease-key).
+        if(toCompare.getPreviousCost() > newWP.getPreviousCost()){
+            openWaypoints.put(newWP.getLocation(), newWP);
+            openHeap.replace(toCompare, newWP);
             return true;
         }
         return false;
@@ -90,6 +88,7 @@ public class AStarState
         if(point == null) return;
         //Удаляем точку из списка открытых
         openWaypoints.remove(loc);
+        openHeap.remove(point);
         //Добавляем точку в список закрытых
         closedWaypoints.put(loc, point);
     }
@@ -101,4 +100,16 @@ public class AStarState
     {
         return closedWaypoints.get(loc) != null;
     }
+
+    /**
+     * Возвращает путевую точку для указанного места из открытого или закрытого списка. Путевые точки
+     * здесь хранятся целиком, поэтому цепочка предыдущих точек уже готова.
+     **/
+    public Waypoint getWaypoint(Location loc)
+    {
+        Waypoint point = openWaypoints.get(loc);
+        if (point == null)
+            point = closedWaypoints.get(loc);
+        return point;
+    }
 }
\ No newline at end of file
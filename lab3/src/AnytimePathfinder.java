@@ -0,0 +1,343 @@
+import java.util.Arrays;
+
+
+/**
+ * Этот класс реализует anytime-поиск ARA* (Anytime Repairing A*). Первый проход — взвешенный
+ * A* с большим весом эвристики: он быстро находит путь, стоимость которого не более чем в
+ * «вес» раз больше кратчайшей. Затем вес уменьшается, и каждый следующий проход улучшает путь,
+ * используя стоимости, найденные предыдущими проходами: заново раскрываются только ячейки,
+ * стоимость которых уменьшилась. Поиск останавливается, когда путь доказанно оптимален или
+ * наступил срок, заданный вызывающим; в обоих случаях возвращается лучший найденный путь и
+ * достигнутая граница субоптимальности.
+ * <p>
+ * Как и {@link PathfinderContext}, объект хранит состояние в плоских массивах и использует их
+ * повторно для каждого запроса. Объект не является потокобезопасным.
+ **/
+public class AnytimePathfinder
+{
+    /** Как часто (в раскрытых ячейках) проверяется срок. **/
+    private static final int DEADLINE_CHECK_MASK = 255;
+
+    /** Вес эвристики первого прохода. **/
+    private final float initialWeight;
+
+    /** Насколько уменьшается вес после каждого прохода. **/
+    private final float weightStep;
+
+    /** Эвристика или <code>null</code> для расстояния по прямой. **/
+    private Heuristic heuristic;
+
+    /** Стоимости путей от начала; действительны, если отметка в {@link #seen} текущая. **/
+    private float[] costs;
+
+    /** Индексы предыдущих ячеек пути или -1 для начала. **/
+    private int[] parents;
+
+    /** Отметка поиска, в котором ячейке присвоена стоимость. **/
+    private int[] seen;
+
+    /** Отметка прохода, в котором ячейка закрыта. **/
+    private int[] closed;
+
+    /** Отметка прохода, в котором ячейка попала в список несогласованных. **/
+    private int[] inconsistent;
+
+    /**
+     * Ячейки, стоимость которых уменьшилась после закрытия в текущем проходе, а затем
+     * временно все ячейки, которые переходят в следующий проход.
+     **/
+    private int[] pending;
+
+    /** Количество ячеек в {@link #pending}. **/
+    private int numPending;
+
+    /** Открытый список, упорядоченный по g + w·h. **/
+    private NodeHeap open;
+
+    /** Отметка текущего поиска. **/
+    private int searchStamp;
+
+    /** Отметка текущего прохода. **/
+    private int passStamp;
+
+    /** Граница субоптимальности последнего поиска. **/
+    private float bound = Float.POSITIVE_INFINITY;
+
+    /** Количество завершенных проходов последнего поиска. **/
+    private int passes;
+
+    /** Количество ячеек, раскрытых последним поиском. **/
+    private long expanded;
+
+
+    /** Создает поиск с начальным весом 3, который уменьшается на 0.5 после каждого прохода. **/
+    public AnytimePathfinder()
+    {
+        this(3, 0.5f);
+    }
+
+    /**
+     * Создает поиск с указанным весом первого прохода и шагом уменьшения веса. Последний
+     * проход всегда выполняется с весом 1.
+     **/
+    public AnytimePathfinder(float initialWeight, float weightStep)
+    {
+        if (!(initialWeight >= 1) || Float.isInfinite(initialWeight))
+        {
+            throw new IllegalArgumentException("initialWeight must be a finite value >= 1, got " +
+                    initialWeight);
+        }
+
+        if (!(weightStep > 0))
+            throw new IllegalArgumentException("weightStep must be positive, got " + weightStep);
+
+        this.initialWeight = initialWeight;
+        this.weightStep = weightStep;
+    }
+
+    /**
+     * Задает эвристику, например {@link LandmarkHeuristic}; <code>null</code> возвращает
+     * расстояние по прямой. Эвристика должна быть согласованной (см. {@link Heuristic}).
+     **/
+    public void setHeuristic(Heuristic heuristic)
+    {
+        this.heuristic = heuristic;
+    }
+
+    /**
+     * Ищет путь между указанными ячейками до срока <code>deadlineNanos</code> (значение
+     * {@link System#nanoTime()}) и записывает лучший найденный путь в <code>result</code>.
+     * Возвращает границу субоптимальности: стоимость пути не больше стоимости кратчайшего,
+     * умноженной на это число. Если путь доказанно оптимален, возвращается 1. Если путь не
+     * найден или срок наступил раньше, чем закончился первый проход, возвращается
+     * {@link Float#POSITIVE_INFINITY}; во втором случае <code>result</code> может содержать
+     * путь, для которого граница еще не доказана.
+     **/
+    public float computePath(Map2D map, int startX, int startY, int finishX, int finishY,
+                             long deadlineNanos, PathResult result)
+    {
+        if (!map.contains(startX, startY) || !map.contains(finishX, finishY))
+            throw new IllegalArgumentException("start and finish must be inside the map");
+
+        prepare(map);
+        result.clear();
+        bound = Float.POSITIVE_INFINITY;
+        passes = 0;
+        expanded = 0;
+
+        int width = map.getWidth();
+        int startIndex = startY * width + startX;
+        int finishIndex = finishY * width + finishX;
+
+        costs[startIndex] = 0;
+        parents[startIndex] = -1;
+        seen[startIndex] = searchStamp;
+
+        float weight = initialWeight;
+        open.update(startIndex, weight * estimate(startX, startY, finishX, finishY), 0);
+
+        while (true)
+        {
+            boolean finished = improvePath(map, finishX, finishY, finishIndex, weight,
+                    deadlineNanos);
+
+            if (seen[finishIndex] == searchStamp)
+                result.fill(parents, finishIndex, map, finishX, finishY);
+
+            if (!finished)
+                break;
+
+            passes++;
+
+            // Граница: стоимость пути, деленная на нижнюю оценку стоимости кратчайшего пути —
+            // минимум g + h по открытым и несогласованным ячейкам.
+            collectPending();
+            float lowerBound = Float.POSITIVE_INFINITY;
+            for (int k = 0; k < numPending; k++)
+            {
+                int i = pending[k];
+                float f = costs[i] + estimate(i % width, i / width, finishX, finishY);
+                if (f < lowerBound)
+                    lowerBound = f;
+            }
+
+            if (!result.isFound())
+                break;
+
+            float passBound = result.getTotalCost() / lowerBound;
+            bound = Math.max(1, Math.min(weight, passBound));
+
+            if (bound <= 1 || weight <= 1 || System.nanoTime() - deadlineNanos >= 0)
+                break;
+
+            // Следующий проход: меньший вес, открытый список из открытых и несогласованных
+            // ячеек, закрытый список пуст.
+            weight = Math.max(1, weight - weightStep);
+            nextPass();
+            for (int k = 0; k < numPending; k++)
+            {
+                int i = pending[k];
+                float h = estimate(i % width, i / width, finishX, finishY);
+                open.update(i, costs[i] + weight * h, h);
+            }
+            numPending = 0;
+        }
+
+        return bound;
+    }
+
+    /**
+     * Один проход ARA*: раскрывает ячейки, пока стоимость пути до конечной ячейки больше
+     * минимального ключа открытого списка. Возвращает false, если наступил срок.
+     **/
+    private boolean improvePath(Map2D map, int finishX, int finishY, int finishIndex,
+                                float weight, long deadlineNanos)
+    {
+        int width = map.getWidth();
+        while (!open.isEmpty())
+        {
+            if (seen[finishIndex] == searchStamp && costs[finishIndex] <= open.peekKey())
+                return true;
+
+            if ((expanded & DEADLINE_CHECK_MASK) == 0 && System.nanoTime() - deadlineNanos >= 0)
+                return false;
+
+            int current = open.poll();
+            closed[current] = passStamp;
+            expanded++;
+
+            int cx = current % width;
+            int cy = current / width;
+            float currCost = costs[current];
+
+            for (int y = cy - 1; y <= cy + 1; y++)
+            {
+                for (int x = cx - 1; x <= cx + 1; x++)
+                {
+                    if (!map.contains(x, y))
+                        continue;
+
+                    if (x == cx && y == cy)
+                        continue;
+
+                    float prevCost = currCost +
+                            AStarPathfinder.stepLength(x - cx, y - cy);
+
+                    prevCost += map.getCellValueUnchecked(x, y);
+
+                    if (prevCost >= AStarPathfinder.COST_LIMIT)
+                        continue;
+
+                    int next = y * width + x;
+                    if (seen[next] == searchStamp && costs[next] <= prevCost)
+                        continue;
+
+                    costs[next] = prevCost;
+                    parents[next] = current;
+                    seen[next] = searchStamp;
+
+                    if (closed[next] != passStamp)
+                    {
+                        float h = estimate(x, y, finishX, finishY);
+                        open.update(next, prevCost + weight * h, h);
+                    }
+                    else if (inconsistent[next] != passStamp)
+                    {
+                        inconsistent[next] = passStamp;
+                        addPending(next);
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /** Переносит открытые ячейки в {@link #pending} вслед за несогласованными. **/
+    private void collectPending()
+    {
+        while (!open.isEmpty())
+            addPending(open.poll());
+    }
+
+    /** Добавляет ячейку в {@link #pending}. **/
+    private void addPending(int index)
+    {
+        if (numPending == pending.length)
+            pending = Arrays.copyOf(pending, pending.length * 2);
+        pending[numPending++] = index;
+    }
+
+    /** Возвращает эвристическую оценку от ячейки до конечной ячейки. **/
+    private float estimate(int x, int y, int finishX, int finishY)
+    {
+        return (heuristic == null)
+                ? AStarPathfinder.estimateTravelCost(x, y, finishX, finishY)
+                : heuristic.estimateTravelCost(x, y, finishX, finishY);
+    }
+
+    /** Готовит массивы к новому поиску по карте; массивы растут только для больших карт. **/
+    private void prepare(Map2D map)
+    {
+        long cells = (long) map.getWidth() * map.getHeight();
+        if (cells > Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException("map is too large: " + map.getWidth() + "x" +
+                    map.getHeight());
+        }
+
+        if (costs == null || cells > costs.length)
+        {
+            int n = (int) cells;
+            costs = new float[n];
+            parents = new int[n];
+            seen = new int[n];
+            closed = new int[n];
+            inconsistent = new int[n];
+            pending = new int[64];
+            open = new NodeHeap(n);
+            searchStamp = 0;
+            passStamp = 0;
+        }
+
+        open.clear();
+        numPending = 0;
+
+        if (searchStamp == Integer.MAX_VALUE)
+        {
+            Arrays.fill(seen, 0);
+            searchStamp = 0;
+        }
+        searchStamp++;
+        nextPass();
+    }
+
+    /** Начинает новый проход: закрытый и несогласованный списки становятся пустыми. **/
+    private void nextPass()
+    {
+        if (passStamp == Integer.MAX_VALUE)
+        {
+            Arrays.fill(closed, 0);
+            Arrays.fill(inconsistent, 0);
+            passStamp = 0;
+        }
+        passStamp++;
+    }
+
+    /** Возвращает границу субоптимальности последнего поиска. **/
+    public float getBound()
+    {
+        return bound;
+    }
+
+    /** Возвращает количество проходов, завершенных последним поиском. **/
+    public int getPassCount()
+    {
+        return passes;
+    }
+
+    /** Возвращает количество ячеек, раскрытых последним поиском во всех проходах. **/
+    public long getNodesExpanded()
+    {
+        return expanded;
+    }
+}
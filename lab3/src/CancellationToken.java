@@ -0,0 +1,24 @@
+/**
+ * Этот класс позволяет отменить поиск пути из другого потока. Токен передается в поиск через
+ * {@link SearchOptions#setCancellationToken(CancellationToken)}; после вызова
+ * {@link #cancel()} поиск останавливается в течение нескольких сотен раскрытых ячеек и
+ * возвращает частичный результат ({@link SearchStatus#PARTIAL}). Отмену нельзя отозвать:
+ * для нового поиска нужен новый токен.
+ **/
+public class CancellationToken
+{
+    /** True, если поиск отменен. **/
+    private volatile boolean cancelled;
+
+    /** Отменяет все поиски, которые используют этот токен. **/
+    public void cancel()
+    {
+        cancelled = true;
+    }
+
+    /** Возвращает true, если токен был отменен. **/
+    public boolean isCancelled()
+    {
+        return cancelled;
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ * Этот перечислимый тип задает, сколько бит занимает одна ячейка карты {@link Map2D} и какие
+ * значения стоимости в ней можно хранить. Непроходимая ячейка во всех кодировках хранится как
+ * особое значение и читается как {@link #BLOCKED}.
+ **/
+public enum CellEncoding
+{
+    /** Один бит на ячейку: только 0 (свободно) и {@link #BLOCKED}. **/
+    BIT(1, 0),
+
+    /** Один байт на ячейку: стоимости от 0 до 254 и {@link #BLOCKED}. **/
+    BYTE(8, 254),
+
+    /** Два байта на ячейку: стоимости от 0 до 65 534 и {@link #BLOCKED}. **/
+    SHORT(16, 65534),
+
+    /** Четыре байта на ячейку: любое значение int, как в исходной карте. **/
+    INT(32, Integer.MAX_VALUE);
+
+    /** Значение непроходимой ячейки, как в {@link AStarApp}. **/
+    public static final int BLOCKED = Integer.MAX_VALUE;
+
+    /** Количество бит на ячейку. **/
+    private final int bits;
+
+    /** Наибольшая хранимая стоимость проходимой ячейки. **/
+    private final int maxCost;
+
+    CellEncoding(int bits, int maxCost)
+    {
+        this.bits = bits;
+        this.maxCost = maxCost;
+    }
+
+    /** Возвращает количество бит на ячейку. **/
+    public int getBits()
+    {
+        return bits;
+    }
+
+    /** Возвращает наибольшую стоимость проходимой ячейки, которую можно хранить. **/
+    public int getMaxCost()
+    {
+        return maxCost;
+    }
+
+    /** Особое хранимое значение непроходимой ячейки. **/
+    int blockedRaw()
+    {
+        return this == INT ? BLOCKED : (int) ((1L << bits) - 1);
+    }
+
+    /**
+     * Преобразует стоимость ячейки в хранимое значение. Бросает
+     * <code>IllegalArgumentException</code>, если стоимость нельзя хранить в этой кодировке.
+     **/
+    int encode(int value)
+    {
+        if (this == INT)
+            return value;
+
+        if (value == BLOCKED)
+            return blockedRaw();
+
+        if (value < 0 || value > maxCost)
+        {
+            throw new IllegalArgumentException("value " + value + " cannot be stored with " +
+                    name() + " encoding; allowed range is [0, " + maxCost + "] or BLOCKED");
+        }
+        return value;
+    }
+
+    /** Преобразует хранимое значение (без знака) обратно в стоимость ячейки. **/
+    int decode(int raw)
+    {
+        if (this == INT)
+            return raw;
+
+        return raw == blockedRaw() ? BLOCKED : raw;
+    }
+
+    /**
+     * Возвращает наименее затратную кодировку, в которой можно хранить все стоимости от 0 до
+     * <code>maxCost</code> и непроходимые ячейки.
+     **/
+    public static CellEncoding forMaxCost(int maxCost)
+    {
+        CellEncoding[] all = values();
+        for (int i = 0; i < all.length; i++)
+        {
+            if (all[i].maxCost >= maxCost)
+                return all[i];
+        }
+        return INT;
+    }
+
+    /** Возвращает количество байт для хранения указанного количества ячеек. **/
+    public long bytesFor(long cells)
+    {
+        return (cells * bits + 7) >>> 3;
+    }
+}
@@ -0,0 +1,438 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+
+/**
+ * Этот класс хранит ячейки карты в одном плоском массиве в порядке строк: ячейка (x, y) имеет
+ * номер <code>y * width + x</code>. Размер элемента задается {@link CellEncoding}, поэтому
+ * карта свободных и занятых ячеек занимает в 32 раза меньше памяти, чем массив int.
+ * Значения хранятся в закодированном виде; преобразование выполняют
+ * {@link CellEncoding#encode(int)} и {@link CellEncoding#decode(int)}.
+ * <p>
+ * Для массовой загрузки и сохранения хранилище представляется как поток байт
+ * ({@link #byteSize()} байт): хранимые значения подряд в порядке little-endian, а в кодировке
+ * {@link CellEncoding#BIT} — по восемь ячеек в байте, начиная с младшего бита. Методы
+ * {@link #readBytes(ByteBuffer, long)} и {@link #writeBytes(ByteBuffer, long)} копируют этот
+ * поток блоками, не обращаясь к ячейкам по одной.
+ **/
+abstract class CellStorage
+{
+    /** Кодировка ячеек. **/
+    final CellEncoding encoding;
+
+    /** Количество ячеек. **/
+    final long size;
+
+    CellStorage(CellEncoding encoding, long size)
+    {
+        this.encoding = encoding;
+        this.size = size;
+    }
+
+    /** Создает хранилище указанной кодировки, заполненное нулями. **/
+    static CellStorage create(CellEncoding encoding, long size)
+    {
+        if (encoding == null)
+            throw new NullPointerException("encoding cannot be null");
+
+        switch (encoding)
+        {
+            case BIT:
+                return new Bits(size);
+            case BYTE:
+                return new Bytes(checkSize(encoding, size));
+            case SHORT:
+                return new Shorts(checkSize(encoding, size));
+            default:
+                return new Ints(checkSize(encoding, size));
+        }
+    }
+
+    /** Проверяет, что ячейки помещаются в один массив Java. **/
+    private static int checkSize(CellEncoding encoding, long size)
+    {
+        if (size > Integer.MAX_VALUE - 8)
+        {
+            throw new IllegalArgumentException("map with " + size + " cells is too large for " +
+                    encoding + " encoding on the heap; use BIT encoding or MappedMap2D");
+        }
+        return (int) size;
+    }
+
+    /** Возвращает стоимость ячейки с указанным номером. **/
+    final int get(long index)
+    {
+        return encoding.decode(getRaw(index));
+    }
+
+    /** Задает стоимость ячейки с указанным номером. **/
+    final void set(long index, int value)
+    {
+        setRaw(index, encoding.encode(value));
+    }
+
+    /** Заполняет все ячейки указанной стоимостью. **/
+    final void fill(int value)
+    {
+        fillRaw(encoding.encode(value));
+    }
+
+    /** Возвращает размер хранилища в виде потока байт. **/
+    final long byteSize()
+    {
+        return encoding.bytesFor(size);
+    }
+
+    /** Возвращает количество байт на один элемент массива хранилища. **/
+    abstract int elementBytes();
+
+    /**
+     * Копирует байты из буфера (порядок little-endian) в поток байт хранилища, начиная со
+     * смещения <code>byteOffset</code>, которое должно быть кратно {@link #elementBytes()}.
+     * Копируются только целые элементы, поэтому в буфере может остаться неполный элемент;
+     * исключение — конец хранилища, где неполный элемент дописывается побайтно.
+     * Возвращает количество скопированных байт.
+     **/
+    final int readBytes(ByteBuffer src, long byteOffset)
+    {
+        int unit = elementBytes();
+        long left = byteSize() - byteOffset;
+        int n = (int) Math.min(src.remaining() / unit, left / unit);
+
+        readElements(src, byteOffset / unit, n);
+        src.position(src.position() + n * unit);
+        int copied = n * unit;
+
+        // Хвост последнего элемента, если поток байт не кратен размеру элемента.
+        long tail = left - copied;
+        if (tail > 0 && tail < unit && src.remaining() >= tail)
+        {
+            for (int i = 0; i < tail; i++)
+                setByte(byteOffset + copied + i, src.get());
+            copied += (int) tail;
+        }
+        return copied;
+    }
+
+    /**
+     * Копирует поток байт хранилища, начиная со смещения <code>byteOffset</code> (кратного
+     * {@link #elementBytes()}), в буфер (порядок little-endian), пока в буфере есть место.
+     * Возвращает количество скопированных байт.
+     **/
+    final int writeBytes(ByteBuffer dst, long byteOffset)
+    {
+        int unit = elementBytes();
+        long left = byteSize() - byteOffset;
+        int n = (int) Math.min(dst.remaining() / unit, left / unit);
+
+        writeElements(dst, byteOffset / unit, n);
+        dst.position(dst.position() + n * unit);
+        int copied = n * unit;
+
+        long tail = left - copied;
+        if (tail > 0 && tail < unit && dst.remaining() >= tail)
+        {
+            for (int i = 0; i < tail; i++)
+                dst.put(getByte(byteOffset + copied + i));
+            copied += (int) tail;
+        }
+        return copied;
+    }
+
+    /** Копирует <code>n</code> элементов из буфера, не сдвигая его позицию. **/
+    abstract void readElements(ByteBuffer src, long element, int n);
+
+    /** Копирует <code>n</code> элементов в буфер, не сдвигая его позицию. **/
+    abstract void writeElements(ByteBuffer dst, long element, int n);
+
+    /**
+     * Возвращает байт потока с указанным смещением. Нужен для неполного последнего элемента
+     * потока, который не копируется блоком.
+     **/
+    abstract byte getByte(long byteOffset);
+
+    /** Записывает байт потока с указанным смещением. **/
+    abstract void setByte(long byteOffset, byte b);
+
+    /**
+     * Записывает хранимое значение в ячейки с номерами от <code>from</code> до
+     * <code>to</code> (не включая).
+     **/
+    abstract void fillRaw(long from, long to, int raw);
+
+    /** Возвращает хранимое значение ячейки без знака. **/
+    abstract int getRaw(long index);
+
+    /** Записывает хранимое значение ячейки. **/
+    abstract void setRaw(long index, int raw);
+
+    /** Записывает хранимое значение во все ячейки. **/
+    abstract void fillRaw(int raw);
+
+    /** Один бит на ячейку в массиве long. **/
+    private static final class Bits extends CellStorage
+    {
+        private final long[] words;
+
+        Bits(long size)
+        {
+            super(CellEncoding.BIT, size);
+
+            long n = (size + 63) >>> 6;
+            if (n > Integer.MAX_VALUE - 8)
+                throw new IllegalArgumentException("map with " + size + " cells is too large");
+            words = new long[(int) n];
+        }
+
+        int getRaw(long index)
+        {
+            return (int) (words[(int) (index >>> 6)] >>> index) & 1;
+        }
+
+        void setRaw(long index, int raw)
+        {
+            int w = (int) (index >>> 6);
+            if (raw != 0)
+                words[w] |= 1L << index;
+            else
+                words[w] &= ~(1L << index);
+        }
+
+        void fillRaw(int raw)
+        {
+            Arrays.fill(words, raw != 0 ? -1L : 0L);
+        }
+
+        void fillRaw(long from, long to, int raw)
+        {
+            if (from >= to)
+                return;
+
+            int first = (int) (from >>> 6);
+            int last = (int) ((to - 1) >>> 6);
+            long firstMask = -1L << from;
+            long lastMask = -1L >>> (63 - (int) ((to - 1) & 63));
+
+            if (first == last)
+            {
+                setMasked(first, firstMask & lastMask, raw);
+                return;
+            }
+
+            setMasked(first, firstMask, raw);
+            Arrays.fill(words, first + 1, last, raw != 0 ? -1L : 0L);
+            setMasked(last, lastMask, raw);
+        }
+
+        /** Устанавливает или сбрасывает биты слова по маске. **/
+        private void setMasked(int w, long mask, int raw)
+        {
+            if (raw != 0)
+                words[w] |= mask;
+            else
+                words[w] &= ~mask;
+        }
+
+        int elementBytes()
+        {
+            return 8;
+        }
+
+        void readElements(ByteBuffer src, long element, int n)
+        {
+            src.slice().order(src.order()).asLongBuffer().get(words, (int) element, n);
+        }
+
+        void writeElements(ByteBuffer dst, long element, int n)
+        {
+            dst.slice().order(dst.order()).asLongBuffer().put(words, (int) element, n);
+        }
+
+        byte getByte(long byteOffset)
+        {
+            return (byte) (words[(int) (byteOffset >>> 3)] >>> ((byteOffset & 7) << 3));
+        }
+
+        void setByte(long byteOffset, byte b)
+        {
+            int w = (int) (byteOffset >>> 3);
+            int shift = (int) ((byteOffset & 7) << 3);
+            words[w] = (words[w] & ~(0xFFL << shift)) | ((b & 0xFFL) << shift);
+        }
+    }
+
+    /** Один байт на ячейку. **/
+    private static final class Bytes extends CellStorage
+    {
+        private final byte[] cells;
+
+        Bytes(int size)
+        {
+            super(CellEncoding.BYTE, size);
+            cells = new byte[size];
+        }
+
+        int getRaw(long index)
+        {
+            return cells[(int) index] & 0xFF;
+        }
+
+        void setRaw(long index, int raw)
+        {
+            cells[(int) index] = (byte) raw;
+        }
+
+        void fillRaw(int raw)
+        {
+            Arrays.fill(cells, (byte) raw);
+        }
+
+        void fillRaw(long from, long to, int raw)
+        {
+            Arrays.fill(cells, (int) from, (int) to, (byte) raw);
+        }
+
+        int elementBytes()
+        {
+            return 1;
+        }
+
+        void readElements(ByteBuffer src, long element, int n)
+        {
+            src.slice().get(cells, (int) element, n);
+        }
+
+        void writeElements(ByteBuffer dst, long element, int n)
+        {
+            dst.slice().put(cells, (int) element, n);
+        }
+
+        byte getByte(long byteOffset)
+        {
+            return cells[(int) byteOffset];
+        }
+
+        void setByte(long byteOffset, byte b)
+        {
+            cells[(int) byteOffset] = b;
+        }
+    }
+
+    /** Два байта на ячейку. **/
+    private static final class Shorts extends CellStorage
+    {
+        private final short[] cells;
+
+        Shorts(int size)
+        {
+            super(CellEncoding.SHORT, size);
+            cells = new short[size];
+        }
+
+        int getRaw(long index)
+        {
+            return cells[(int) index] & 0xFFFF;
+        }
+
+        void setRaw(long index, int raw)
+        {
+            cells[(int) index] = (short) raw;
+        }
+
+        void fillRaw(int raw)
+        {
+            Arrays.fill(cells, (short) raw);
+        }
+
+        void fillRaw(long from, long to, int raw)
+        {
+            Arrays.fill(cells, (int) from, (int) to, (short) raw);
+        }
+
+        int elementBytes()
+        {
+            return 2;
+        }
+
+        void readElements(ByteBuffer src, long element, int n)
+        {
+            src.slice().order(src.order()).asShortBuffer().get(cells, (int) element, n);
+        }
+
+        void writeElements(ByteBuffer dst, long element, int n)
+        {
+            dst.slice().order(dst.order()).asShortBuffer().put(cells, (int) element, n);
+        }
+
+        byte getByte(long byteOffset)
+        {
+            return (byte) (cells[(int) (byteOffset >>> 1)] >>> ((byteOffset & 1) << 3));
+        }
+
+        void setByte(long byteOffset, byte b)
+        {
+            int i = (int) (byteOffset >>> 1);
+            int shift = (int) ((byteOffset & 1) << 3);
+            cells[i] = (short) ((cells[i] & ~(0xFF << shift)) | ((b & 0xFF) << shift));
+        }
+    }
+
+    /** Четыре байта на ячейку. **/
+    private static final class Ints extends CellStorage
+    {
+        private final int[] cells;
+
+        Ints(int size)
+        {
+            super(CellEncoding.INT, size);
+            cells = new int[size];
+        }
+
+        int getRaw(long index)
+        {
+            return cells[(int) index];
+        }
+
+        void setRaw(long index, int raw)
+        {
+            cells[(int) index] = raw;
+        }
+
+        void fillRaw(int raw)
+        {
+            Arrays.fill(cells, raw);
+        }
+
+        void fillRaw(long from, long to, int raw)
+        {
+            Arrays.fill(cells, (int) from, (int) to, raw);
+        }
+
+        int elementBytes()
+        {
+            return 4;
+        }
+
+        void readElements(ByteBuffer src, long element, int n)
+        {
+            src.slice().order(src.order()).asIntBuffer().get(cells, (int) element, n);
+        }
+
+        void writeElements(ByteBuffer dst, long element, int n)
+        {
+            dst.slice().order(dst.order()).asIntBuffer().put(cells, (int) element, n);
+        }
+
+        byte getByte(long byteOffset)
+        {
+            return (byte) (cells[(int) (byteOffset >>> 2)] >>> ((byteOffset & 3) << 3));
+        }
+
+        void setByte(long byteOffset, byte b)
+        {
+            int i = (int) (byteOffset >>> 2);
+            int shift = (int) ((byteOffset & 3) << 3);
+            cells[i] = (cells[i] & ~(0xFF << shift)) | ((b & 0xFF) << shift);
+        }
+    }
+}
@@ -0,0 +1,420 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+
+/**
+ * Этот класс хранит путь компактно: начальную ячейку и направления шагов, по 3 бита на шаг
+ * (21 шаг в одном <code>long</code>), вместо цепочки объектов {@link Waypoint}, по одному
+ * на шаг. Путь обходится от начала к концу без создания объектов ({@link Cursor}), а для
+ * доступа к шагу по номеру через каждые {@link #CHECKPOINT_INTERVAL} шагов сохраняются
+ * координаты, поэтому шаг находится не более чем за столько же действий.
+ * <p>
+ * Направления нумеруются так же, как в {@link GridDirections}: 0 — вправо, далее по
+ * часовой стрелке через каждые 45 градусов. Цепочка путевых точек строится методом
+ * {@link #toWaypoint(Map2D)} для совместимости со старым кодом. Объект не изменяется после
+ * создания.
+ **/
+public class CompactPath implements Iterable<Location>
+{
+    /** Как часто (в шагах) сохраняются координаты для доступа по номеру. **/
+    public static final int CHECKPOINT_INTERVAL = 64;
+
+    /** Количество направлений в одном элементе {@link #codes}. **/
+    private static final int CODES_PER_LONG = 21;
+
+    /** Количество ячеек пути, включая начальную и конечную. **/
+    private final int length;
+
+    /** Начальная ячейка. **/
+    private final int startX, startY;
+
+    /** Конечная ячейка. **/
+    private final int finishX, finishY;
+
+    /** Упакованные направления шагов. **/
+    private final long[] codes;
+
+    /** Координаты ячеек с номерами, кратными {@link #CHECKPOINT_INTERVAL}. **/
+    private final int[] checkpointX, checkpointY;
+
+    /** Стоимость пути. **/
+    private final float totalCost;
+
+
+    /**
+     * Этот класс обходит ячейки пути от начала к концу без создания объектов. Сначала курсор
+     * стоит перед первой ячейкой; каждый вызов {@link #next()} переходит к следующей.
+     **/
+    public final class Cursor
+    {
+        /** Номер текущей ячейки или -1 до первого вызова {@link #next()}. **/
+        private int index = -1;
+
+        /** Координаты текущей ячейки. **/
+        private int x, y;
+
+        /** Переходит к следующей ячейке; возвращает false, если путь закончился. **/
+        public boolean next()
+        {
+            if (index + 1 >= length)
+                return false;
+
+            if (index < 0)
+            {
+                x = startX;
+                y = startY;
+            }
+            else
+            {
+                int d = getDirection(index);
+                x += GridDirections.getDeltaX(d);
+                y += GridDirections.getDeltaY(d);
+            }
+            index++;
+            return true;
+        }
+
+        /** Возвращает номер текущей ячейки. **/
+        public int getIndex()
+        {
+            return index;
+        }
+
+        /** Возвращает координату X текущей ячейки. **/
+        public int getX()
+        {
+            return x;
+        }
+
+        /** Возвращает координату Y текущей ячейки. **/
+        public int getY()
+        {
+            return y;
+        }
+    }
+
+
+    /**
+     * Создает путь по координатам ячеек от начала к концу. Соседние ячейки пути должны быть
+     * соседними ячейками карты.
+     **/
+    CompactPath(int[] xs, int[] ys, int length, float totalCost)
+    {
+        if (length <= 0)
+            throw new IllegalArgumentException("length must be positive; got " + length);
+
+        this.length = length;
+        this.totalCost = totalCost;
+        startX = xs[0];
+        startY = ys[0];
+        finishX = xs[length - 1];
+        finishY = ys[length - 1];
+
+        codes = new long[(length - 1 + CODES_PER_LONG - 1) / CODES_PER_LONG];
+        int checkpoints = (length - 1) / CHECKPOINT_INTERVAL + 1;
+        checkpointX = new int[checkpoints];
+        checkpointY = new int[checkpoints];
+
+        for (int k = 0; k < length; k++)
+        {
+            if (k % CHECKPOINT_INTERVAL == 0)
+            {
+                checkpointX[k / CHECKPOINT_INTERVAL] = xs[k];
+                checkpointY[k / CHECKPOINT_INTERVAL] = ys[k];
+            }
+
+            if (k + 1 < length)
+            {
+                long d = directionOf(xs[k + 1] - xs[k], ys[k + 1] - ys[k]);
+                codes[k / CODES_PER_LONG] |= d << (3 * (k % CODES_PER_LONG));
+            }
+        }
+    }
+
+    /**
+     * Создает путь по цепочке путевых точек, заданной последней точкой, как ее возвращает
+     * {@link AStarPathfinder#computePath(Map2D)}. Стоимость пути берется из последней точки.
+     * Возвращает <code>null</code>, если <code>last</code> равен <code>null</code>.
+     **/
+    public static CompactPath fromWaypoint(Waypoint last)
+    {
+        if (last == null)
+            return null;
+
+        int n = 0;
+        for (Waypoint wp = last; wp != null; wp = wp.getPrevious())
+            n++;
+
+        int[] xs = new int[n];
+        int[] ys = new int[n];
+        int k = n - 1;
+        for (Waypoint wp = last; wp != null; wp = wp.getPrevious(), k--)
+        {
+            xs[k] = wp.getLocation().xCoord;
+            ys[k] = wp.getLocation().yCoord;
+        }
+        return new CompactPath(xs, ys, n, last.getPreviousCost());
+    }
+
+    /** Возвращает код направления шага (dx, dy) или бросает исключение, если шага нет. **/
+    private static int directionOf(int dx, int dy)
+    {
+        int d = GridDirections.directionOf(dx, dy);
+        if (d >= 0)
+            return d;
+
+        throw new IllegalArgumentException("path cells must be adjacent; got step (" + dx +
+                ", " + dy + ")");
+    }
+
+    /** Возвращает количество ячеек пути, включая начальную и конечную. **/
+    public int getLength()
+    {
+        return length;
+    }
+
+    /** Возвращает координату X начальной ячейки. **/
+    public int getStartX()
+    {
+        return startX;
+    }
+
+    /** Возвращает координату Y начальной ячейки. **/
+    public int getStartY()
+    {
+        return startY;
+    }
+
+    /** Возвращает координату X конечной ячейки. **/
+    public int getFinishX()
+    {
+        return finishX;
+    }
+
+    /** Возвращает координату Y конечной ячейки. **/
+    public int getFinishY()
+    {
+        return finishY;
+    }
+
+    /** Возвращает стоимость пути, вычисленную при поиске. **/
+    public float getTotalCost()
+    {
+        return totalCost;
+    }
+
+    /**
+     * Возвращает направление шага из ячейки с номером <code>step</code> в следующую; номер
+     * должен быть меньше <code>getLength() - 1</code>.
+     **/
+    public int getDirection(int step)
+    {
+        if (step < 0 || step >= length - 1)
+        {
+            throw new IndexOutOfBoundsException("step must be in range [0, " +
+                    (length - 1) + "), got " + step);
+        }
+
+        return (int) (codes[step / CODES_PER_LONG] >>> (3 * (step % CODES_PER_LONG))) & 7;
+    }
+
+    /** Возвращает координату X ячейки пути с указанным номером. **/
+    public int getX(int index)
+    {
+        checkIndex(index);
+        int k = index / CHECKPOINT_INTERVAL;
+        int x = checkpointX[k];
+        for (int step = k * CHECKPOINT_INTERVAL; step < index; step++)
+            x += GridDirections.getDeltaX(getDirection(step));
+        return x;
+    }
+
+    /** Возвращает координату Y ячейки пути с указанным номером. **/
+    public int getY(int index)
+    {
+        checkIndex(index);
+        int k = index / CHECKPOINT_INTERVAL;
+        int y = checkpointY[k];
+        for (int step = k * CHECKPOINT_INTERVAL; step < index; step++)
+            y += GridDirections.getDeltaY(getDirection(step));
+        return y;
+    }
+
+    /** Возвращает ячейку пути с указанным номером. **/
+    public Location getLocation(int index)
+    {
+        return new Location(getX(index), getY(index));
+    }
+
+    /** Возвращает курсор, стоящий перед первой ячейкой пути. **/
+    public Cursor cursor()
+    {
+        return new Cursor();
+    }
+
+    /** Возвращает итератор по ячейкам пути от начала к концу. **/
+    public Iterator<Location> iterator()
+    {
+        final Cursor cursor = new Cursor();
+        return new Iterator<Location>() {
+            public boolean hasNext()
+            {
+                return cursor.getIndex() + 1 < length;
+            }
+
+            public Location next()
+            {
+                if (!cursor.next())
+                    throw new NoSuchElementException();
+                return new Location(cursor.getX(), cursor.getY());
+            }
+
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Возвращает начальную ячейку, ячейки, в которых меняется направление, и конечную
+     * ячейку: путь — это отрезки прямых между ними.
+     **/
+    public List<Location> getTurns()
+    {
+        List<Location> turns = new ArrayList<Location>();
+        Cursor c = new Cursor();
+        int prev = -1;
+        while (c.next())
+        {
+            int i = c.getIndex();
+            int d = (i < length - 1) ? getDirection(i) : -1;
+            if (i == 0 || d != prev)
+                turns.add(new Location(c.getX(), c.getY()));
+            prev = d;
+        }
+        return turns;
+    }
+
+    /**
+     * Возвращает угловые точки пути, «натянутого как нить»: из каждой угловой точки путь идет
+     * по прямой к самой дальней следующей ячейке пути, до которой прямая (по алгоритму
+     * Брезенхэма) проходит только по проходимым ячейкам не дороже самой дорогой ячейки
+     * заменяемого участка. Отрезки такого пути не обязательно идут по 8 направлениям
+     * сетки.
+     **/
+    public List<Location> getStringPulledCorners(Map2D map)
+    {
+        if (map == null)
+            throw new NullPointerException("map cannot be null");
+
+        // Координаты пути в плоских массивах, чтобы не восстанавливать их много раз.
+        int[] xs = new int[length];
+        int[] ys = new int[length];
+        Cursor c = new Cursor();
+        while (c.next())
+        {
+            xs[c.getIndex()] = c.getX();
+            ys[c.getIndex()] = c.getY();
+        }
+
+        List<Location> corners = new ArrayList<Location>();
+        corners.add(new Location(xs[0], ys[0]));
+
+        int anchor = 0;
+        while (anchor < length - 1)
+        {
+            int maxValue = map.getCellValue(xs[anchor + 1], ys[anchor + 1]);
+            int next = anchor + 1;
+            for (int j = anchor + 2; j < length; j++)
+            {
+                maxValue = Math.max(maxValue, map.getCellValue(xs[j], ys[j]));
+                if (!isLineClear(map, xs[anchor], ys[anchor], xs[j], ys[j], maxValue))
+                    break;
+                next = j;
+            }
+
+            corners.add(new Location(xs[next], ys[next]));
+            anchor = next;
+        }
+        return corners;
+    }
+
+    /**
+     * Возвращает true, если все ячейки прямой между двумя ячейками проходимы и не дороже
+     * <code>maxValue</code>.
+     **/
+    private static boolean isLineClear(Map2D map, int x0, int y0, int x1, int y1, int maxValue)
+    {
+        int dx = Math.abs(x1 - x0);
+        int dy = -Math.abs(y1 - y0);
+        int sx = (x0 < x1) ? 1 : -1;
+        int sy = (y0 < y1) ? 1 : -1;
+        int err = dx + dy;
+        int x = x0;
+        int y = y0;
+
+        while (x != x1 || y != y1)
+        {
+            int e2 = 2 * err;
+            if (e2 >= dy)
+            {
+                err += dy;
+                x += sx;
+            }
+            if (e2 <= dx)
+            {
+                err += dx;
+                y += sy;
+            }
+
+            int value = map.getCellValue(x, y);
+            if (value >= AStarPathfinder.COST_LIMIT || value > maxValue)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Строит цепочку путевых точек и возвращает последнюю точку, как это делает
+     * {@link AStarPathfinder#computePath(Map2D)}. Стоимости точек вычисляются по шагам так
+     * же, как при поиске, по текущим значениям ячеек карты; оставшаяся стоимость — расстояние
+     * по прямой до конечной ячейки.
+     **/
+    public Waypoint toWaypoint(Map2D map)
+    {
+        if (map == null)
+            throw new NullPointerException("map cannot be null");
+
+        Waypoint wp = null;
+        float cost = 0;
+        Cursor c = new Cursor();
+        while (c.next())
+        {
+            int x = c.getX();
+            int y = c.getY();
+            if (c.getIndex() > 0)
+            {
+                int d = getDirection(c.getIndex() - 1);
+                cost += GridDirections.stepLength(d);
+                cost += map.getCellValueUnchecked(x, y);
+            }
+
+            wp = new Waypoint(new Location(x, y), wp);
+            wp.setCosts(cost, AStarPathfinder.estimateTravelCost(x, y, finishX, finishY));
+        }
+        return wp;
+    }
+
+    /** Проверяет номер ячейки пути. **/
+    private void checkIndex(int index)
+    {
+        if (index < 0 || index >= length)
+        {
+            throw new IndexOutOfBoundsException("index must be in range [0, " +
+                    length + "), got " + index);
+        }
+    }
+}
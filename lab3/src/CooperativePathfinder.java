@@ -0,0 +1,489 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+
+/**
+ * Этот класс планирует пути нескольких агентов на одной карте так, чтобы они не сталкивались
+ * (Windowed Hierarchical Cooperative A*). Агенты планируются по очереди: каждый ищет путь в
+ * пространстве-времени на {@link #getWindow()} шагов вперед, обходя ячейки и ребра, уже
+ * зарезервированные предыдущими агентами в {@link ReservationTable}, и резервирует свой путь.
+ * За пределами окна путь оценивается точной стоимостью {@link ReverseResumableHeuristic};
+ * одна такая эвристика разделяется всеми агентами с одной целью.
+ * <p>
+ * Каждый шаг {@link #tick()} передвигает всех агентов на одну ячейку. План пересчитывается,
+ * когда пройдена половина окна; порядок агентов при этом сдвигается, чтобы ни один агент не
+ * оставался последним. Поиск в окне ограничен квадратом со стороной <code>2 * window + 1</code>
+ * вокруг агента, и с точной эвристикой раскрывает немного состояний, поэтому время
+ * планирования на агента почти не зависит от размера карты, а обратный поиск к общей цели
+ * выполняется один раз на всех агентов.
+ * <p>
+ * Перед планированием каждый агент резервирует свою ячейку на текущий и следующий шаг,
+ * поэтому агенты, спланированные раньше, не займут ее, пока он не успел уйти, и у каждого
+ * агента есть безопасный первый шаг — остаться на месте. Агент, для которого в окне нет пути
+ * без столкновений, остается на месте, а план пересчитывается уже на следующем шаге, и этот
+ * агент планируется первым. Объект не является потокобезопасным.
+ **/
+public class CooperativePathfinder
+{
+    /**
+     * Наибольшее окно планирования. Память и время поиска в окне растут как куб окна:
+     * при окне 32 состояний около 140 тысяч.
+     **/
+    public static final int MAX_WINDOW = 32;
+
+    /** Стоимость ожидания на месте в течение одного шага. **/
+    private static final float WAIT_COST = AStarPathfinder.STRAIGHT_STEP;
+
+    /** Карта, по которой движутся агенты. **/
+    private final Map2D map;
+
+    /** Количество шагов, на которое планируется путь каждого агента. **/
+    private final int window;
+
+    /** Сторона квадрата ячеек, доступных агенту за окно: 2 * window + 1. **/
+    private final int side;
+
+    /** Резервирования путей, запланированных в текущем окне. **/
+    private final ReservationTable reservations = new ReservationTable();
+
+    /** Эвристики, разделяемые агентами с одной целью. **/
+    private final HashMap<Location, ReverseResumableHeuristic> heuristics =
+            new HashMap<Location, ReverseResumableHeuristic>();
+
+    /** Агенты в порядке добавления. **/
+    private final ArrayList<Agent> agents = new ArrayList<Agent>();
+
+    /** Текущий шаг. **/
+    private int time;
+
+    /** Шаг, на котором составлен текущий план, или -1, если план нужно составить. **/
+    private int planTime = -1;
+
+    /** Агент, который планируется первым в следующем плане. **/
+    private int firstPriority;
+
+    /** Нужно ли пересчитать план на следующем шаге, потому что кто-то из агентов застрял. **/
+    private boolean replanNeeded;
+
+    /** Порядок планирования агентов в текущем плане. **/
+    private int[] order = new int[0];
+
+    /** Стоимости состояний поиска в окне; действительны, если отметка в {@link #seen} текущая. **/
+    private final float[] costs;
+
+    /** Предыдущие состояния пути. **/
+    private final int[] parents;
+
+    /** Отметка поиска, в котором состоянию присвоена стоимость. **/
+    private final int[] seen;
+
+    /** Отметка поиска, в котором состояние закрыто. **/
+    private final int[] closed;
+
+    /** Открытый список поиска в окне. **/
+    private final NodeHeap open;
+
+    /** Отметка текущего поиска в окне. **/
+    private int searchStamp;
+
+
+    /** Один агент: текущее положение, цель и путь на текущее окно. **/
+    private static final class Agent
+    {
+        /** Текущая ячейка агента. **/
+        int x, y;
+
+        /** Цель агента. **/
+        final int goalX, goalY;
+
+        /** Общая для цели эвристика. **/
+        final ReverseResumableHeuristic heuristic;
+
+        /** Ячейки (y * ширина + x) пути на шагах planTime .. planTime + window. **/
+        final int[] plan;
+
+        /** Не нашлось ли для агента пути без столкновений в последнем плане. **/
+        boolean stuck;
+
+        Agent(int x, int y, int goalX, int goalY, ReverseResumableHeuristic heuristic,
+              int window)
+        {
+            this.x = x;
+            this.y = y;
+            this.goalX = goalX;
+            this.goalY = goalY;
+            this.heuristic = heuristic;
+            plan = new int[window + 1];
+        }
+    }
+
+
+    /** Создает планировщик для карты с окном планирования в указанное число шагов. **/
+    public CooperativePathfinder(Map2D map, int window)
+    {
+        if (map == null)
+            throw new NullPointerException("map cannot be null");
+
+        if (window <= 0 || window > MAX_WINDOW)
+        {
+            throw new IllegalArgumentException("window must be in [1, " + MAX_WINDOW +
+                    "]; got " + window);
+        }
+
+        this.map = map;
+        this.window = window;
+        side = 2 * window + 1;
+
+        int states = side * side * (window + 1);
+        costs = new float[states];
+        parents = new int[states];
+        seen = new int[states];
+        closed = new int[states];
+        open = new NodeHeap(states);
+    }
+
+    /** Возвращает карту планировщика. **/
+    public Map2D getMap()
+    {
+        return map;
+    }
+
+    /** Возвращает количество шагов, на которое планируется путь каждого агента. **/
+    public int getWindow()
+    {
+        return window;
+    }
+
+    /** Возвращает текущий шаг. **/
+    public int getTime()
+    {
+        return time;
+    }
+
+    /**
+     * Добавляет агента с указанным положением и целью и возвращает его номер. Агенты с
+     * одинаковой целью используют общую эвристику.
+     **/
+    public int addAgent(Location start, Location goal)
+    {
+        if (start == null)
+            throw new NullPointerException("start cannot be null");
+
+        if (goal == null)
+            throw new NullPointerException("goal cannot be null");
+
+        if (!map.contains(start.xCoord, start.yCoord) || !map.contains(goal.xCoord, goal.yCoord))
+            throw new IllegalArgumentException("start and goal must be inside the map");
+
+        Location key = new Location(goal.xCoord, goal.yCoord);
+        ReverseResumableHeuristic heuristic = heuristics.get(key);
+        if (heuristic == null)
+        {
+            heuristic = new ReverseResumableHeuristic(map, key);
+            heuristics.put(key, heuristic);
+        }
+
+        agents.add(new Agent(start.xCoord, start.yCoord, goal.xCoord, goal.yCoord, heuristic,
+                window));
+        planTime = -1;
+        return agents.size() - 1;
+    }
+
+    /** Возвращает количество агентов. **/
+    public int getAgentCount()
+    {
+        return agents.size();
+    }
+
+    /** Возвращает текущее положение агента. **/
+    public Location getPosition(int agent)
+    {
+        Agent a = agents.get(agent);
+        return new Location(a.x, a.y);
+    }
+
+    /** Возвращает цель агента. **/
+    public Location getGoal(int agent)
+    {
+        Agent a = agents.get(agent);
+        return new Location(a.goalX, a.goalY);
+    }
+
+    /** Возвращает true, если агент находится в своей цели. **/
+    public boolean isAtGoal(int agent)
+    {
+        Agent a = agents.get(agent);
+        return a.x == a.goalX && a.y == a.goalY;
+    }
+
+    /** Возвращает true, если все агенты находятся в своих целях. **/
+    public boolean allAtGoal()
+    {
+        for (int i = 0; i < agents.size(); i++)
+        {
+            if (!isAtGoal(i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Передвигает всех агентов на один шаг по их планам, предварительно составив новый план,
+     * если текущий устарел.
+     **/
+    public void tick()
+    {
+        ensurePlan();
+
+        int step = time - planTime + 1;
+        int width = map.getWidth();
+        for (int i = 0; i < agents.size(); i++)
+        {
+            Agent a = agents.get(i);
+            a.x = a.plan[step] % width;
+            a.y = a.plan[step] / width;
+        }
+        time++;
+    }
+
+    /**
+     * Возвращает оставшуюся часть запланированного пути агента в виде цепочки путевых точек:
+     * возвращается последняя точка окна, первая точка — текущее положение агента. Стоимость
+     * каждой точки — стоимость пути от текущего положения, оставшаяся стоимость — точная
+     * стоимость пути до цели.
+     **/
+    public Waypoint getPlannedPath(int agent)
+    {
+        ensurePlan();
+
+        Agent a = agents.get(agent);
+        int width = map.getWidth();
+
+        Waypoint wp = null;
+        float cost = 0;
+        for (int k = time - planTime; k <= window; k++)
+        {
+            int x = a.plan[k] % width;
+            int y = a.plan[k] / width;
+            if (wp != null)
+                cost += stepCost(wp.loc.xCoord, wp.loc.yCoord, x, y);
+
+            wp = new Waypoint(new Location(x, y), wp);
+            wp.setCosts(cost, a.heuristic.getDistance(x, y));
+        }
+        return wp;
+    }
+
+    /**
+     * Заново планирует пути всех агентов на окно, начиная с текущего шага. Обычно вызывается
+     * из {@link #tick()}, но может быть вызван явно, например после изменения карты.
+     **/
+    public void plan()
+    {
+        reservations.clear();
+
+        int n = agents.size();
+        int width = map.getWidth();
+        for (int i = 0; i < n; i++)
+        {
+            Agent a = agents.get(i);
+            int cell = a.y * width + a.x;
+            reservations.reserve(cell, time, i);
+            reservations.reserve(cell, time + 1, i);
+        }
+
+        // Застрявшие в прошлом плане агенты идут первыми, остальные — по кругу.
+        if (order.length != n)
+            order = new int[n];
+        int count = 0;
+        for (int k = 0; k < n; k++)
+        {
+            int i = (firstPriority + k) % n;
+            if (agents.get(i).stuck)
+                order[count++] = i;
+        }
+        for (int k = 0; k < n; k++)
+        {
+            int i = (firstPriority + k) % n;
+            if (!agents.get(i).stuck)
+                order[count++] = i;
+        }
+
+        replanNeeded = false;
+        for (int k = 0; k < n; k++)
+            planAgent(order[k]);
+
+        if (n > 0)
+            firstPriority = (firstPriority + 1) % n;
+
+        planTime = time;
+    }
+
+    /**
+     * Составляет новый план, если его нет, пройдена половина окна или в прошлом плане
+     * застрял хотя бы один агент.
+     **/
+    private void ensurePlan()
+    {
+        if (planTime < 0 || replanNeeded || time - planTime >= Math.max(1, window / 2))
+            plan();
+    }
+
+    /**
+     * Ищет путь агента в пространстве-времени на окно вперед и резервирует его. Состояние
+     * поиска — ячейка внутри квадрата вокруг агента и шаг внутри окна. Поиск завершается
+     * на состоянии последнего шага окна или в цели, если ее никто не занимает до конца
+     * окна; ключ состояния — стоимость плюс точная стоимость оставшегося пути.
+     **/
+    private void planAgent(int agent)
+    {
+        Agent a = agents.get(agent);
+        int width = map.getWidth();
+        int area = side * side;
+
+        nextSearch();
+
+        int start = stateOf(a, a.x, a.y, 0);
+        float h = a.heuristic.getDistance(a.x, a.y);
+        costs[start] = 0;
+        parents[start] = -1;
+        seen[start] = searchStamp;
+        open.update(start, h, h);
+
+        int terminal = -1;
+        while (!open.isEmpty())
+        {
+            int current = open.poll();
+            closed[current] = searchStamp;
+
+            int t = current / area;
+            int cx = a.x - window + (current % area) % side;
+            int cy = a.y - window + (current % area) / side;
+            int cell = cy * width + cx;
+
+            if (t == window || (cx == a.goalX && cy == a.goalY && goalFree(cell, t, agent)))
+            {
+                terminal = current;
+                break;
+            }
+
+            for (int y = cy - 1; y <= cy + 1; y++)
+            {
+                for (int x = cx - 1; x <= cx + 1; x++)
+                {
+                    if (!map.contains(x, y))
+                        continue;
+
+                    float step = stepCost(cx, cy, x, y);
+                    if (step >= AStarPathfinder.COST_LIMIT)
+                        continue;
+
+                    int nextCell = y * width + x;
+                    if (!reservations.canMove(cell, nextCell, time + t, agent))
+                        continue;
+
+                    int next = stateOf(a, x, y, t + 1);
+                    if (closed[next] == searchStamp)
+                        continue;
+
+                    float cost = costs[current] + step;
+                    if (seen[next] == searchStamp && costs[next] <= cost)
+                        continue;
+
+                    float rem = a.heuristic.getDistance(x, y);
+                    if (rem == Float.POSITIVE_INFINITY)
+                        continue;
+
+                    costs[next] = cost;
+                    parents[next] = current;
+                    seen[next] = searchStamp;
+                    open.update(next, cost + rem, rem);
+                }
+            }
+        }
+
+        int own = a.y * width + a.x;
+        a.stuck = terminal < 0;
+        if (a.stuck)
+        {
+            // Пути без столкновений нет: агент остается на месте. Свою ячейку на следующий
+            // шаг он зарезервировал заранее; дальше план не действует, потому что на
+            // следующем шаге все агенты планируются заново.
+            Arrays.fill(a.plan, own);
+            for (int k = 0; k <= window; k++)
+                reservations.reserve(own, time + k, agent);
+            replanNeeded = true;
+            return;
+        }
+
+        int t = terminal / area;
+        int last = cellOf(a, terminal);
+        for (int k = t; k <= window; k++)
+            a.plan[k] = last;
+
+        for (int s = terminal; s >= 0; s = parents[s])
+            a.plan[s / area] = cellOf(a, s);
+
+        // Агент уходит со своей ячейки, и агенты, планируемые позже, могут ее занять.
+        if (a.plan[1] != own)
+            reservations.release(own, time + 1, agent);
+
+        for (int k = 0; k <= window; k++)
+            reservations.reserve(a.plan[k], time + k, agent);
+    }
+
+    /**
+     * Возвращает true, если агент, пришедший в цель на шаге <code>t</code> окна, может
+     * оставаться в ней до конца окна.
+     **/
+    private boolean goalFree(int cell, int t, int agent)
+    {
+        for (int k = t + 1; k <= window; k++)
+        {
+            if (!reservations.isFree(cell, time + k, agent))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Возвращает стоимость перехода из ячейки (fromX, fromY) в соседнюю ячейку (x, y) или
+     * ожидания, если ячейки совпадают.
+     **/
+    private float stepCost(int fromX, int fromY, int x, int y)
+    {
+        if (x == fromX && y == fromY)
+            return WAIT_COST;
+
+        return AStarPathfinder.stepCost(x - fromX, y - fromY, map.getCellValueUnchecked(x, y));
+    }
+
+    /** Возвращает номер состояния поиска в окне для ячейки (x, y) на шаге t. **/
+    private int stateOf(Agent a, int x, int y, int t)
+    {
+        return (t * side + (y - a.y + window)) * side + (x - a.x + window);
+    }
+
+    /** Возвращает ячейку карты (y * ширина + x) состояния поиска в окне. **/
+    private int cellOf(Agent a, int state)
+    {
+        int local = state % (side * side);
+        int x = a.x - window + local % side;
+        int y = a.y - window + local / side;
+        return y * map.getWidth() + x;
+    }
+
+    /** Начинает новый поиск в окне: все состояния становятся непосещенными. **/
+    private void nextSearch()
+    {
+        open.clear();
+        if (searchStamp == Integer.MAX_VALUE)
+        {
+            Arrays.fill(seen, 0);
+            Arrays.fill(closed, 0);
+            searchStamp = 0;
+        }
+        searchStamp++;
+    }
+}
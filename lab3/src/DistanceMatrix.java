@@ -0,0 +1,335 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+
+
+/**
+ * Этот класс вычисляет стоимости кратчайших путей между каждым из N начальных и каждым из M
+ * конечных местоположений одной карты. Для каждого начального местоположения выполняется
+ * один поиск Дейкстры, который останавливается, как только стоимости всех конечных
+ * местоположений окончательны, поэтому вся таблица стоит N поисков вместо N·M. Конечные
+ * местоположения, до которых пути нет, заранее исключаются по {@link ReachabilityIndex},
+ * чтобы поиск не обходил из-за них всю карту. Строки вычисляются параллельно в
+ * {@link ForkJoinPool}; каждая задача использует одни и те же массивы для всех своих строк.
+ * <p>
+ * Путевые точки при вычислении таблицы не создаются; путь для нужной пары строится отдельно
+ * методом {@link #getPath(int, int)}. Стоимости учитывают значения ячеек так же, как
+ * {@link AStarPathfinder}, и действительны для той версии карты, при которой таблица
+ * построена (см. {@link #isValid()}).
+ **/
+public class DistanceMatrix
+{
+    /** Карта таблицы. **/
+    private final Map2D map;
+
+    /** Начальные местоположения. **/
+    private final List<Location> sources;
+
+    /** Конечные местоположения. **/
+    private final List<Location> targets;
+
+    /** Версия карты, для которой вычислена таблица. **/
+    private final long version;
+
+    /** Стоимости путей: строка — начальное местоположение, столбец — конечное. **/
+    private final float[][] costs;
+
+    /** Ячейки конечных местоположений (y * ширина + x) по возрастанию. **/
+    private final int[] targetCells;
+
+    /** Номера конечных местоположений в порядке {@link #targetCells}. **/
+    private final int[] targetOrder;
+
+    /** Ячейки, в которых есть конечное местоположение. **/
+    private final BitSet isTarget;
+
+    /**
+     * Количество различных конечных ячеек, достижимых из начального местоположения каждой
+     * строки; поиск строки заканчивается, когда найдены они все.
+     **/
+    private final int[] reachableTargets;
+
+
+    /** Вычисляет таблицу стоимостей в общем {@link ForkJoinPool}. **/
+    public DistanceMatrix(Map2D map, List<Location> sources, List<Location> targets)
+    {
+        this(map, sources, targets, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Вычисляет таблицу стоимостей в указанном пуле. Карта не должна изменяться, пока
+     * выполняется вызов.
+     **/
+    public DistanceMatrix(Map2D map, List<Location> sources, List<Location> targets,
+                          ForkJoinPool pool)
+    {
+        if (map == null)
+            throw new NullPointerException("map cannot be null");
+
+        if (sources == null)
+            throw new NullPointerException("sources cannot be null");
+
+        if (targets == null)
+            throw new NullPointerException("targets cannot be null");
+
+        if (pool == null)
+            throw new NullPointerException("pool cannot be null");
+
+        long cells = (long) map.getWidth() * map.getHeight();
+        if (cells > Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException("map is too large: " + map.getWidth() + "x" +
+                    map.getHeight());
+        }
+
+        this.map = map;
+        this.sources = new ArrayList<Location>(sources);
+        this.targets = new ArrayList<Location>(targets);
+        checkLocations(this.sources, "sources");
+        checkLocations(this.targets, "targets");
+
+        // Конечные местоположения, отсортированные по ячейке, чтобы найти все местоположения
+        // ячейки, когда ее стоимость становится окончательной.
+        int m = this.targets.size();
+        long[] packed = new long[m];
+        for (int j = 0; j < m; j++)
+        {
+            Location loc = this.targets.get(j);
+            packed[j] = ((long) (loc.yCoord * map.getWidth() + loc.xCoord) << 32) | j;
+        }
+        Arrays.sort(packed);
+
+        targetCells = new int[m];
+        targetOrder = new int[m];
+        isTarget = new BitSet((int) cells);
+        for (int k = 0; k < m; k++)
+        {
+            targetCells[k] = (int) (packed[k] >>> 32);
+            targetOrder[k] = (int) packed[k];
+            isTarget.set(targetCells[k]);
+        }
+
+        // Поиск не может закончиться раньше, чем найдет все ожидаемые конечные ячейки, поэтому
+        // недостижимые ячейки исключаются заранее: иначе каждая строка обходила бы всю карту.
+        ReachabilityIndex reachability = new ReachabilityIndex(map, pool);
+        try
+        {
+            reachableTargets = countReachableTargets(reachability);
+        }
+        finally
+        {
+            reachability.dispose();
+        }
+
+        version = map.getVersion();
+        costs = new float[this.sources.size()][m];
+        computeRows(pool);
+    }
+
+    /** Проверяет, что все местоположения списка не равны null и находятся внутри карты. **/
+    private void checkLocations(List<Location> locations, String name)
+    {
+        for (int i = 0; i < locations.size(); i++)
+        {
+            Location loc = locations.get(i);
+            if (loc == null)
+                throw new NullPointerException(name + " cannot contain null");
+
+            if (!map.contains(loc.xCoord, loc.yCoord))
+                throw new IllegalArgumentException(name + " must be inside the map");
+        }
+    }
+
+    /**
+     * Возвращает для каждого начального местоположения количество различных конечных ячеек,
+     * до которых из него есть путь по индексу достижимости.
+     **/
+    private int[] countReachableTargets(ReachabilityIndex reachability)
+    {
+        int width = map.getWidth();
+        int[] counts = new int[sources.size()];
+        for (int i = 0; i < counts.length; i++)
+        {
+            Location source = sources.get(i);
+            for (int k = 0; k < targetCells.length; k++)
+            {
+                if (k > 0 && targetCells[k] == targetCells[k - 1])
+                    continue;
+
+                int cell = targetCells[k];
+                if (reachability.isReachable(source.xCoord, source.yCoord, cell % width,
+                                             cell / width))
+                {
+                    counts[i]++;
+                }
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Распределяет строки между задачами по числу потоков пула: задача k вычисляет строки
+     * k, k + P, k + 2P, ... одними и теми же массивами.
+     **/
+    private void computeRows(ForkJoinPool pool)
+    {
+        final int rows = sources.size();
+        final int step = Math.max(1, Math.min(rows, pool.getParallelism()));
+
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int k = 0; k < step && k < rows; k++)
+        {
+            final int first = k;
+            tasks.add(new Callable<Void>() {
+                public Void call()
+                {
+                    int cells = map.getWidth() * map.getHeight();
+                    float[] dist = new float[cells];
+                    int[] seen = new int[cells];
+                    NodeHeap open = new NodeHeap(cells);
+
+                    int stamp = 0;
+                    for (int i = first; i < rows; i += step)
+                        computeRow(i, dist, seen, ++stamp, open);
+                    return null;
+                }
+            });
+        }
+
+        ParallelTasks.invokeAll(pool, tasks, "distance matrix computation");
+    }
+
+    /**
+     * Вычисляет строку таблицы поиском Дейкстры от начального местоположения, который
+     * заканчивается, когда окончательны стоимости всех достижимых конечных ячеек. Стоимость в
+     * <code>dist</code> действительна, если отметка в <code>seen</code> равна
+     * <code>stamp</code>.
+     **/
+    private void computeRow(int row, float[] dist, int[] seen, int stamp, NodeHeap open)
+    {
+        float[] rowCosts = costs[row];
+        Arrays.fill(rowCosts, Float.POSITIVE_INFINITY);
+
+        int width = map.getWidth();
+        Location source = sources.get(row);
+        int start = source.yCoord * width + source.xCoord;
+
+        open.clear();
+        dist[start] = 0;
+        seen[start] = stamp;
+        open.update(start, 0, 0);
+
+        int remaining = reachableTargets[row];
+        while (remaining > 0 && !open.isEmpty())
+        {
+            float currCost = open.peekKey();
+            int current = open.poll();
+
+            if (isTarget.get(current))
+            {
+                int k = Arrays.binarySearch(targetCells, current);
+                while (k > 0 && targetCells[k - 1] == current)
+                    k--;
+                for (; k < targetCells.length && targetCells[k] == current; k++)
+                    rowCosts[targetOrder[k]] = currCost;
+                remaining--;
+            }
+
+            int cx = current % width;
+            int cy = current / width;
+            for (int y = cy - 1; y <= cy + 1; y++)
+            {
+                for (int x = cx - 1; x <= cx + 1; x++)
+                {
+                    if (!map.contains(x, y))
+                        continue;
+
+                    if (x == cx && y == cy)
+                        continue;
+
+                    float cost = currCost +
+                            AStarPathfinder.stepLength(x - cx, y - cy);
+
+                    cost += map.getCellValueUnchecked(x, y);
+
+                    if (cost >= AStarPathfinder.COST_LIMIT)
+                        continue;
+
+                    int next = y * width + x;
+                    if (seen[next] == stamp && dist[next] <= cost)
+                        continue;
+
+                    dist[next] = cost;
+                    seen[next] = stamp;
+                    open.update(next, cost, 0);
+                }
+            }
+        }
+    }
+
+    /** Возвращает карту таблицы. **/
+    public Map2D getMap()
+    {
+        return map;
+    }
+
+    /** Возвращает true, если карта не изменялась с момента вычисления таблицы. **/
+    public boolean isValid()
+    {
+        return version == map.getVersion();
+    }
+
+    /** Возвращает количество начальных местоположений (строк таблицы). **/
+    public int getSourceCount()
+    {
+        return sources.size();
+    }
+
+    /** Возвращает количество конечных местоположений (столбцов таблицы). **/
+    public int getTargetCount()
+    {
+        return targets.size();
+    }
+
+    /** Возвращает начальное местоположение строки. **/
+    public Location getSource(int source)
+    {
+        return sources.get(source);
+    }
+
+    /** Возвращает конечное местоположение столбца. **/
+    public Location getTarget(int target)
+    {
+        return targets.get(target);
+    }
+
+    /**
+     * Возвращает стоимость пути между начальным и конечным местоположением или
+     * {@link Float#POSITIVE_INFINITY}, если пути нет.
+     **/
+    public float getCost(int source, int target)
+    {
+        return costs[source][target];
+    }
+
+    /**
+     * Возвращает таблицу стоимостей целиком: строка — начальное местоположение, столбец —
+     * конечное. Массив общий и не должен изменяться.
+     **/
+    public float[][] getCosts()
+    {
+        return costs;
+    }
+
+    /**
+     * Строит путь для одной пары поиском A* по текущему состоянию карты. Возвращает
+     * последнюю путевую точку пути или <code>null</code>, если пути нет.
+     **/
+    public Waypoint getPath(int source, int target)
+    {
+        return AStarPathfinder.computePath(map, sources.get(source), targets.get(target));
+    }
+}
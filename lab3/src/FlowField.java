@@ -0,0 +1,481 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+
+
+/**
+ * Этот класс представляет собой поле направлений к одной цели: для каждой ячейки карты
+ * хранятся стоимость кратчайшего пути до цели и направление первого шага этого пути. Поле
+ * строится одним обратным поиском Дейкстры от цели, после чего любой агент узнает свой
+ * следующий шаг за O(1), поэтому поле выгодно, когда к одной цели идет много агентов.
+ * Стоимости учитывают значения ячеек так же, как {@link AStarPathfinder}.
+ * <p>
+ * Поле строится по квадратным участкам {@link #TILE_SIZE}x{@link #TILE_SIZE} параллельно в
+ * {@link ForkJoinPool}: в каждом раунде участки, соседи которых изменили граничные
+ * стоимости, выполняют поиск Дейкстры внутри себя, начиная с этих границ, пока стоимости не
+ * перестанут меняться. Стоимости только уменьшаются, поэтому результат совпадает с обычным
+ * поиском Дейкстры. В пуле с одним потоком поле строится одним поиском по всей карте.
+ * <p>
+ * Поле подписывается на изменения карты и исправляет себя: после уменьшения стоимости
+ * ячейки улучшения распространяются от нее, а после увеличения пересчитываются только
+ * ячейки, пути которых проходили через нее. Поле нужно освободить методом
+ * {@link #dispose()}. Чтение поля не должно выполняться одновременно с изменением карты.
+ **/
+public class FlowField implements MapChangeListener
+{
+    /** Направление ячейки, из которой нет пути к цели, и самой цели. **/
+    public static final int NO_DIRECTION = -1;
+
+    /** Сторона участка, который строится одной задачей. **/
+    public static final int TILE_SIZE = 64;
+
+    /** Карта поля. **/
+    private final Map2D map;
+
+    /** Цель. **/
+    private final int goalX;
+    private final int goalY;
+
+    /** Пул, в котором строятся участки. **/
+    private final ForkJoinPool pool;
+
+    /** Размеры карты. **/
+    private final int width;
+    private final int height;
+
+    /** Количество участков по X и по Y. **/
+    private final int tilesX;
+    private final int tilesY;
+
+    /** Смещения индекса ячейки (y * width + x) для направлений 0..7. **/
+    private final int[] offsets = new int[8];
+
+    /** Стоимость пути от ячейки до цели или {@link Float#POSITIVE_INFINITY}. **/
+    private final float[] dist;
+
+    /** Направление первого шага из ячейки или {@link #NO_DIRECTION}. **/
+    private final byte[] dirs;
+
+    /** Открытый список для исправлений по всей карте; создается при первом исправлении. **/
+    private NodeHeap repairHeap;
+
+
+    /** Создает поле к конечному местоположению карты, которое строится в общем пуле. **/
+    public FlowField(Map2D map)
+    {
+        this(map, map.getFinish(), ForkJoinPool.commonPool());
+    }
+
+    /** Создает поле к указанной ячейке, которое строится в общем пуле. **/
+    public FlowField(Map2D map, Location goal)
+    {
+        this(map, goal, ForkJoinPool.commonPool());
+    }
+
+    /** Создает поле к указанной ячейке, которое строится в указанном пуле. **/
+    public FlowField(Map2D map, Location goal, ForkJoinPool pool)
+    {
+        if (map == null)
+            throw new NullPointerException("map cannot be null");
+
+        if (goal == null)
+            throw new NullPointerException("goal cannot be null");
+
+        if (pool == null)
+            throw new NullPointerException("pool cannot be null");
+
+        if (!map.contains(goal.xCoord, goal.yCoord))
+            throw new IllegalArgumentException("goal must be inside the map");
+
+        long cells = (long) map.getWidth() * map.getHeight();
+        if (cells > Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException("map is too large: " + map.getWidth() + "x" +
+                    map.getHeight());
+        }
+
+        this.map = map;
+        this.pool = pool;
+        goalX = goal.xCoord;
+        goalY = goal.yCoord;
+        width = map.getWidth();
+        height = map.getHeight();
+        tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+        tilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+
+        for (int d = 0; d < GridDirections.COUNT; d++)
+            offsets[d] = GridDirections.getDeltaY(d) * width + GridDirections.getDeltaX(d);
+
+        dist = new float[(int) cells];
+        dirs = new byte[(int) cells];
+
+        rebuild();
+        map.addChangeListener(this);
+    }
+
+    /** Возвращает карту поля. **/
+    public Map2D getMap()
+    {
+        return map;
+    }
+
+    /** Возвращает цель поля. **/
+    public Location getGoal()
+    {
+        return new Location(goalX, goalY);
+    }
+
+    /**
+     * Возвращает стоимость кратчайшего пути от ячейки до цели или
+     * {@link Float#POSITIVE_INFINITY}, если пути нет.
+     **/
+    public float getDistance(int x, int y)
+    {
+        checkCoords(x, y);
+        return dist[y * width + x];
+    }
+
+    /**
+     * Возвращает направление первого шага из ячейки (0 — вправо, далее по часовой стрелке
+     * через каждые 45 градусов) или {@link #NO_DIRECTION} для цели и ячеек без пути.
+     **/
+    public int getDirection(int x, int y)
+    {
+        checkCoords(x, y);
+        return dirs[y * width + x];
+    }
+
+    /** Возвращает смещение по X для направления 0..7 (см. {@link GridDirections}). **/
+    public static int getDeltaX(int direction)
+    {
+        return GridDirections.getDeltaX(direction);
+    }
+
+    /** Возвращает смещение по Y для направления 0..7 (см. {@link GridDirections}). **/
+    public static int getDeltaY(int direction)
+    {
+        return GridDirections.getDeltaY(direction);
+    }
+
+    /**
+     * Возвращает следующую ячейку на пути к цели или <code>null</code>, если ячейка — цель
+     * или из нее нет пути.
+     **/
+    public Location getNextStep(int x, int y)
+    {
+        int d = getDirection(x, y);
+        if (d == NO_DIRECTION)
+            return null;
+
+        return new Location(x + GridDirections.getDeltaX(d),
+                            y + GridDirections.getDeltaY(d));
+    }
+
+    /**
+     * Возвращает индекс (y * ширина + x) следующей ячейки на пути к цели или -1. Этот метод
+     * не создает объектов и предназначен для пошагового движения большого числа агентов.
+     **/
+    public int getNextCell(int cell)
+    {
+        int d = dirs[cell];
+        return (d == NO_DIRECTION) ? -1 : cell + offsets[d];
+    }
+
+    /**
+     * Перестраивает поле целиком для текущего состояния карты. Карта не должна изменяться,
+     * пока выполняется вызов.
+     **/
+    public synchronized void rebuild()
+    {
+        Arrays.fill(dist, Float.POSITIVE_INFINITY);
+        Arrays.fill(dirs, (byte) NO_DIRECTION);
+        dist[goalY * width + goalX] = 0;
+
+        // Участки повторно обходят часть ячеек, поэтому без параллельности один поиск по
+        // всей карте быстрее.
+        if (pool.getParallelism() <= 1 || tilesX * tilesY == 1)
+        {
+            NodeHeap heap = new NodeHeap(dist.length);
+            heap.update(goalY * width + goalX, 0, 0);
+            propagate(heap, 0, 0, width, height);
+            return;
+        }
+
+        boolean[] active = new boolean[tilesX * tilesY];
+        active[(goalY / TILE_SIZE) * tilesX + goalX / TILE_SIZE] = true;
+
+        boolean any = true;
+        while (any)
+        {
+            List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+            final List<Integer> tiles = new ArrayList<Integer>();
+            for (int t = 0; t < active.length; t++)
+            {
+                if (!active[t])
+                    continue;
+
+                final int tile = t;
+                tiles.add(tile);
+                tasks.add(new Callable<Boolean>() {
+                    public Boolean call()
+                    {
+                        return sweepTile(tile);
+                    }
+                });
+            }
+
+            Arrays.fill(active, false);
+            any = false;
+
+            List<Boolean> results = ParallelTasks.invokeAll(pool, tasks, "flow field build");
+            for (int k = 0; k < results.size(); k++)
+            {
+                if (results.get(k))
+                {
+                    activateNeighbours(tiles.get(k), active);
+                    any = true;
+                }
+            }
+        }
+    }
+
+    /** Отмечает участки, соседние с указанным, для следующего раунда. **/
+    private void activateNeighbours(int tile, boolean[] active)
+    {
+        int tx = tile % tilesX;
+        int ty = tile / tilesX;
+        for (int y = ty - 1; y <= ty + 1; y++)
+        {
+            for (int x = tx - 1; x <= tx + 1; x++)
+            {
+                if (x < 0 || x >= tilesX || y < 0 || y >= tilesY || (x == tx && y == ty))
+                    continue;
+
+                active[y * tilesX + x] = true;
+            }
+        }
+    }
+
+    /**
+     * Один раунд для участка: граничные ячейки улучшаются через соседние ячейки других
+     * участков, затем улучшения распространяются внутри участка. Стоимости других участков
+     * могут одновременно уменьшаться, но любое прочитанное значение — стоимость
+     * существующего пути, а участок, который их изменил, снова сделает соседей активными.
+     * Возвращает true, если изменилась хотя бы одна граничная ячейка.
+     **/
+    private boolean sweepTile(int tile)
+    {
+        int x0 = (tile % tilesX) * TILE_SIZE;
+        int y0 = (tile / tilesX) * TILE_SIZE;
+        int x1 = Math.min(width, x0 + TILE_SIZE);
+        int y1 = Math.min(height, y0 + TILE_SIZE);
+        int tileWidth = x1 - x0;
+
+        NodeHeap heap = new NodeHeap(tileWidth * (y1 - y0));
+        boolean changed = false;
+
+        if (goalX >= x0 && goalX < x1 && goalY >= y0 && goalY < y1)
+        {
+            heap.update((goalY - y0) * tileWidth + (goalX - x0), 0, 0);
+            changed = true;
+        }
+
+        for (int y = y0; y < y1; y++)
+        {
+            for (int x = x0; x < x1; x++)
+            {
+                if (x != x0 && x != x1 - 1 && y != y0 && y != y1 - 1)
+                    continue;
+
+                int cell = y * width + x;
+                for (int d = 0; d < GridDirections.COUNT; d++)
+                {
+                    int nx = x + GridDirections.getDeltaX(d);
+                    int ny = y + GridDirections.getDeltaY(d);
+                    if (nx >= x0 && nx < x1 && ny >= y0 && ny < y1)
+                        continue;
+
+                    if (!map.contains(nx, ny))
+                        continue;
+
+                    float cost = dist[cell + offsets[d]] + stepCost(d, nx, ny);
+                    if (cost < dist[cell])
+                    {
+                        dist[cell] = cost;
+                        dirs[cell] = (byte) d;
+                        heap.update((y - y0) * tileWidth + (x - x0), cost, 0);
+                        changed = true;
+                    }
+                }
+            }
+        }
+
+        return propagate(heap, x0, y0, x1, y1) || changed;
+    }
+
+    /**
+     * Распространяет улучшения стоимостей от ячеек в куче внутри прямоугольника
+     * [x0, x1) x [y0, y1); вершины кучи — индексы ячеек внутри прямоугольника. Возвращает
+     * true, если изменилась ячейка на границе прямоугольника.
+     **/
+    private boolean propagate(NodeHeap heap, int x0, int y0, int x1, int y1)
+    {
+        int rectWidth = x1 - x0;
+        boolean borderChanged = false;
+
+        while (!heap.isEmpty())
+        {
+            int local = heap.poll();
+            int cx = x0 + local % rectWidth;
+            int cy = y0 + local / rectWidth;
+            int current = cy * width + cx;
+
+            for (int d = 0; d < GridDirections.COUNT; d++)
+            {
+                // Сосед в направлении d идет в текущую ячейку в обратном направлении.
+                int x = cx - GridDirections.getDeltaX(d);
+                int y = cy - GridDirections.getDeltaY(d);
+                if (x < x0 || x >= x1 || y < y0 || y >= y1)
+                    continue;
+
+                float cost = dist[current] + stepCost(d, cx, cy);
+                int next = y * width + x;
+                if (cost >= dist[next])
+                    continue;
+
+                dist[next] = cost;
+                dirs[next] = (byte) d;
+                heap.update((y - y0) * rectWidth + (x - x0), cost, 0);
+
+                if (x == x0 || x == x1 - 1 || y == y0 || y == y1 - 1)
+                    borderChanged = true;
+            }
+        }
+        return borderChanged;
+    }
+
+    /**
+     * Возвращает стоимость шага в направлении d, который ведет в ячейку (x, y), или
+     * {@link Float#POSITIVE_INFINITY}, если в ячейку нельзя войти.
+     **/
+    private float stepCost(int d, int x, int y)
+    {
+        float cost = GridDirections.stepLength(d) + map.getCellValueUnchecked(x, y);
+        return (cost >= AStarPathfinder.COST_LIMIT) ? Float.POSITIVE_INFINITY : cost;
+    }
+
+    /**
+     * Вызывается картой после изменения ячейки и исправляет поле. Изменение стоимости ячейки
+     * меняет стоимость шагов в нее, поэтому затрагивает только ячейки, пути которых могут
+     * войти в нее.
+     **/
+    public synchronized void cellChanged(Map2D map, int x, int y, int oldValue)
+    {
+        if (repairHeap == null)
+            repairHeap = new NodeHeap(dist.length);
+
+        int cell = y * width + x;
+        if (map.getCellValue(x, y) > oldValue)
+        {
+            // Ячейки, пути которых проходили через измененную, теряют стоимость, а затем
+            // получают ее заново от соседей, чьи пути остались прежними.
+            int[] affected = collectUpstream(cell);
+            for (int i = 0; i < affected.length; i++)
+            {
+                dist[affected[i]] = Float.POSITIVE_INFINITY;
+                dirs[affected[i]] = (byte) NO_DIRECTION;
+            }
+
+            for (int i = 0; i < affected.length; i++)
+                relaxFromNeighbours(affected[i]);
+        }
+        else
+        {
+            // Шаги в ячейку подешевели: соседи могут улучшиться через нее.
+            if (dist[cell] != Float.POSITIVE_INFINITY)
+                repairHeap.update(cell, dist[cell], 0);
+        }
+
+        propagate(repairHeap, 0, 0, width, height);
+    }
+
+    /**
+     * Возвращает все ячейки, путь которых к цели входит в указанную ячейку, не считая ее
+     * саму.
+     **/
+    private int[] collectUpstream(int cell)
+    {
+        int[] queue = new int[16];
+        int head = 0;
+        int tail = 0;
+        int current = cell;
+
+        while (true)
+        {
+            int cx = current % width;
+            int cy = current / width;
+            for (int d = 0; d < GridDirections.COUNT; d++)
+            {
+                int x = cx - GridDirections.getDeltaX(d);
+                int y = cy - GridDirections.getDeltaY(d);
+                if (!map.contains(x, y))
+                    continue;
+
+                int next = y * width + x;
+                if (dirs[next] != d)
+                    continue;
+
+                if (tail == queue.length)
+                    queue = Arrays.copyOf(queue, tail * 2);
+                queue[tail++] = next;
+            }
+
+            if (head == tail)
+                break;
+            current = queue[head++];
+        }
+        return Arrays.copyOf(queue, tail);
+    }
+
+    /** Улучшает стоимость ячейки через соседей и при улучшении добавляет ее в кучу. **/
+    private void relaxFromNeighbours(int cell)
+    {
+        int x = cell % width;
+        int y = cell / width;
+        for (int d = 0; d < GridDirections.COUNT; d++)
+        {
+            int nx = x + GridDirections.getDeltaX(d);
+            int ny = y + GridDirections.getDeltaY(d);
+            if (!map.contains(nx, ny))
+                continue;
+
+            float cost = dist[cell + offsets[d]] + stepCost(d, nx, ny);
+            if (cost < dist[cell])
+            {
+                dist[cell] = cost;
+                dirs[cell] = (byte) d;
+            }
+        }
+
+        if (dist[cell] != Float.POSITIVE_INFINITY)
+            repairHeap.update(cell, dist[cell], 0);
+    }
+
+    /** Отписывает поле от изменений карты. **/
+    public void dispose()
+    {
+        map.removeChangeListener(this);
+    }
+
+    /** Проверяет, что координаты находятся внутри карты. **/
+    private void checkCoords(int x, int y)
+    {
+        if (x < 0 || x >= width || y < 0 || y >= height)
+        {
+            throw new IllegalArgumentException("Coordinates (" + x + ", " + y +
+                    ") are outside of the map");
+        }
+    }
+}
@@ -0,0 +1,233 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+
+/**
+ * Этот класс представляет собой набор конечных местоположений для поиска пути к ближайшему
+ * из них ({@link PathfinderContext#computePathToNearest}). Как эвристика набор оценивает
+ * оставшуюся стоимость расстоянием по прямой до ближайшей цели; минимум согласованных оценок
+ * согласован, поэтому найденный путь ведет к цели с наименьшей стоимостью пути. Координаты
+ * конечной ячейки в аргументах {@link #estimateTravelCost} не учитываются.
+ * <p>
+ * При небольшом числе целей ближайшая ищется перебором, при большом — по сетке корзин над
+ * прямоугольником, содержащим цели: просматриваются кольца корзин вокруг ячейки, пока
+ * следующее кольцо не окажется дальше лучшей найденной цели. Набор не изменяется после
+ * создания и может использоваться несколькими потоками.
+ **/
+public class GoalSet implements Heuristic
+{
+    /** Наибольшее число целей, для которого ближайшая ищется перебором. **/
+    private static final int BRUTE_FORCE_LIMIT = 16;
+
+    /** Цели в порядке, заданном при создании. **/
+    private final List<Location> goals;
+
+    /** Координаты целей. **/
+    private final int[] xs;
+    private final int[] ys;
+
+    /** Упакованные координаты целей <code>(y << 32) | x</code> по возрастанию. **/
+    private final long[] sortedKeys;
+
+    /** Номера целей в порядке {@link #sortedKeys}. **/
+    private final int[] sortedOrder;
+
+    /** Прямоугольник, содержащий все цели. **/
+    private final int minX, minY;
+
+    /** Сторона корзины в ячейках; 0, если корзины не используются. **/
+    private final int bucketSize;
+
+    /** Количество корзин по X и по Y. **/
+    private final int bucketsX, bucketsY;
+
+    /** Начало списка целей каждой корзины в {@link #bucketGoals}; последний элемент — конец. **/
+    private final int[] bucketStart;
+
+    /** Номера целей, сгруппированные по корзинам. **/
+    private final int[] bucketGoals;
+
+
+    /** Создает набор из указанных целей; список должен быть непустым. **/
+    public GoalSet(List<Location> goals)
+    {
+        if (goals == null)
+            throw new NullPointerException("goals cannot be null");
+
+        if (goals.isEmpty())
+            throw new IllegalArgumentException("goals cannot be empty");
+
+        this.goals = new ArrayList<Location>(goals);
+        int k = this.goals.size();
+        xs = new int[k];
+        ys = new int[k];
+
+        long[] packed = new long[k];
+        int x0 = Integer.MAX_VALUE, y0 = Integer.MAX_VALUE;
+        int x1 = Integer.MIN_VALUE, y1 = Integer.MIN_VALUE;
+        for (int i = 0; i < k; i++)
+        {
+            Location loc = this.goals.get(i);
+            if (loc == null)
+                throw new NullPointerException("goals cannot contain null");
+
+            xs[i] = loc.xCoord;
+            ys[i] = loc.yCoord;
+            packed[i] = pack(loc.xCoord, loc.yCoord);
+            x0 = Math.min(x0, loc.xCoord);
+            y0 = Math.min(y0, loc.yCoord);
+            x1 = Math.max(x1, loc.xCoord);
+            y1 = Math.max(y1, loc.yCoord);
+        }
+
+        // Индексы целей рядом с ключами, чтобы после сортировки знать номер каждой цели.
+        Integer[] order = new Integer[k];
+        for (int i = 0; i < k; i++)
+            order[i] = i;
+        final long[] keys = packed;
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b)
+            {
+                return Long.compare(keys[a], keys[b]);
+            }
+        });
+
+        sortedKeys = new long[k];
+        sortedOrder = new int[k];
+        for (int i = 0; i < k; i++)
+        {
+            sortedOrder[i] = order[i];
+            sortedKeys[i] = packed[order[i]];
+        }
+
+        minX = x0;
+        minY = y0;
+
+        if (k <= BRUTE_FORCE_LIMIT)
+        {
+            bucketSize = 0;
+            bucketsX = 0;
+            bucketsY = 0;
+            bucketStart = null;
+            bucketGoals = null;
+            return;
+        }
+
+        // Сторона корзины такая, чтобы в корзине было в среднем несколько целей.
+        long w = (long) x1 - x0 + 1;
+        long h = (long) y1 - y0 + 1;
+        int size = (int) Math.max(1, Math.min(Integer.MAX_VALUE / 2,
+                Math.ceil(Math.sqrt(4.0 * w * h / k))));
+        bucketSize = size;
+        bucketsX = (int) ((w + size - 1) / size);
+        bucketsY = (int) ((h + size - 1) / size);
+
+        bucketStart = new int[bucketsX * bucketsY + 1];
+        for (int i = 0; i < k; i++)
+            bucketStart[bucketOf(xs[i], ys[i]) + 1]++;
+        for (int b = 0; b < bucketsX * bucketsY; b++)
+            bucketStart[b + 1] += bucketStart[b];
+
+        bucketGoals = new int[k];
+        int[] fill = Arrays.copyOf(bucketStart, bucketsX * bucketsY);
+        for (int i = 0; i < k; i++)
+            bucketGoals[fill[bucketOf(xs[i], ys[i])]++] = i;
+    }
+
+    /** Возвращает количество целей. **/
+    public int size()
+    {
+        return goals.size();
+    }
+
+    /** Возвращает цель с указанным номером. **/
+    public Location get(int index)
+    {
+        return goals.get(index);
+    }
+
+    /**
+     * Возвращает номер цели в ячейке (x, y) или -1, если ячейка не цель. Если одна ячейка
+     * задана несколько раз, возвращается наименьший номер.
+     **/
+    public int indexOf(int x, int y)
+    {
+        int k = Arrays.binarySearch(sortedKeys, pack(x, y));
+        if (k < 0)
+            return -1;
+
+        while (k > 0 && sortedKeys[k - 1] == sortedKeys[k])
+            k--;
+        return sortedOrder[k];
+    }
+
+    /**
+     * Возвращает расстояние по прямой от ячейки (x, y) до ближайшей цели. Аргументы
+     * <code>finishX</code> и <code>finishY</code> не учитываются.
+     **/
+    public float estimateTravelCost(int x, int y, int finishX, int finishY)
+    {
+        if (bucketSize == 0)
+        {
+            float best = Float.POSITIVE_INFINITY;
+            for (int i = 0; i < xs.length; i++)
+                best = Math.min(best, AStarPathfinder.estimateTravelCost(x, y, xs[i], ys[i]));
+            return best;
+        }
+
+        int bx = clamp(Math.floorDiv((long) x - minX, bucketSize), bucketsX);
+        int by = clamp(Math.floorDiv((long) y - minY, bucketSize), bucketsY);
+        int maxRing = Math.max(bucketsX, bucketsY);
+
+        float best = Float.POSITIVE_INFINITY;
+        for (int r = 0; r <= maxRing; r++)
+        {
+            // Любая цель в кольце r отстоит от ячейки не меньше чем на (r - 1) корзин по
+            // одной из осей.
+            if (r > 0 && best <= (float) ((double) (r - 1) * bucketSize))
+                break;
+
+            for (int j = by - r; j <= by + r; j++)
+            {
+                if (j < 0 || j >= bucketsY)
+                    continue;
+
+                boolean edgeRow = (j == by - r || j == by + r);
+                for (int i = bx - r; i <= bx + r; i += edgeRow ? 1 : 2 * Math.max(r, 1))
+                {
+                    if (i < 0 || i >= bucketsX)
+                        continue;
+
+                    int b = j * bucketsX + i;
+                    for (int g = bucketStart[b]; g < bucketStart[b + 1]; g++)
+                    {
+                        int goal = bucketGoals[g];
+                        best = Math.min(best,
+                                AStarPathfinder.estimateTravelCost(x, y, xs[goal], ys[goal]));
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    /** Возвращает корзину цели. **/
+    private int bucketOf(int x, int y)
+    {
+        return ((y - minY) / bucketSize) * bucketsX + (x - minX) / bucketSize;
+    }
+
+    /** Ограничивает номер корзины диапазоном [0, count). **/
+    private static int clamp(long bucket, int count)
+    {
+        return (int) Math.max(0, Math.min(count - 1, bucket));
+    }
+
+    /** Упаковывает координаты в ключ. **/
+    private static long pack(int x, int y)
+    {
+        return ((long) y << 32) | (x & 0xffffffffL);
+    }
+}
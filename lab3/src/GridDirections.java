@@ -0,0 +1,63 @@
+/**
+ * Этот класс задает единую нумерацию восьми направлений шага в соседнюю ячейку: 0 — вправо
+ * (+X), далее по часовой стрелке через каждые 45 градусов при оси Y, направленной вниз.
+ * Четные направления — шаги по прямой, нечетные — по диагонали. Нумерацию используют
+ * {@link FlowField}, {@link CompactPath} и {@link ReachabilityIndex}.
+ **/
+public final class GridDirections
+{
+    /** Количество направлений. **/
+    public static final int COUNT = 8;
+
+    /** Смещения по X для направлений 0..7. **/
+    private static final int[] DX = { 1, 1, 0, -1, -1, -1, 0, 1 };
+
+    /** Смещения по Y для направлений 0..7. **/
+    private static final int[] DY = { 0, 1, 1, 1, 0, -1, -1, -1 };
+
+
+    private GridDirections()
+    {
+    }
+
+    /** Возвращает смещение по X для направления 0..7. **/
+    public static int getDeltaX(int direction)
+    {
+        return DX[direction];
+    }
+
+    /** Возвращает смещение по Y для направления 0..7. **/
+    public static int getDeltaY(int direction)
+    {
+        return DY[direction];
+    }
+
+    /** Возвращает true, если направление — шаг по диагонали. **/
+    public static boolean isDiagonal(int direction)
+    {
+        return (direction & 1) != 0;
+    }
+
+    /**
+     * Возвращает длину шага в направлении: {@link AStarPathfinder#STRAIGHT_STEP} или
+     * {@link AStarPathfinder#DIAGONAL_STEP}.
+     **/
+    public static float stepLength(int direction)
+    {
+        return isDiagonal(direction) ? AStarPathfinder.DIAGONAL_STEP
+                                     : AStarPathfinder.STRAIGHT_STEP;
+    }
+
+    /**
+     * Возвращает направление шага (dx, dy) в соседнюю ячейку или -1, если такого шага нет.
+     **/
+    public static int directionOf(int dx, int dy)
+    {
+        for (int d = 0; d < COUNT; d++)
+        {
+            if (DX[d] == dx && DY[d] == dy)
+                return d;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,340 @@
+import java.util.Arrays;
+
+
+/**
+ * Этот класс хранит состояние поиска A* для карты известного размера в плоских массивах,
+ * индексированных номером ячейки <code>y * width + x</code>: стоимости, индексы предыдущих ячеек
+ * и флаги открытости/закрытости. В отличие от {@link AStarState}, здесь нет хэширования
+ * местоположений и объектов на каждую вершину, а объем памяти заранее известен
+ * (см. {@link #estimateMemoryUsage(int, int)}).
+ * <p>
+ * Объект можно использовать повторно для нескольких поисков (см. {@link #reset(Map2D)}). Флаги
+ * ячеек помечаются номером поколения, поэтому между поисками массивы не очищаются: ячейки,
+ * помеченные старым поколением, просто считаются нетронутыми.
+ * <p>
+ * Путевые точки, возвращаемые {@link #getMinOpenWaypoint()}, не содержат ссылки на предыдущую
+ * точку; полную цепочку пути строит {@link #getWaypoint(Location)}.
+ **/
+public class GridSearchState implements SearchState
+{
+    /** Флаг: ячейка находится в открытом списке. **/
+    private static final int OPEN = 1;
+
+    /** Флаг: ячейка находится в закрытом списке. **/
+    private static final int CLOSED = 2;
+
+    /** Количество младших битов метки, занятых флагами; остальные биты хранят поколение. **/
+    private static final int FLAG_BITS = 2;
+
+    /** Наибольший номер поколения, который помещается в метку. **/
+    private static final int MAX_GENERATION = Integer.MAX_VALUE >>> FLAG_BITS;
+
+    /** Количество байт состояния на одну ячейку карты. **/
+    private static final int BYTES_PER_CELL =
+            4 + 4 + 4 + 4 +   // prevCost, remainingCost, parent, marks
+            4 * 4;            // массивы кучи открытых ячеек
+
+    /** Это ссылка на карту, по которой перемещается алгоритм A*. **/
+    private Map2D map;
+
+    /** Ширина карты, используемая для вычисления индексов ячеек. **/
+    private int width;
+
+    /** Фактическая стоимость пути от начала до каждой ячейки. **/
+    private float[] prevCost;
+
+    /** Оценка оставшейся стоимости от каждой ячейки до конечного пункта. **/
+    private float[] remainingCost;
+
+    /** Индекс предыдущей ячейки пути или -1 для начала пути. **/
+    private int[] parent;
+
+    /**
+     * Метки ячеек: номер поколения, сдвинутый на {@link #FLAG_BITS}, вместе с флагами
+     * {@link #OPEN} и {@link #CLOSED}. Метка другого поколения означает, что ячейку в текущем
+     * поиске еще не видели.
+     **/
+    private int[] marks;
+
+    /** Номер текущего поколения (текущего поиска). **/
+    private int generation;
+
+    /** Открытые ячейки, упорядоченные по общей стоимости. **/
+    private NodeHeap openHeap;
+
+    /** Инициализировать новый объект состояния для указанной карты. **/
+    public GridSearchState(Map2D map)
+    {
+        int n = cellCount(map);
+        prevCost = new float[n];
+        remainingCost = new float[n];
+        parent = new int[n];
+        marks = new int[n];
+        openHeap = new NodeHeap(n);
+
+        reset(map);
+    }
+
+    /**
+     * Возвращает количество ячеек карты, проверяя, что карта помещается в плоские массивы.
+     **/
+    private static int cellCount(Map2D map)
+    {
+        if (map == null)
+            throw new NullPointerException("map cannot be null");
+
+        long cells = (long) map.getWidth() * map.getHeight();
+        if (cells > Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException(
+                    "map is too large for a flat search state: " +
+                            map.getWidth() + "x" + map.getHeight());
+        }
+        return (int) cells;
+    }
+
+    /** Возвращает количество ячеек, для которого выделены массивы этого объекта. **/
+    public int capacity()
+    {
+        return marks.length;
+    }
+
+    /**
+     * Подготавливает объект к новому поиску по указанной карте без очистки массивов. Карта должна
+     * помещаться в уже выделенные массивы (см. {@link #capacity()}).
+     **/
+    public void reset(Map2D map)
+    {
+        int n = cellCount(map);
+        if (n > capacity())
+        {
+            throw new IllegalArgumentException("map has " + n +
+                    " cells, but the state only holds " + capacity());
+        }
+
+        this.map = map;
+        width = map.getWidth();
+        openHeap.clear();
+
+        // Когда номера поколений заканчиваются, один раз очищаем метки и начинаем заново.
+        if (generation == MAX_GENERATION)
+        {
+            Arrays.fill(marks, 0);
+            generation = 0;
+        }
+        generation++;
+    }
+
+    /** Возвращает флаги ячейки в текущем поколении. **/
+    private int flagsOf(int index)
+    {
+        int mark = marks[index];
+        return (mark >>> FLAG_BITS) == generation ? (mark & (OPEN | CLOSED)) : 0;
+    }
+
+    /**
+     * Возвращает приблизительный объем памяти в байтах, который займет состояние поиска для
+     * карты указанного размера.
+     **/
+    public static long estimateMemoryUsage(int width, int height)
+    {
+        return (long) width * height * BYTES_PER_CELL;
+    }
+
+    /**
+     * Возвращает true, если состояние поиска для карты указанного размера помещается в плоские
+     * массивы и занимает не больше половины максимального размера кучи.
+     **/
+    public static boolean canHold(int width, int height)
+    {
+        if ((long) width * height > Integer.MAX_VALUE)
+            return false;
+
+        return estimateMemoryUsage(width, height) <= Runtime.getRuntime().maxMemory() / 2;
+    }
+
+    /** Возвращает карту, по которой перемещается навигатор A*. **/
+    public Map2D getMap()
+    {
+        return map;
+    }
+
+    /** Возвращает индекс ячейки с указанными координатами. **/
+    public int indexOf(int x, int y)
+    {
+        return y * width + x;
+    }
+
+    /** Возвращает координату X ячейки с указанным индексом. **/
+    public int getX(int index)
+    {
+        return index % width;
+    }
+
+    /** Возвращает координату Y ячейки с указанным индексом. **/
+    public int getY(int index)
+    {
+        return index / width;
+    }
+
+    /**
+     * Добавляет ячейку в открытый список или обновляет открытую ячейку, если новая «предыдущая
+     * стоимость» меньше текущей. Закрытые ячейки не изменяются. Возвращает true, если состояние
+     * изменилось.
+     **/
+    public boolean openNode(int index, float newPrevCost, float newRemainingCost, int parentIndex)
+    {
+        int f = flagsOf(index);
+        if ((f & CLOSED) != 0)
+            return false;
+
+        if ((f & OPEN) != 0 && prevCost[index] <= newPrevCost)
+            return false;
+
+        prevCost[index] = newPrevCost;
+        remainingCost[index] = newRemainingCost;
+        parent[index] = parentIndex;
+        marks[index] = (generation << FLAG_BITS) | OPEN;
+
+        openHeap.update(index, newPrevCost + newRemainingCost, newRemainingCost);
+        return true;
+    }
+
+    /** Возвращает индекс открытой ячейки с минимальной общей стоимостью или -1. **/
+    public int peekMinOpen()
+    {
+        return openHeap.peek();
+    }
+
+    /** Перемещает ячейку с указанным индексом из открытого списка в закрытый. **/
+    public void closeNode(int index)
+    {
+        if ((flagsOf(index) & OPEN) == 0)
+            return;
+
+        openHeap.remove(index);
+        marks[index] = (generation << FLAG_BITS) | CLOSED;
+    }
+
+    /** Возвращает true, если ячейка находится в открытом списке. **/
+    public boolean isOpen(int index)
+    {
+        return (flagsOf(index) & OPEN) != 0;
+    }
+
+    /** Возвращает true, если ячейка находится в закрытом списке. **/
+    public boolean isClosed(int index)
+    {
+        return (flagsOf(index) & CLOSED) != 0;
+    }
+
+    /** Возвращает фактическую стоимость пути от начала до ячейки. **/
+    public float getPrevCost(int index)
+    {
+        return prevCost[index];
+    }
+
+    /** Возвращает оценку оставшейся стоимости от ячейки до конечного пункта. **/
+    public float getRemainingCost(int index)
+    {
+        return remainingCost[index];
+    }
+
+    /** Возвращает индекс предыдущей ячейки пути или -1 для начала пути. **/
+    public int getParent(int index)
+    {
+        return parent[index];
+    }
+
+    /**
+     * Строит цепочку путевых точек от начала пути до ячейки с указанным индексом и возвращает
+     * последнюю путевую точку цепочки.
+     **/
+    public Waypoint buildWaypointChain(int index)
+    {
+        // Сначала собираем индексы от конца к началу, затем создаем путевые точки
+        // от начала, чтобы каждая точка ссылалась на уже созданную предыдущую.
+        int length = 0;
+        for (int i = index; i != -1; i = parent[i])
+            length++;
+
+        int[] chain = new int[length];
+        for (int i = index, k = length - 1; i != -1; i = parent[i], k--)
+            chain[k] = i;
+
+        Waypoint wp = null;
+        for (int k = 0; k < length; k++)
+        {
+            int i = chain[k];
+            wp = new Waypoint(new Location(getX(i), getY(i)), wp);
+            wp.setCosts(prevCost[i], remainingCost[i]);
+        }
+        return wp;
+    }
+
+    /** Возвращает индекс местоположения, проверяя, что оно находится на карте. **/
+    private int indexOf(Location loc)
+    {
+        if (!map.contains(loc))
+        {
+            throw new IllegalArgumentException("location (" + loc.xCoord + ", " +
+                    loc.yCoord + ") is outside the map");
+        }
+        return indexOf(loc.xCoord, loc.yCoord);
+    }
+
+    /**
+     * Возвращает открытую путевую точку с минимальной общей стоимостью. Возвращаемая путевая точка
+     * создается заново и не ссылается на предыдущую точку.
+     **/
+    public Waypoint getMinOpenWaypoint()
+    {
+        int index = openHeap.peek();
+        if (index < 0)
+            return null;
+
+        Waypoint wp = new Waypoint(new Location(getX(index), getY(index)), null);
+        wp.setCosts(prevCost[index], remainingCost[index]);
+        return wp;
+    }
+
+    /**
+     * Добавляет путевую точку в открытый список. Сама путевая точка не сохраняется: запоминаются
+     * только её стоимости и индекс предыдущей ячейки.
+     **/
+    public boolean addOpenWaypoint(Waypoint newWP)
+    {
+        Waypoint prev = newWP.getPrevious();
+        int parentIndex = (prev == null) ? -1 : indexOf(prev.getLocation());
+
+        return openNode(indexOf(newWP.getLocation()), newWP.getPreviousCost(),
+                newWP.getRemainingCost(), parentIndex);
+    }
+
+    /** Возвращает текущее количество открытых путевых точек. **/
+    public int numOpenWaypoints()
+    {
+        return openHeap.size();
+    }
+
+    /** Перемещает путевую точку в указанном месте из открытого списка в закрытый список. **/
+    public void closeWaypoint(Location loc)
+    {
+        closeNode(indexOf(loc));
+    }
+
+    /** Возвращает true, если указанное местоположение находится в закрытом списке. **/
+    public boolean isLocationClosed(Location loc)
+    {
+        return isClosed(indexOf(loc));
+    }
+
+    /** Возвращает цепочку путевых точек до указанного места или <code>null</code>. **/
+    public Waypoint getWaypoint(Location loc)
+    {
+        int index = indexOf(loc);
+        if (flagsOf(index) == 0)
+            return null;
+        return buildWaypointChain(index);
+    }
+}
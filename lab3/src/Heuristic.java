@@ -0,0 +1,20 @@
+/**
+ * Этот интерфейс оценивает оставшуюся стоимость пути от ячейки до конечной ячейки для поиска
+ * A*. Оценка должна быть допустимой (не больше стоимости кратчайшего пути) и согласованной
+ * (для любого шага из a в b оценка в a не больше стоимости шага плюс оценка в b): поиск не
+ * открывает закрытые ячейки повторно, и только с согласованной эвристикой найденный путь
+ * оптимален. Эвристика задается для поиска через {@link SearchOptions#setHeuristic(Heuristic)}.
+ **/
+public interface Heuristic
+{
+    /** Расстояние по прямой, как в {@link AStarPathfinder}; эвристика по умолчанию. **/
+    Heuristic EUCLIDEAN = new Heuristic() {
+        public float estimateTravelCost(int x, int y, int finishX, int finishY)
+        {
+            return AStarPathfinder.estimateTravelCost(x, y, finishX, finishY);
+        }
+    };
+
+    /** Оценивает стоимость пути от ячейки (x, y) до ячейки (finishX, finishY). **/
+    float estimateTravelCost(int x, int y, int finishX, int finishY);
+}
@@ -0,0 +1,779 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+
+/**
+ * Этот класс реализует иерархический поиск пути (HPA*) по большой карте. Карта делится на
+ * квадратные кластеры; на границах соседних кластеров выбираются входы, а внутри каждого
+ * кластера заранее вычисляются стоимости путей между его входами. Запрос сначала решается на
+ * маленьком абстрактном графе входов, а затем каждый отрезок абстрактного пути уточняется
+ * обычным {@link AStarPathfinder}, поэтому время запроса почти не зависит от площади карты.
+ * <p>
+ * Объект подписывается на изменения карты: при изменении ячейки пересчитываются только её
+ * кластер и, если ячейка лежит на границе, входы этой границы и соседний кластер. Пересчет
+ * выполняется лениво, перед следующим запросом.
+ * <p>
+ * HPA* находит почти оптимальные пути: стоимость пути может быть немного больше, чем у
+ * {@link AStarPathfinder#computePath(Map2D)}. Переходы между кластерами, соседними только
+ * по углу, в абстрактном графе не учитываются; если из-за этого абстрактный путь не найден,
+ * запрос решается обычным {@link AStarPathfinder}, так что <code>null</code> всегда означает,
+ * что пути нет. Индекс связных компонент (см. {@link #setReachability(ReachabilityIndex)})
+ * позволяет отказывать в таких запросах, не обходя карту.
+ **/
+public class HierarchicalPathfinder implements MapChangeListener
+{
+    /** Участки границы не короче этой длины получают два входа вместо одного. **/
+    private static final int LONG_ENTRANCE = 6;
+
+    /** Порядок проверки соседних ячеек на другой стороне границы. **/
+    private static final int[] CROSSING_ORDER = {0, -1, 1};
+
+    /** Флаг абстрактного поиска: вершина достигнута, стоимость пути до нее известна. **/
+    private static final int SEEN = 1;
+
+    /** Флаг абстрактного поиска: вершина закрыта. **/
+    private static final int CLOSED = 2;
+
+    /** Флаг абстрактного поиска: известна стоимость пути от вершины до конца. **/
+    private static final int TO_GOAL = 4;
+
+    /** Количество младших бит метки, занятых флагами; остальные хранят номер поколения. **/
+    private static final int FLAG_BITS = 3;
+
+    /** Наибольший номер поколения, который помещается в метку. **/
+    private static final int MAX_GENERATION = Integer.MAX_VALUE >>> FLAG_BITS;
+
+    /** Вершина абстрактного графа: ячейка входа на границе кластера. **/
+    private static class Node
+    {
+        /** Координаты ячейки входа. **/
+        final int x, y;
+
+        /** Номер кластера, которому принадлежит ячейка. **/
+        final int cluster;
+
+        /** Номер границы, на которой создан вход, или -1 для временных вершин запроса. **/
+        final int border;
+
+        /** Исходящие ребра абстрактного графа. **/
+        final List<Edge> edges = new ArrayList<Edge>();
+
+        /**
+         * Номер вершины в массивах абстрактного поиска. Номер входа назначается при его
+         * создании и не меняется, пока вход существует.
+         **/
+        int id;
+
+        Node(int x, int y, int cluster, int border)
+        {
+            this.x = x;
+            this.y = y;
+            this.cluster = cluster;
+            this.border = border;
+        }
+    }
+
+    /** Направленное ребро абстрактного графа. **/
+    private static class Edge
+    {
+        /** Вершина, в которую ведет ребро. **/
+        final Node target;
+
+        /** Стоимость пути по ребру. **/
+        final float cost;
+
+        /** True для ребра между кластерами, false для ребра внутри кластера. **/
+        final boolean inter;
+
+        Edge(Node target, float cost, boolean inter)
+        {
+            this.target = target;
+            this.cost = cost;
+            this.inter = inter;
+        }
+    }
+
+    /** Карта, по которой выполняется поиск. **/
+    private Map2D map;
+
+    /** Длина стороны кластера в ячейках. **/
+    private int clusterSize;
+
+    /** Количество кластеров по горизонтали и по вертикали. **/
+    private int clustersX, clustersY;
+
+    /** Количество вертикальных границ (между кластерами, соседними по горизонтали). **/
+    private int verticalBorders;
+
+    /** Вершины-входы каждого кластера. **/
+    private List<List<Node>> clusterNodes;
+
+    /** Вершины-входы каждой границы (с обеих её сторон). **/
+    private List<List<Node>> borderNodes;
+
+    /** Флаги кластеров, ребра внутри которых нужно пересчитать. **/
+    private boolean[] dirtyClusters;
+
+    /** Флаги границ, входы которых нужно пересчитать. **/
+    private boolean[] dirtyBorders;
+
+    /** True, если есть хотя бы один флаг пересчета. **/
+    private boolean dirty;
+
+    /** Расстояния поиска Дейкстры внутри кластера, индексированные локальным номером ячейки. **/
+    private float[] localDist;
+
+    /** Номер поиска, в котором вычислено расстояние ячейки в {@link #localDist}. **/
+    private int[] localStamp;
+
+    /** Номер текущего поиска внутри кластера. **/
+    private int localGeneration;
+
+    /** Куча поиска Дейкстры внутри кластера. **/
+    private NodeHeap localHeap;
+
+    /** Входы по номерам; <code>null</code> для свободных номеров. **/
+    private List<Node> nodesById = new ArrayList<Node>();
+
+    /** Стек свободных номеров входов. **/
+    private int[] freeIds = new int[16];
+
+    /** Количество номеров в стеке {@link #freeIds}. **/
+    private int freeCount;
+
+    /**
+     * Метки вершин абстрактного поиска: номер поколения в старших битах и флаги в младших.
+     * Метки старых поколений считаются пустыми, поэтому между запросами массивы не очищаются.
+     **/
+    private int[] searchMarks = new int[0];
+
+    /** Стоимости путей от начала до вершин в текущем абстрактном поиске. **/
+    private float[] searchCost = new float[0];
+
+    /** Стоимости путей от вершин кластера конца до самого конца. **/
+    private float[] searchToGoal = new float[0];
+
+    /** Предыдущие вершины путей в текущем абстрактном поиске. **/
+    private int[] searchParent = new int[0];
+
+    /** Номер текущего абстрактного поиска. **/
+    private int searchGeneration;
+
+    /** Открытый список абстрактного поиска. **/
+    private NodeHeap searchHeap = new NodeHeap(0);
+
+    /** Индекс связных компонент для быстрого отказа или <code>null</code>. **/
+    private ReachabilityIndex reachability;
+
+    /** Контекст и результат для уточнения отрезков абстрактного пути. **/
+    private PathfinderContext refineContext = new PathfinderContext();
+    private PathResult refineResult = new PathResult();
+
+    /**
+     * Строит абстрактный граф для указанной карты с кластерами указанного размера и
+     * подписывается на изменения карты.
+     **/
+    public HierarchicalPathfinder(Map2D map, int clusterSize)
+    {
+        if (map == null)
+            throw new NullPointerException("map cannot be null");
+
+        if (clusterSize < 2)
+            throw new IllegalArgumentException("clusterSize must be >= 2; got " + clusterSize);
+
+        this.map = map;
+        this.clusterSize = clusterSize;
+
+        clustersX = (map.getWidth() + clusterSize - 1) / clusterSize;
+        clustersY = (map.getHeight() + clusterSize - 1) / clusterSize;
+        verticalBorders = (clustersX - 1) * clustersY;
+        int borders = verticalBorders + clustersX * (clustersY - 1);
+
+        clusterNodes = new ArrayList<List<Node>>();
+        for (int c = 0; c < clustersX * clustersY; c++)
+            clusterNodes.add(new ArrayList<Node>());
+
+        borderNodes = new ArrayList<List<Node>>();
+        for (int b = 0; b < borders; b++)
+            borderNodes.add(new ArrayList<Node>());
+
+        dirtyClusters = new boolean[clustersX * clustersY];
+        dirtyBorders = new boolean[borders];
+
+        localDist = new float[clusterSize * clusterSize];
+        localStamp = new int[clusterSize * clusterSize];
+        localHeap = new NodeHeap(clusterSize * clusterSize);
+
+        Arrays.fill(dirtyClusters, true);
+        Arrays.fill(dirtyBorders, true);
+        dirty = true;
+        update();
+
+        map.addChangeListener(this);
+    }
+
+    /** Отписывается от изменений карты. После этого объект нельзя использовать. **/
+    public void dispose()
+    {
+        map.removeChangeListener(this);
+    }
+
+    /**
+     * Задает индекс связных компонент карты. Если по индексу конечная ячейка недостижима из
+     * начальной, запрос сразу возвращает <code>null</code>, не выполняя ни абстрактного, ни
+     * обычного поиска. Индекс должен быть построен для той же карты; <code>null</code>
+     * выключает проверку.
+     **/
+    public void setReachability(ReachabilityIndex reachability)
+    {
+        if (reachability != null && reachability.getMap() != map)
+            throw new IllegalArgumentException("reachability index was built for a different map");
+
+        this.reachability = reachability;
+    }
+
+    /** Возвращает количество вершин абстрактного графа (входов кластеров). **/
+    public int getAbstractNodeCount()
+    {
+        update();
+
+        int count = 0;
+        for (List<Node> nodes : clusterNodes)
+            count += nodes.size();
+        return count;
+    }
+
+    /** Возвращает номер кластера, содержащего ячейку. **/
+    private int clusterOf(int x, int y)
+    {
+        return (y / clusterSize) * clustersX + (x / clusterSize);
+    }
+
+    /**
+     * Помечает для пересчета кластер измененной ячейки, а если ячейка лежит на границе
+     * кластера — еще и эту границу вместе с соседним кластером.
+     **/
+    public void cellChanged(Map2D map, int x, int y, int oldValue)
+    {
+        int cx = x / clusterSize;
+        int cy = y / clusterSize;
+        int lx = x % clusterSize;
+        int ly = y % clusterSize;
+
+        dirtyClusters[cy * clustersX + cx] = true;
+
+        if (lx == clusterSize - 1 && cx + 1 < clustersX)
+            markBorder(verticalBorder(cx, cy), cy * clustersX + cx + 1);
+        if (lx == 0 && cx > 0)
+            markBorder(verticalBorder(cx - 1, cy), cy * clustersX + cx - 1);
+        if (ly == clusterSize - 1 && cy + 1 < clustersY)
+            markBorder(horizontalBorder(cx, cy), (cy + 1) * clustersX + cx);
+        if (ly == 0 && cy > 0)
+            markBorder(horizontalBorder(cx, cy - 1), (cy - 1) * clustersX + cx);
+
+        dirty = true;
+    }
+
+    /** Помечает границу и соседний кластер для пересчета. **/
+    private void markBorder(int border, int neighbourCluster)
+    {
+        dirtyBorders[border] = true;
+        dirtyClusters[neighbourCluster] = true;
+    }
+
+    /** Номер вертикальной границы между кластерами (cx, cy) и (cx + 1, cy). **/
+    private int verticalBorder(int cx, int cy)
+    {
+        return cy * (clustersX - 1) + cx;
+    }
+
+    /** Номер горизонтальной границы между кластерами (cx, cy) и (cx, cy + 1). **/
+    private int horizontalBorder(int cx, int cy)
+    {
+        return verticalBorders + cy * clustersX + cx;
+    }
+
+    /** Пересчитывает все помеченные границы, а затем все помеченные кластеры. **/
+    private void update()
+    {
+        if (!dirty)
+            return;
+
+        for (int b = 0; b < dirtyBorders.length; b++)
+        {
+            if (dirtyBorders[b])
+            {
+                buildBorder(b);
+                dirtyBorders[b] = false;
+            }
+        }
+
+        for (int c = 0; c < dirtyClusters.length; c++)
+        {
+            if (dirtyClusters[c])
+            {
+                buildIntraEdges(c);
+                dirtyClusters[c] = false;
+            }
+        }
+
+        dirty = false;
+    }
+
+    /** Возвращает true, если ячейка проходима. **/
+    private boolean isPassable(int x, int y)
+    {
+        return map.getCellValueUnchecked(x, y) < AStarPathfinder.COST_LIMIT;
+    }
+
+    /**
+     * Заново выбирает входы на указанной границе. Старые входы границы удаляются из обоих
+     * кластеров; ребра внутри кластеров пересчитываются позже.
+     **/
+    private void buildBorder(int border)
+    {
+        boolean vertical = border < verticalBorders;
+        int cx, cy;
+        if (vertical)
+        {
+            cx = border % (clustersX - 1);
+            cy = border / (clustersX - 1);
+        }
+        else
+        {
+            cx = (border - verticalBorders) % clustersX;
+            cy = (border - verticalBorders) / clustersX;
+        }
+
+        int clusterA = cy * clustersX + cx;
+        int clusterB = vertical ? clusterA + 1 : clusterA + clustersX;
+
+        List<Node> old = borderNodes.get(border);
+        clusterNodes.get(clusterA).removeAll(old);
+        clusterNodes.get(clusterB).removeAll(old);
+        for (Node n : old)
+            releaseId(n);
+        old.clear();
+
+        // Сторона A — последний столбец (строка) первого кластера, сторона B — первый
+        // столбец (строка) второго. Позиция i идет вдоль границы.
+        int lineA = vertical ? (cx + 1) * clusterSize - 1 : (cy + 1) * clusterSize - 1;
+        int from = vertical ? cy * clusterSize : cx * clusterSize;
+        int to = Math.min(from + clusterSize, vertical ? map.getHeight() : map.getWidth());
+
+        int runStart = -1;
+        for (int i = from; i <= to; i++)
+        {
+            boolean crossable = i < to &&
+                    crossingOffset(vertical, lineA, i, from, to) != Integer.MIN_VALUE;
+
+            if (crossable && runStart < 0)
+            {
+                runStart = i;
+            }
+            else if (!crossable && runStart >= 0)
+            {
+                int runEnd = i - 1;
+                if (runEnd - runStart + 1 >= LONG_ENTRANCE)
+                {
+                    addEntrance(border, vertical, lineA, runStart, from, to, clusterA, clusterB);
+                    addEntrance(border, vertical, lineA, runEnd, from, to, clusterA, clusterB);
+                }
+                else
+                {
+                    addEntrance(border, vertical, lineA, (runStart + runEnd) / 2, from, to,
+                            clusterA, clusterB);
+                }
+                runStart = -1;
+            }
+        }
+    }
+
+    /**
+     * Для позиции i на стороне A возвращает смещение (-1, 0 или 1) проходимой соседней ячейки на
+     * стороне B или {@link Integer#MIN_VALUE}, если перейти границу в этой позиции нельзя.
+     **/
+    private int crossingOffset(boolean vertical, int lineA, int i, int from, int to)
+    {
+        if (!isPassable(vertical ? lineA : i, vertical ? i : lineA))
+            return Integer.MIN_VALUE;
+
+        for (int d : CROSSING_ORDER)
+        {
+            int j = i + d;
+            if (j < from || j >= to)
+                continue;
+            if (isPassable(vertical ? lineA + 1 : j, vertical ? j : lineA + 1))
+                return d;
+        }
+        return Integer.MIN_VALUE;
+    }
+
+    /** Создает пару вершин входа в позиции i и ребра между ними. **/
+    private void addEntrance(int border, boolean vertical, int lineA, int i, int from, int to,
+                             int clusterA, int clusterB)
+    {
+        int j = i + crossingOffset(vertical, lineA, i, from, to);
+
+        Node a = vertical ? new Node(lineA, i, clusterA, border)
+                          : new Node(i, lineA, clusterA, border);
+        Node b = vertical ? new Node(lineA + 1, j, clusterB, border)
+                          : new Node(j, lineA + 1, clusterB, border);
+
+        float costAB = AStarPathfinder.stepCost(j - i, 1, map.getCellValueUnchecked(b.x, b.y));
+        float costBA = AStarPathfinder.stepCost(j - i, 1, map.getCellValueUnchecked(a.x, a.y));
+
+        if (costAB < AStarPathfinder.COST_LIMIT)
+            a.edges.add(new Edge(b, costAB, true));
+        if (costBA < AStarPathfinder.COST_LIMIT)
+            b.edges.add(new Edge(a, costBA, true));
+
+        assignId(a);
+        assignId(b);
+        borderNodes.get(border).add(a);
+        borderNodes.get(border).add(b);
+        clusterNodes.get(clusterA).add(a);
+        clusterNodes.get(clusterB).add(b);
+    }
+
+    /** Назначает входу свободный номер. **/
+    private void assignId(Node n)
+    {
+        if (freeCount > 0)
+        {
+            n.id = freeIds[--freeCount];
+            nodesById.set(n.id, n);
+        }
+        else
+        {
+            n.id = nodesById.size();
+            nodesById.add(n);
+        }
+    }
+
+    /** Освобождает номер удаленного входа для следующих входов. **/
+    private void releaseId(Node n)
+    {
+        nodesById.set(n.id, null);
+
+        if (freeCount == freeIds.length)
+            freeIds = Arrays.copyOf(freeIds, freeCount * 2);
+        freeIds[freeCount++] = n.id;
+    }
+
+    /**
+     * Пересчитывает ребра между всеми входами кластера поиском Дейкстры, ограниченным
+     * ячейками этого кластера.
+     **/
+    private void buildIntraEdges(int cluster)
+    {
+        List<Node> nodes = clusterNodes.get(cluster);
+
+        for (Node n : nodes)
+        {
+            Iterator<Edge> it = n.edges.iterator();
+            while (it.hasNext())
+            {
+                if (!it.next().inter)
+                    it.remove();
+            }
+        }
+
+        for (Node n : nodes)
+        {
+            clusterDijkstra(cluster, n.x, n.y, false);
+
+            for (Node m : nodes)
+            {
+                if (m == n)
+                    continue;
+
+                float d = localDistance(cluster, m.x, m.y);
+                if (d < AStarPathfinder.COST_LIMIT)
+                    n.edges.add(new Edge(m, d, false));
+            }
+        }
+    }
+
+    /**
+     * Выполняет поиск Дейкстры от ячейки (x, y) внутри кластера. При <code>reverse</code> равном
+     * true вычисляются стоимости путей <em>до</em> этой ячейки, а не от неё. Результат доступен
+     * через {@link #localDistance(int, int, int)}.
+     **/
+    private void clusterDijkstra(int cluster, int x, int y, boolean reverse)
+    {
+        int x0 = (cluster % clustersX) * clusterSize;
+        int y0 = (cluster / clustersX) * clusterSize;
+        int x1 = Math.min(x0 + clusterSize, map.getWidth());
+        int y1 = Math.min(y0 + clusterSize, map.getHeight());
+
+        localGeneration++;
+        localHeap.clear();
+
+        int source = (y - y0) * clusterSize + (x - x0);
+        localDist[source] = 0;
+        localStamp[source] = localGeneration;
+        localHeap.update(source, 0, 0);
+
+        while (!localHeap.isEmpty())
+        {
+            int u = localHeap.poll();
+            int ux = x0 + u % clusterSize;
+            int uy = y0 + u / clusterSize;
+            float d = localDist[u];
+
+            // В обратном поиске ребро (v -> u) стоит шаг плюс стоимость входа в u.
+            int enterU = reverse ? map.getCellValueUnchecked(ux, uy) : 0;
+
+            for (int vy = uy - 1; vy <= uy + 1; vy++)
+            {
+                for (int vx = ux - 1; vx <= ux + 1; vx++)
+                {
+                    if (vx < x0 || vy < y0 || vx >= x1 || vy >= y1 || (vx == ux && vy == uy))
+                        continue;
+
+                    float c = d + AStarPathfinder.stepLength(vx - ux, vy - uy);
+                    c += reverse ? enterU : map.getCellValueUnchecked(vx, vy);
+
+                    if (c >= AStarPathfinder.COST_LIMIT)
+                        continue;
+
+                    int v = (vy - y0) * clusterSize + (vx - x0);
+                    if (localStamp[v] != localGeneration || c < localDist[v])
+                    {
+                        localDist[v] = c;
+                        localStamp[v] = localGeneration;
+                        localHeap.update(v, c, 0);
+                    }
+                }
+            }
+        }
+    }
+
+    /** Возвращает расстояние до ячейки, найденное последним поиском внутри кластера. **/
+    private float localDistance(int cluster, int x, int y)
+    {
+        int x0 = (cluster % clustersX) * clusterSize;
+        int y0 = (cluster / clustersX) * clusterSize;
+        int v = (y - y0) * clusterSize + (x - x0);
+
+        return localStamp[v] == localGeneration ? localDist[v] : Float.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Вычисляет путь между начальным и конечным местоположениями карты. Возвращает последнюю
+     * путевую точку пути или <code>null</code>, если путь не найден.
+     **/
+    public Waypoint computePath()
+    {
+        return computePath(map.getStart(), map.getFinish());
+    }
+
+    /**
+     * Вычисляет путь между указанными местоположениями через абстрактный граф и возвращает
+     * последнюю путевую точку пути или <code>null</code>, если путь не найден. Если
+     * абстрактный путь не найден, путь ищется обычным {@link AStarPathfinder}.
+     **/
+    public Waypoint computePath(Location start, Location finish)
+    {
+        if (!map.contains(start) || !map.contains(finish))
+            throw new IllegalArgumentException("start and finish must be inside the map");
+
+        if (reachability != null && !reachability.isReachable(start, finish))
+            return null;
+
+        int startCluster = clusterOf(start.xCoord, start.yCoord);
+        int finishCluster = clusterOf(finish.xCoord, finish.yCoord);
+
+        // Для близких ячеек путь короткий, и абстрактный граф не нужен: обход через входы
+        // кластеров здесь заметно удлинил бы путь.
+        int distance = Math.max(Math.abs(finish.xCoord - start.xCoord),
+                Math.abs(finish.yCoord - start.yCoord));
+        if (startCluster == finishCluster || distance <= clusterSize)
+            return AStarPathfinder.computePath(map, start, finish);
+
+        update();
+
+        // Абстрактный граф не видит переходов через углы кластеров, поэтому отсутствие
+        // абстрактного пути еще не значит, что пути нет.
+        List<Node> route = findAbstractRoute(start, finish, startCluster, finishCluster);
+        Waypoint path = (route != null) ? refine(route, finish) : null;
+        if (path == null)
+            path = AStarPathfinder.computePath(map, start, finish);
+
+        return path;
+    }
+
+    /**
+     * Ищет путь по абстрактному графу, временно подключив к нему начальную и конечную ячейки.
+     * Возвращает последовательность вершин от начала к концу или <code>null</code>. Входы
+     * сохраняют свои номера между запросами, а начало и конец получают два номера после
+     * последнего входа, поэтому запрос не перебирает весь граф и не выделяет массивов.
+     **/
+    private List<Node> findAbstractRoute(Location start, Location finish,
+                                         int startCluster, int finishCluster)
+    {
+        Node s = new Node(start.xCoord, start.yCoord, startCluster, -1);
+        Node g = new Node(finish.xCoord, finish.yCoord, finishCluster, -1);
+        s.id = nodesById.size();
+        g.id = s.id + 1;
+        prepareSearch(g.id + 1);
+
+        // Ребра от начала к входам его кластера.
+        clusterDijkstra(startCluster, s.x, s.y, false);
+        for (Node m : clusterNodes.get(startCluster))
+        {
+            float d = localDistance(startCluster, m.x, m.y);
+            if (d < AStarPathfinder.COST_LIMIT)
+                s.edges.add(new Edge(m, d, false));
+        }
+
+        // Стоимости путей от входов кластера конца до самого конца.
+        clusterDijkstra(finishCluster, g.x, g.y, true);
+        for (Node m : clusterNodes.get(finishCluster))
+        {
+            float d = localDistance(finishCluster, m.x, m.y);
+            if (d < AStarPathfinder.COST_LIMIT)
+            {
+                searchToGoal[m.id] = d;
+                mark(m.id, TO_GOAL);
+            }
+        }
+
+        searchCost[s.id] = 0;
+        searchParent[s.id] = -1;
+        mark(s.id, SEEN);
+        searchHeap.update(s.id, estimate(s, g), 0);
+
+        while (!searchHeap.isEmpty())
+        {
+            int u = searchHeap.poll();
+            mark(u, CLOSED);
+
+            if (u == g.id)
+                return unwind(s, g);
+
+            Node node = (u == s.id) ? s : nodesById.get(u);
+            for (Edge e : node.edges)
+                relax(u, e.target, searchCost[u] + e.cost, g);
+
+            if ((flagsOf(u) & TO_GOAL) != 0)
+                relax(u, g, searchCost[u] + searchToGoal[u], g);
+        }
+
+        return null;
+    }
+
+    /**
+     * Подготавливает массивы абстрактного поиска для вершин с номерами меньше <code>n</code>:
+     * увеличивает их, если нужно, и начинает новое поколение меток.
+     **/
+    private void prepareSearch(int n)
+    {
+        if (n > searchMarks.length)
+        {
+            int capacity = Math.max(n, searchMarks.length * 2);
+            searchMarks = new int[capacity];
+            searchCost = new float[capacity];
+            searchToGoal = new float[capacity];
+            searchParent = new int[capacity];
+            searchHeap = new NodeHeap(capacity);
+        }
+        searchHeap.clear();
+
+        // Когда номера поколений заканчиваются, один раз очищаем метки и начинаем заново.
+        if (searchGeneration == MAX_GENERATION)
+        {
+            Arrays.fill(searchMarks, 0);
+            searchGeneration = 0;
+        }
+        searchGeneration++;
+    }
+
+    /** Возвращает флаги вершины в текущем абстрактном поиске. **/
+    private int flagsOf(int id)
+    {
+        int mark = searchMarks[id];
+        return (mark >>> FLAG_BITS) == searchGeneration ? (mark & (SEEN | CLOSED | TO_GOAL)) : 0;
+    }
+
+    /** Добавляет вершине флаг в текущем абстрактном поиске. **/
+    private void mark(int id, int flag)
+    {
+        searchMarks[id] = (searchGeneration << FLAG_BITS) | flagsOf(id) | flag;
+    }
+
+    /** Обновляет вершину абстрактного поиска, если найден более дешевый путь к ней. **/
+    private void relax(int from, Node target, float c, Node goal)
+    {
+        int v = target.id;
+        int flags = flagsOf(v);
+        if ((flags & CLOSED) != 0 || c >= AStarPathfinder.COST_LIMIT)
+            return;
+
+        if ((flags & SEEN) == 0 || c < searchCost[v])
+        {
+            searchCost[v] = c;
+            searchParent[v] = from;
+            mark(v, SEEN);
+
+            float h = estimate(target, goal);
+            searchHeap.update(v, c + h, h);
+        }
+    }
+
+    /** Оценка оставшейся стоимости между вершинами — расстояние по прямой. **/
+    private static float estimate(Node a, Node b)
+    {
+        return AStarPathfinder.estimateTravelCost(a.x, a.y, b.x, b.y);
+    }
+
+    /** Восстанавливает последовательность вершин от начала до конца по массиву предков. **/
+    private List<Node> unwind(Node s, Node g)
+    {
+        List<Node> route = new ArrayList<Node>();
+        for (int i = g.id; i != -1; i = searchParent[i])
+        {
+            Node node = (i == s.id) ? s : (i == g.id) ? g : nodesById.get(i);
+            route.add(0, node);
+        }
+        return route;
+    }
+
+    /**
+     * Уточняет каждый отрезок абстрактного пути обычным поиском A* и склеивает отрезки в одну
+     * цепочку путевых точек.
+     **/
+    private Waypoint refine(List<Node> route, Location finish)
+    {
+        Node first = route.get(0);
+        Waypoint wp = new Waypoint(new Location(first.x, first.y), null);
+        wp.setCosts(0, AStarPathfinder.estimateTravelCost(first.x, first.y,
+                finish.xCoord, finish.yCoord));
+
+        float offset = 0;
+        for (int k = 1; k < route.size(); k++)
+        {
+            Node a = route.get(k - 1);
+            Node b = route.get(k);
+
+            if (!refineContext.computePath(map, a.x, a.y, b.x, b.y, refineResult))
+                return null;
+
+            // Первый шаг отрезка совпадает с последним шагом предыдущего отрезка.
+            for (int i = 1; i < refineResult.getLength(); i++)
+            {
+                int x = refineResult.getX(i);
+                int y = refineResult.getY(i);
+
+                wp = new Waypoint(new Location(x, y), wp);
+                wp.setCosts(offset + refineResult.getPrevCost(i),
+                        AStarPathfinder.estimateTravelCost(x, y, finish.xCoord, finish.yCoord));
+            }
+            offset += refineResult.getTotalCost();
+        }
+        return wp;
+    }
+}
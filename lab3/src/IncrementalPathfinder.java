@@ -0,0 +1,375 @@
+import java.util.Arrays;
+
+
+/**
+ * Этот класс реализует инкрементальный поиск пути D* Lite. Поиск ведется от конечного
+ * местоположения к начальному, и дерево поиска сохраняется между вызовами
+ * {@link #computePath()}. Объект подписывается на изменения карты: когда ячейка меняет
+ * стоимость через {@link Map2D#setCellValue(int, int, int)}, обновляются только соседние вершины,
+ * и следующий вызов {@link #computePath()} исправляет лишь затронутую часть решения вместо
+ * полного повторного поиска. Начальное местоположение карты тоже может меняться между вызовами
+ * (агент идет по пути); при смене конечного местоположения поиск начинается заново.
+ * <p>
+ * Стоимость шага совпадает с {@link AStarPathfinder}: расстояние между центрами ячеек плюс
+ * стоимость ячейки, в которую выполняется шаг.
+ **/
+public class IncrementalPathfinder implements MapChangeListener
+{
+    /** Бесконечная стоимость недостижимых вершин. **/
+    private static final float INF = Float.POSITIVE_INFINITY;
+
+    /** Карта, по которой выполняется поиск. **/
+    private Map2D map;
+
+    /** Размеры карты. **/
+    private int width, height;
+
+    /** Текущая оценка стоимости пути от каждой ячейки до конечной ячейки. **/
+    private float[] g;
+
+    /** Стоимость на один шаг вперед (right-hand side) для каждой ячейки. **/
+    private float[] rhs;
+
+    /** Несогласованные ячейки, упорядоченные по ключу D* Lite. **/
+    private NodeHeap open;
+
+    /** Конечная ячейка, для которой построено дерево поиска. **/
+    private int goal = -1;
+
+    /** Начальная ячейка, использованная при последнем вызове {@link #computePath()}. **/
+    private int lastStart = -1;
+
+    /** Накопленная поправка ключей при перемещении начальной ячейки. **/
+    private float km;
+
+    /** Создает планировщик для указанной карты и подписывается на её изменения. **/
+    public IncrementalPathfinder(Map2D map)
+    {
+        if (map == null)
+            throw new NullPointerException("map cannot be null");
+
+        long cells = (long) map.getWidth() * map.getHeight();
+        if (cells > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("map is too large: " + map.getWidth() +
+                    "x" + map.getHeight());
+
+        this.map = map;
+        width = map.getWidth();
+        height = map.getHeight();
+
+        g = new float[(int) cells];
+        rhs = new float[(int) cells];
+        open = new NodeHeap((int) cells);
+
+        map.addChangeListener(this);
+    }
+
+    /** Отписывается от изменений карты. После этого объект нельзя использовать. **/
+    public void dispose()
+    {
+        map.removeChangeListener(this);
+    }
+
+    /** Начинает поиск заново для новой конечной ячейки. **/
+    private void initialize(int newGoal, int start)
+    {
+        Arrays.fill(g, INF);
+        Arrays.fill(rhs, INF);
+        open.clear();
+
+        goal = newGoal;
+        lastStart = start;
+        km = 0;
+
+        rhs[goal] = 0;
+        updateKey(goal);
+    }
+
+    /**
+     * Вычисляет (или исправляет после изменений карты) путь от начального до конечного
+     * местоположения карты. Возвращает последнюю путевую точку пути или <code>null</code>, если
+     * путь не найден.
+     **/
+    public Waypoint computePath()
+    {
+        Location startLoc = map.getStart();
+        Location finishLoc = map.getFinish();
+        if (!map.contains(startLoc) || !map.contains(finishLoc))
+            throw new IllegalArgumentException("start and finish must be inside the map");
+
+        int start = index(startLoc.xCoord, startLoc.yCoord);
+        int newGoal = index(finishLoc.xCoord, finishLoc.yCoord);
+
+        if (newGoal != goal)
+        {
+            initialize(newGoal, start);
+        }
+        else if (start != lastStart)
+        {
+            // Начало сдвинулось: ключи в куче стали завышены не более чем на h(lastStart, start).
+            km += heuristic(lastStart, start);
+            lastStart = start;
+        }
+
+        computeShortestPath(start);
+
+        // Оценка g самой начальной ячейки может остаться неточной: путь определяется
+        // стоимостью на шаг вперед rhs, которая к этому моменту уже точна.
+        if (rhs[start] == INF)
+            return null;
+
+        return buildWaypointChain(start);
+    }
+
+    /** Вычисляет индекс ячейки. **/
+    private int index(int x, int y)
+    {
+        return y * width + x;
+    }
+
+    /** Оценка стоимости между двумя ячейками — расстояние по прямой. **/
+    private float heuristic(int a, int b)
+    {
+        return AStarPathfinder.estimateTravelCost(a % width, a / width, b % width, b / width);
+    }
+
+    /** Стоимость шага между соседними ячейками при указанной стоимости целевой ячейки. **/
+    private static float stepCost(int from, int to, int width, int cellValue)
+    {
+        float c = AStarPathfinder.stepCost(from % width - to % width, from / width - to / width,
+                cellValue);
+        return c >= AStarPathfinder.COST_LIMIT ? INF : c;
+    }
+
+    /** Текущая стоимость шага из ячейки <code>from</code> в соседнюю ячейку <code>to</code>. **/
+    private float cost(int from, int to)
+    {
+        return stepCost(from, to, width, map.getCellValueUnchecked(to % width, to / width));
+    }
+
+    /** Возвращает true, если ячейка (x, y) находится на карте. **/
+    private boolean inside(int x, int y)
+    {
+        return x >= 0 && y >= 0 && x < width && y < height;
+    }
+
+    /** Вычисляет наименьшую стоимость пути из ячейки через одного из её соседей. **/
+    private float minSuccessor(int u)
+    {
+        int ux = u % width;
+        int uy = u / width;
+        float best = INF;
+
+        for (int y = uy - 1; y <= uy + 1; y++)
+        {
+            for (int x = ux - 1; x <= ux + 1; x++)
+            {
+                if (!inside(x, y) || (x == ux && y == uy))
+                    continue;
+
+                int s = index(x, y);
+                float c = cost(u, s) + g[s];
+                if (c < best)
+                    best = c;
+            }
+        }
+        return best;
+    }
+
+    /** Первая компонента ключа ячейки. **/
+    private float key1(int u, int start)
+    {
+        return Math.min(g[u], rhs[u]) + heuristic(start, u) + km;
+    }
+
+    /** Вторая компонента ключа ячейки. **/
+    private float key2(int u)
+    {
+        return Math.min(g[u], rhs[u]);
+    }
+
+    /** Помещает несогласованную ячейку в кучу с новым ключом или удаляет согласованную. **/
+    private void updateKey(int u)
+    {
+        if (g[u] != rhs[u])
+            open.update(u, key1(u, lastStart), key2(u));
+        else
+            open.remove(u);
+    }
+
+    /**
+     * Обрабатывает несогласованные ячейки, пока оценка начальной ячейки не станет точной.
+     **/
+    private void computeShortestPath(int start)
+    {
+        while (!open.isEmpty())
+        {
+            int u = open.peek();
+            float k1 = open.peekKey();
+            float k2 = open.peekTie();
+
+            float startK1 = key1(start, start);
+            float startK2 = key2(start);
+            boolean beforeStart = k1 < startK1 || (k1 == startK1 && k2 < startK2);
+            if (!beforeStart && rhs[start] <= g[start])
+                break;
+
+            float newK1 = key1(u, start);
+            float newK2 = key2(u);
+
+            if (k1 < newK1 || (k1 == newK1 && k2 < newK2))
+            {
+                open.update(u, newK1, newK2);
+            }
+            else if (g[u] > rhs[u])
+            {
+                g[u] = rhs[u];
+                open.remove(u);
+
+                forEachNeighbour(u, true, 0);
+            }
+            else
+            {
+                float gOld = g[u];
+                g[u] = INF;
+
+                forEachNeighbour(u, false, gOld);
+                updateKey(u);
+            }
+        }
+    }
+
+    /**
+     * Обновляет предшественников ячейки u после изменения её оценки g. Если
+     * <code>decreased</code>, оценка уменьшилась; иначе она выросла с <code>gOld</code>.
+     **/
+    private void forEachNeighbour(int u, boolean decreased, float gOld)
+    {
+        int ux = u % width;
+        int uy = u / width;
+        int enterU = map.getCellValueUnchecked(ux, uy);
+
+        for (int y = uy - 1; y <= uy + 1; y++)
+        {
+            for (int x = ux - 1; x <= ux + 1; x++)
+            {
+                if (!inside(x, y) || (x == ux && y == uy))
+                    continue;
+
+                int s = index(x, y);
+                if (s == goal)
+                    continue;
+
+                float c = stepCost(s, u, width, enterU);
+                if (decreased)
+                {
+                    float candidate = c + g[u];
+                    if (candidate < rhs[s])
+                        rhs[s] = candidate;
+                }
+                else if (rhs[s] == c + gOld)
+                {
+                    rhs[s] = minSuccessor(s);
+                }
+                updateKey(s);
+            }
+        }
+    }
+
+    /**
+     * Обновляет вершины после изменения стоимости ячейки: меняются стоимости всех шагов
+     * <em>в</em> эту ячейку, поэтому пересчитываются её соседи.
+     **/
+    public void cellChanged(Map2D map, int x, int y, int oldValue)
+    {
+        if (goal < 0)
+            return;
+
+        int v = index(x, y);
+        int newValue = map.getCellValue(x, y);
+
+        for (int uy = y - 1; uy <= y + 1; uy++)
+        {
+            for (int ux = x - 1; ux <= x + 1; ux++)
+            {
+                if (!inside(ux, uy) || (ux == x && uy == y))
+                    continue;
+
+                int u = index(ux, uy);
+                if (u == goal)
+                    continue;
+
+                float cOld = stepCost(u, v, width, oldValue);
+                float cNew = stepCost(u, v, width, newValue);
+
+                if (cOld > cNew)
+                {
+                    float candidate = cNew + g[v];
+                    if (candidate < rhs[u])
+                        rhs[u] = candidate;
+                }
+                else if (rhs[u] == cOld + g[v])
+                {
+                    rhs[u] = minSuccessor(u);
+                }
+                updateKey(u);
+            }
+        }
+    }
+
+    /**
+     * Строит цепочку путевых точек, каждый раз переходя к соседу с наименьшей стоимостью пути
+     * до конечной ячейки, и возвращает последнюю путевую точку.
+     **/
+    private Waypoint buildWaypointChain(int start)
+    {
+        int gx = goal % width;
+        int gy = goal / width;
+
+        int u = start;
+        float prevCost = 0;
+        Waypoint wp = new Waypoint(new Location(u % width, u / width), null);
+        wp.setCosts(0, heuristic(u, goal));
+
+        for (int steps = 0; u != goal; steps++)
+        {
+            if (steps > g.length)
+                return null;
+
+            int ux = u % width;
+            int uy = u / width;
+            int next = -1;
+            float best = INF;
+
+            for (int y = uy - 1; y <= uy + 1; y++)
+            {
+                for (int x = ux - 1; x <= ux + 1; x++)
+                {
+                    if (!inside(x, y) || (x == ux && y == uy))
+                        continue;
+
+                    int s = index(x, y);
+                    float c = cost(u, s) + g[s];
+                    if (c < best)
+                    {
+                        best = c;
+                        next = s;
+                    }
+                }
+            }
+
+            if (next < 0)
+                return null;
+
+            int nx = next % width;
+            int ny = next / width;
+            prevCost += AStarPathfinder.stepLength(nx - ux, ny - uy);
+            prevCost += map.getCellValueUnchecked(nx, ny);
+
+            wp = new Waypoint(new Location(nx, ny), wp);
+            wp.setCosts(prevCost, AStarPathfinder.estimateTravelCost(nx, ny, gx, gy));
+            u = next;
+        }
+        return wp;
+    }
+}
@@ -0,0 +1,358 @@
+import java.awt.*;
+import java.awt.event.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import javax.swing.*;
+
+
+/**
+ * Этот класс представляет собой компонент Swing, который рисует всю сетку карты сам, вместо
+ * отдельного компонента на каждую ячейку. Состояние ячеек хранится в упакованном массиве байтов
+ * (проходимость, конечная точка, путь, открытый и закрытый списки поиска), а цвета ячеек — в
+ * изображении {@link BufferedImage}, в котором одна ячейка занимает один пиксель. При
+ * отрисовке изображение масштабируется, и рисуется только видимая и изменившаяся часть, так
+ * что сетки размером в тысячи ячеек остаются отзывчивыми.
+ * <p>
+ * Колесо мыши меняет масштаб вокруг указателя, перетаскивание правой кнопкой сдвигает сетку.
+ * Для редактирования ячеек вызывающий регистрирует свои обработчики мыши и переводит
+ * координаты в ячейки методом {@link #getCellAt(Point)}.
+ * <p>
+ * Изменения состояния накапливают «грязный» прямоугольник; методы, изменяющие одну ячейку,
+ * сразу перерисовывают её, а пакетные методы <code>mark...</code> только обновляют состояние,
+ * после чего вызывающий один раз вызывает {@link #repaintDirty()}. Все методы вызываются из
+ * потока Swing.
+ **/
+public class JMapGrid extends JComponent
+{
+    /** Флаг: ячейка непроходима. **/
+    private static final int BLOCKED = 1;
+
+    /** Флаг: ячейка — начальная или конечная точка. **/
+    private static final int ENDPOINT = 2;
+
+    /** Флаг: ячейка лежит на найденном пути. **/
+    private static final int PATH = 4;
+
+    /** Флаг: ячейка в открытом списке поиска. **/
+    private static final int OPEN = 8;
+
+    /** Флаг: ячейка раскрыта поиском. **/
+    private static final int CLOSED = 16;
+
+    /** Флаги хода поиска, которые стираются перед новым поиском. **/
+    private static final int SEARCH_FLAGS = PATH | OPEN | CLOSED;
+
+    /** Цвет ячейки в открытом списке поиска. **/
+    private static final Color OPEN_COLOR = new Color(255, 240, 170);
+
+    /** Цвет ячейки, раскрытой поиском. **/
+    private static final Color CLOSED_COLOR = new Color(200, 215, 255);
+
+    /** Цвет линий между ячейками. **/
+    private static final Color GRID_COLOR = Color.GRAY;
+
+    /** Наименьший и наибольший размер ячейки на экране в пикселях. **/
+    private static final int MIN_CELL_SIZE = 1;
+    private static final int MAX_CELL_SIZE = 64;
+
+    /** Размер ячейки, начиная с которого рисуются линии сетки. **/
+    private static final int GRID_LINES_MIN_SIZE = 6;
+
+    /** Ширина сетки в ячейках. **/
+    private final int width;
+
+    /** Высота сетки в ячейках. **/
+    private final int height;
+
+    /** Флаги каждой ячейки по строкам. **/
+    private final byte[] states;
+
+    /** Изображение, в котором каждый пиксель — цвет одной ячейки. **/
+    private final BufferedImage image;
+
+    /** Пиксели {@link #image}. **/
+    private final int[] pixels;
+
+    /** Размер ячейки на экране в пикселях. **/
+    private int cellSize;
+
+    /** Сдвиг левого верхнего угла сетки относительно компонента в пикселях. **/
+    private int offsetX;
+    private int offsetY;
+
+    /** Границы изменившихся ячеек, еще не перерисованных; dirtyMinX > dirtyMaxX, если их нет. **/
+    private int dirtyMinX;
+    private int dirtyMinY;
+    private int dirtyMaxX;
+    private int dirtyMaxY;
+
+
+    /**
+     * Создает сетку указанного размера, в которой все ячейки проходимы. Начальный размер
+     * ячейки выбирается так, чтобы сетка помещалась примерно в 960x720 пикселей.
+     **/
+    public JMapGrid(int width, int height)
+    {
+        if (width <= 0 || height <= 0)
+        {
+            throw new IllegalArgumentException(
+                    "width and height must be positive values; got " + width +
+                            "x" + height);
+        }
+
+        this.width = width;
+        this.height = height;
+
+        states = new byte[width * height];
+        image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+
+        int white = Color.WHITE.getRGB();
+        for (int i = 0; i < pixels.length; i++)
+            pixels[i] = white;
+
+        cellSize = Math.max(MIN_CELL_SIZE, Math.min(12, Math.min(960 / width, 720 / height)));
+        clearDirty();
+
+        setPreferredSize(new Dimension(Math.min(width * cellSize, 960),
+                Math.min(height * cellSize, 720)));
+        setOpaque(true);
+
+        NavigationHandler navigation = new NavigationHandler();
+        addMouseListener(navigation);
+        addMouseMotionListener(navigation);
+        addMouseWheelListener(navigation);
+    }
+
+    /**
+     * Этот внутренний класс обрабатывает масштабирование колесом мыши и сдвиг сетки
+     * перетаскиванием правой кнопкой.
+     **/
+    private class NavigationHandler extends MouseAdapter
+    {
+        /** Последняя точка перетаскивания или <code>null</code>, если сетку не двигают. **/
+        private Point dragFrom;
+
+        public void mousePressed(MouseEvent e)
+        {
+            if (SwingUtilities.isRightMouseButton(e))
+                dragFrom = e.getPoint();
+        }
+
+        public void mouseReleased(MouseEvent e)
+        {
+            if (SwingUtilities.isRightMouseButton(e))
+                dragFrom = null;
+        }
+
+        public void mouseDragged(MouseEvent e)
+        {
+            if (dragFrom == null)
+                return;
+
+            offsetX += e.getX() - dragFrom.x;
+            offsetY += e.getY() - dragFrom.y;
+            dragFrom = e.getPoint();
+            repaint();
+        }
+
+        public void mouseWheelMoved(MouseWheelEvent e)
+        {
+            int newSize = (e.getWheelRotation() < 0) ? cellSize * 2 : cellSize / 2;
+            newSize = Math.max(MIN_CELL_SIZE, Math.min(MAX_CELL_SIZE, newSize));
+            if (newSize == cellSize)
+                return;
+
+            // Ячейка под указателем остается под указателем.
+            offsetX = e.getX() - (int) ((long) (e.getX() - offsetX) * newSize / cellSize);
+            offsetY = e.getY() - (int) ((long) (e.getY() - offsetY) * newSize / cellSize);
+            cellSize = newSize;
+            repaint();
+        }
+    }
+
+    /** Возвращает ширину сетки в ячейках. **/
+    public int getGridWidth()
+    {
+        return width;
+    }
+
+    /** Возвращает высоту сетки в ячейках. **/
+    public int getGridHeight()
+    {
+        return height;
+    }
+
+    /**
+     * Возвращает ячейку под указанной точкой компонента или <code>null</code>, если точка
+     * вне сетки.
+     **/
+    public Location getCellAt(Point p)
+    {
+        int x = Math.floorDiv(p.x - offsetX, cellSize);
+        int y = Math.floorDiv(p.y - offsetY, cellSize);
+
+        if (x < 0 || x >= width || y < 0 || y >= height)
+            return null;
+
+        return new Location(x, y);
+    }
+
+    /** Возвращает true, если ячейка проходима. **/
+    public boolean isPassable(int x, int y)
+    {
+        return (states[y * width + x] & BLOCKED) == 0;
+    }
+
+    /** Делает ячейку проходимой или непроходимой и перерисовывает её. **/
+    public void setPassable(int x, int y, boolean passable)
+    {
+        setFlag(x, y, BLOCKED, !passable);
+        repaintDirty();
+    }
+
+    /** Отмечает ячейку как начальную или конечную точку и перерисовывает её. **/
+    public void setEndpoint(int x, int y, boolean endpoint)
+    {
+        setFlag(x, y, ENDPOINT, endpoint);
+        repaintDirty();
+    }
+
+    /**
+     * Отмечает ячейку как открытую или раскрытую поиском без перерисовки; после пакета
+     * изменений нужно вызвать {@link #repaintDirty()}.
+     **/
+    public void markFrontier(int x, int y, boolean open, boolean closed)
+    {
+        int i = y * width + x;
+        int s = (states[i] & ~(OPEN | CLOSED)) | (open ? OPEN : 0) | (closed ? CLOSED : 0);
+        updateState(x, y, s);
+    }
+
+    /** Отмечает ячейку как часть пути без перерисовки (см. {@link #markFrontier}). **/
+    public void markPath(int x, int y, boolean path)
+    {
+        setFlag(x, y, PATH, path);
+    }
+
+    /** Стирает путь и ход поиска со всех ячеек и перерисовывает изменившуюся часть. **/
+    public void clearSearchMarks()
+    {
+        for (int y = 0; y < height; y++)
+        {
+            for (int x = 0; x < width; x++)
+            {
+                int s = states[y * width + x];
+                if ((s & SEARCH_FLAGS) != 0)
+                    updateState(x, y, s & ~SEARCH_FLAGS);
+            }
+        }
+        repaintDirty();
+    }
+
+    /** Устанавливает или снимает флаг ячейки без перерисовки. **/
+    private void setFlag(int x, int y, int flag, boolean value)
+    {
+        int s = states[y * width + x];
+        updateState(x, y, value ? (s | flag) : (s & ~flag));
+    }
+
+    /** Записывает новые флаги ячейки, обновляет её пиксель и «грязный» прямоугольник. **/
+    private void updateState(int x, int y, int s)
+    {
+        int i = y * width + x;
+        if (states[i] == s)
+            return;
+
+        states[i] = (byte) s;
+        pixels[i] = colorOf(s).getRGB();
+
+        dirtyMinX = Math.min(dirtyMinX, x);
+        dirtyMinY = Math.min(dirtyMinY, y);
+        dirtyMaxX = Math.max(dirtyMaxX, x);
+        dirtyMaxY = Math.max(dirtyMaxY, y);
+    }
+
+    /** Возвращает цвет ячейки с указанными флагами. **/
+    private static Color colorOf(int s)
+    {
+        if ((s & BLOCKED) != 0)
+            return Color.RED;
+
+        if ((s & ENDPOINT) != 0)
+            return Color.CYAN;
+
+        if ((s & PATH) != 0)
+            return Color.GREEN;
+
+        if ((s & CLOSED) != 0)
+            return CLOSED_COLOR;
+
+        if ((s & OPEN) != 0)
+            return OPEN_COLOR;
+
+        return Color.WHITE;
+    }
+
+    /** Перерисовывает прямоугольник, охватывающий все ячейки, измененные с прошлого вызова. **/
+    public void repaintDirty()
+    {
+        if (dirtyMinX > dirtyMaxX)
+            return;
+
+        repaint(offsetX + dirtyMinX * cellSize, offsetY + dirtyMinY * cellSize,
+                (dirtyMaxX - dirtyMinX + 1) * cellSize, (dirtyMaxY - dirtyMinY + 1) * cellSize);
+        clearDirty();
+    }
+
+    /** Сбрасывает «грязный» прямоугольник. **/
+    private void clearDirty()
+    {
+        dirtyMinX = Integer.MAX_VALUE;
+        dirtyMinY = Integer.MAX_VALUE;
+        dirtyMaxX = Integer.MIN_VALUE;
+        dirtyMaxY = Integer.MIN_VALUE;
+    }
+
+    /**
+     * Рисует ячейки, попавшие в область отсечения: соответствующая часть изображения
+     * масштабируется до размера ячеек, а при крупном масштабе поверх рисуются линии сетки.
+     **/
+    protected void paintComponent(Graphics g)
+    {
+        Rectangle clip = g.getClipBounds();
+        if (clip == null)
+            clip = new Rectangle(0, 0, getWidth(), getHeight());
+
+        g.setColor(GRID_COLOR);
+        g.fillRect(clip.x, clip.y, clip.width, clip.height);
+
+        // Видимые ячейки в области отсечения.
+        int x0 = Math.max(0, Math.floorDiv(clip.x - offsetX, cellSize));
+        int y0 = Math.max(0, Math.floorDiv(clip.y - offsetY, cellSize));
+        int x1 = Math.min(width, Math.floorDiv(clip.x + clip.width - offsetX - 1, cellSize) + 1);
+        int y1 = Math.min(height, Math.floorDiv(clip.y + clip.height - offsetY - 1, cellSize) + 1);
+        if (x0 >= x1 || y0 >= y1)
+            return;
+
+        int dx = offsetX + x0 * cellSize;
+        int dy = offsetY + y0 * cellSize;
+        g.drawImage(image, dx, dy, dx + (x1 - x0) * cellSize, dy + (y1 - y0) * cellSize,
+                x0, y0, x1, y1, null);
+
+        if (cellSize >= GRID_LINES_MIN_SIZE)
+        {
+            g.setColor(GRID_COLOR);
+            for (int x = x0; x <= x1; x++)
+            {
+                int px = offsetX + x * cellSize - 1;
+                g.drawLine(px, dy, px, dy + (y1 - y0) * cellSize);
+            }
+            for (int y = y0; y <= y1; y++)
+            {
+                int py = offsetY + y * cellSize - 1;
+                g.drawLine(dx, py, dx + (x1 - x0) * cellSize, py);
+            }
+        }
+    }
+}
@@ -0,0 +1,515 @@
+import java.lang.ref.SoftReference;
+import java.util.Arrays;
+
+
+/**
+ * Этот класс содержит реализацию поиска с точками прыжка (Jump Point Search, JPS) для карт с
+ * одинаковой стоимостью всех проходимых ячеек. На таких картах у обычного A* очень много
+ * симметричных путей одинаковой стоимости; JPS вместо раскрытия каждой ячейки «прыгает» по
+ * прямым и диагоналям до ячеек с вынужденными соседями, поэтому в открытый список попадает
+ * лишь небольшая часть карты. Правила перемещения совпадают с {@link AStarPathfinder}: восемь
+ * направлений, диагональный шаг разрешен независимо от соседних ячеек.
+ * <p>
+ * Проходимость ячеек считывается из карты при создании объекта, поэтому последующие изменения
+ * карты не учитываются. Если вызвать {@link #precomputeJumps()}, расстояния прыжков по прямым
+ * направлениям будут вычислены заранее (JPS+), и каждый прямой прыжок займет O(1).
+ * <p>
+ * {@link AStarPathfinder#computeJumpPointPath(Map2D)} хранит в каждом потоке последний
+ * объект поиска и перечитывает карту, только когда меняется ее версия, поэтому повторные
+ * запросы к неизменной карте не проверяют ее заново и не выделяют память.
+ **/
+public class JumpPointSearch
+{
+    /** Индексы прямых направлений в таблице прыжков. **/
+    private static final int EAST = 0, WEST = 1, SOUTH = 2, NORTH = 3;
+
+    /**
+     * Последний объект поиска каждого потока для {@link #forMap(Map2D)}. Ссылка мягкая,
+     * чтобы массивы карты, которая больше не используется, можно было освободить.
+     **/
+    private static final ThreadLocal<SoftReference<JumpPointSearch>> CACHE =
+            new ThreadLocal<SoftReference<JumpPointSearch>>();
+
+    /** Карта, для которой создан объект. **/
+    private Map2D map;
+
+    /** Размеры карты. **/
+    private int width, height;
+
+    /** Стоимость входа в любую проходимую ячейку карты. **/
+    private int cellCost;
+
+    /** Версия карты, для которой прочитаны проходимость и стоимость ячеек. **/
+    private long version;
+
+    /** Была ли карта этой версии с одинаковой стоимостью проходимых ячеек. **/
+    private boolean uniform;
+
+    /** Битовая маска проходимых ячеек, индексированная номером <code>y * width + x</code>. **/
+    private long[] passable;
+
+    /**
+     * Заранее вычисленные расстояния прыжков по прямым направлениям или <code>null</code>.
+     * Положительное значение d означает точку прыжка через d шагов; неположительное значение -d
+     * означает, что через d шагов начинается стена или край карты.
+     **/
+    private int[][] jumps;
+
+    /** Состояние поиска, переиспользуемое между запросами. **/
+    private GridSearchState state;
+
+    /**
+     * Создает объект поиска для указанной карты. Карта должна иметь одинаковую стоимость всех
+     * проходимых ячеек (см. {@link #isUniformCost(Map2D)}).
+     **/
+    public JumpPointSearch(Map2D map)
+    {
+        this(map, true);
+    }
+
+    /**
+     * Создает объект поиска для карты. Если <code>requireUniform</code> равен false, карта
+     * с разной стоимостью ячеек допустима, но искать по ней нельзя, пока она не станет
+     * подходящей (см. {@link #forMap(Map2D)}).
+     **/
+    private JumpPointSearch(Map2D map, boolean requireUniform)
+    {
+        state = new GridSearchState(map);
+
+        this.map = map;
+        width = map.getWidth();
+        height = map.getHeight();
+        passable = new long[(width * height + 63) >>> 6];
+
+        if (!load() && requireUniform)
+        {
+            throw new IllegalArgumentException(
+                    "jump point search requires a map with a uniform cell cost");
+        }
+    }
+
+    /**
+     * Возвращает объект поиска текущего потока для карты или <code>null</code>, если карта
+     * не подходит для поиска с точками прыжка. Объект создается заново только для другой
+     * карты, а карта перечитывается, только если изменилась ее версия; результат проверки
+     * тоже запоминается до изменения карты.
+     **/
+    static JumpPointSearch forMap(Map2D map)
+    {
+        SoftReference<JumpPointSearch> ref = CACHE.get();
+        JumpPointSearch search = (ref != null) ? ref.get() : null;
+
+        if (search == null || search.map != map)
+        {
+            search = new JumpPointSearch(map, false);
+            CACHE.set(new SoftReference<JumpPointSearch>(search));
+        }
+        else if (search.version != map.getVersion())
+        {
+            search.load();
+        }
+        return search.uniform ? search : null;
+    }
+
+    /**
+     * Читает проходимость и стоимость ячеек карты в битовую маску и возвращает true, если
+     * карта подходит для поиска с точками прыжка. Заранее вычисленные прыжки сбрасываются.
+     **/
+    private boolean load()
+    {
+        version = map.getVersion();
+        jumps = null;
+        uniform = false;
+        Arrays.fill(passable, 0);
+
+        boolean seen = false;
+        int common = 0;
+        for (int y = 0; y < height; y++)
+        {
+            for (int x = 0; x < width; x++)
+            {
+                int value = map.getCellValueUnchecked(x, y);
+                if (value >= AStarPathfinder.COST_LIMIT)
+                    continue;
+
+                if (value < 0 || (seen && value != common))
+                    return false;
+
+                common = value;
+                seen = true;
+
+                int i = y * width + x;
+                passable[i >>> 6] |= 1L << i;
+            }
+        }
+
+        cellCost = common;
+        uniform = true;
+        return true;
+    }
+
+    /**
+     * Возвращает true, если карта подходит для поиска с точками прыжка: каждая ячейка либо
+     * непроходима (её стоимость не меньше {@link AStarPathfinder#COST_LIMIT}), либо имеет одну и ту
+     * же неотрицательную стоимость.
+     **/
+    public static boolean isUniformCost(Map2D map)
+    {
+        boolean seen = false;
+        int common = 0;
+
+        for (int y = 0; y < map.getHeight(); y++)
+        {
+            for (int x = 0; x < map.getWidth(); x++)
+            {
+                int value = map.getCellValue(x, y);
+                if (value >= AStarPathfinder.COST_LIMIT)
+                    continue;
+
+                if (value < 0)
+                    return false;
+
+                if (!seen)
+                {
+                    common = value;
+                    seen = true;
+                }
+                else if (value != common)
+                {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Заранее вычисляет расстояния прыжков по четырем прямым направлениям для каждой ячейки
+     * (JPS+). Занимает 16 байт на ячейку и окупается при многократных запросах к одной карте.
+     **/
+    public void precomputeJumps()
+    {
+        int n = width * height;
+        int[][] table = new int[4][n];
+
+        for (int y = 0; y < height; y++)
+        {
+            // На восток и на запад: проходим строку справа налево и слева направо.
+            for (int x = width - 1; x >= 0; x--)
+                table[EAST][y * width + x] = nextJump(table[EAST], x, y, 1, 0);
+            for (int x = 0; x < width; x++)
+                table[WEST][y * width + x] = nextJump(table[WEST], x, y, -1, 0);
+        }
+
+        for (int x = 0; x < width; x++)
+        {
+            for (int y = height - 1; y >= 0; y--)
+                table[SOUTH][y * width + x] = nextJump(table[SOUTH], x, y, 0, 1);
+            for (int y = 0; y < height; y++)
+                table[NORTH][y * width + x] = nextJump(table[NORTH], x, y, 0, -1);
+        }
+
+        jumps = table;
+    }
+
+    /**
+     * Вычисляет элемент таблицы прыжков для ячейки (x, y) по уже вычисленному элементу
+     * соседней ячейки в направлении (dx, dy).
+     **/
+    private int nextJump(int[] table, int x, int y, int dx, int dy)
+    {
+        int nx = x + dx;
+        int ny = y + dy;
+
+        if (!isPassable(nx, ny))
+            return 0;
+
+        if (hasForcedNeighbour(nx, ny, dx, dy))
+            return 1;
+
+        int next = table[ny * width + nx];
+        return next > 0 ? next + 1 : next - 1;
+    }
+
+    /** Возвращает true, если ячейка находится на карте и проходима. **/
+    private boolean isPassable(int x, int y)
+    {
+        if (x < 0 || y < 0 || x >= width || y >= height)
+            return false;
+
+        int i = y * width + x;
+        return (passable[i >>> 6] & (1L << i)) != 0;
+    }
+
+    /**
+     * Возвращает true, если у ячейки (x, y), в которую пришли по направлению (dx, dy), есть
+     * вынужденный сосед: ячейка, кратчайший путь к которой обязан пройти через (x, y).
+     **/
+    private boolean hasForcedNeighbour(int x, int y, int dx, int dy)
+    {
+        if (dx != 0 && dy != 0)
+        {
+            return (!isPassable(x - dx, y) && isPassable(x - dx, y + dy)) ||
+                    (!isPassable(x, y - dy) && isPassable(x + dx, y - dy));
+        }
+
+        if (dx != 0)
+        {
+            return (!isPassable(x, y + 1) && isPassable(x + dx, y + 1)) ||
+                    (!isPassable(x, y - 1) && isPassable(x + dx, y - 1));
+        }
+
+        return (!isPassable(x + 1, y) && isPassable(x + 1, y + dy)) ||
+                (!isPassable(x - 1, y) && isPassable(x - 1, y + dy));
+    }
+
+    /**
+     * Вычисляет путь между начальным и конечным местоположениями карты. Возвращает последнюю
+     * путевую точку пути или <code>null</code>, если путь не найден.
+     **/
+    public Waypoint computePath()
+    {
+        return computePath(map.getStart(), map.getFinish());
+    }
+
+    /**
+     * Вычисляет путь между указанными местоположениями. Как и
+     * {@link AStarPathfinder#computePath(Map2D)}, возвращает последнюю путевую точку пути (с
+     * цепочкой всех ячеек пути) или <code>null</code>, если путь не найден. Стоимость пути
+     * совпадает со стоимостью пути обычного A*.
+     **/
+    public Waypoint computePath(Location start, Location finish)
+    {
+        if (!map.contains(start) || !map.contains(finish))
+            throw new IllegalArgumentException("start and finish must be inside the map");
+
+        GridSearchState s = state;
+        s.reset(map);
+
+        int fx = finish.xCoord;
+        int fy = finish.yCoord;
+        int startIndex = s.indexOf(start.xCoord, start.yCoord);
+        int finishIndex = s.indexOf(fx, fy);
+
+        s.openNode(startIndex, 0, estimate(start.xCoord, start.yCoord, fx, fy), -1);
+
+        int current;
+        while ((current = s.peekMinOpen()) >= 0)
+        {
+            if (current == finishIndex)
+                return buildWaypointChain(s, current, fx, fy);
+
+            int cx = s.getX(current);
+            int cy = s.getY(current);
+            int parentIndex = s.getParent(current);
+
+            if (parentIndex < 0)
+            {
+                // У начальной ячейки нет направления движения: пробуем все восемь.
+                for (int dy = -1; dy <= 1; dy++)
+                    for (int dx = -1; dx <= 1; dx++)
+                        if (dx != 0 || dy != 0)
+                            tryJump(s, current, cx, cy, dx, dy, fx, fy);
+            }
+            else
+            {
+                int dx = Integer.signum(cx - s.getX(parentIndex));
+                int dy = Integer.signum(cy - s.getY(parentIndex));
+                expandPruned(s, current, cx, cy, dx, dy, fx, fy);
+            }
+
+            s.closeNode(current);
+        }
+
+        return null;
+    }
+
+    /**
+     * Пробует только естественных и вынужденных соседей ячейки, в которую пришли по направлению
+     * (dx, dy); остальные соседи достижимы не дороже в обход этой ячейки.
+     **/
+    private void expandPruned(GridSearchState s, int current, int cx, int cy,
+                              int dx, int dy, int fx, int fy)
+    {
+        if (dx != 0 && dy != 0)
+        {
+            tryJump(s, current, cx, cy, dx, 0, fx, fy);
+            tryJump(s, current, cx, cy, 0, dy, fx, fy);
+            tryJump(s, current, cx, cy, dx, dy, fx, fy);
+
+            if (!isPassable(cx - dx, cy))
+                tryJump(s, current, cx, cy, -dx, dy, fx, fy);
+            if (!isPassable(cx, cy - dy))
+                tryJump(s, current, cx, cy, dx, -dy, fx, fy);
+        }
+        else if (dx != 0)
+        {
+            tryJump(s, current, cx, cy, dx, 0, fx, fy);
+
+            if (!isPassable(cx, cy + 1))
+                tryJump(s, current, cx, cy, dx, 1, fx, fy);
+            if (!isPassable(cx, cy - 1))
+                tryJump(s, current, cx, cy, dx, -1, fx, fy);
+        }
+        else
+        {
+            tryJump(s, current, cx, cy, 0, dy, fx, fy);
+
+            if (!isPassable(cx + 1, cy))
+                tryJump(s, current, cx, cy, 1, dy, fx, fy);
+            if (!isPassable(cx - 1, cy))
+                tryJump(s, current, cx, cy, -1, dy, fx, fy);
+        }
+    }
+
+    /**
+     * Выполняет прыжок из ячейки в направлении (dx, dy) и, если найдена точка прыжка, добавляет
+     * её в открытый список.
+     **/
+    private void tryJump(GridSearchState s, int current, int cx, int cy,
+                         int dx, int dy, int fx, int fy)
+    {
+        int target = jump(cx, cy, dx, dy, fx, fy);
+        if (target < 0)
+            return;
+
+        int tx = target % width;
+        int ty = target / width;
+        if (s.isClosed(target))
+            return;
+
+        // Точки прыжка лежат на одной прямой или диагонали с текущей ячейкой.
+        int steps = Math.max(Math.abs(tx - cx), Math.abs(ty - cy));
+        float prevCost = s.getPrevCost(current) +
+                steps * AStarPathfinder.stepCost(dx, dy, cellCost);
+
+        if (prevCost >= AStarPathfinder.COST_LIMIT)
+            return;
+
+        s.openNode(target, prevCost, estimate(tx, ty, fx, fy), current);
+    }
+
+    /**
+     * Прыгает из ячейки (x, y) в направлении (dx, dy) и возвращает индекс первой точки прыжка
+     * или -1, если направление упирается в стену.
+     **/
+    private int jump(int x, int y, int dx, int dy, int fx, int fy)
+    {
+        if (dx == 0 || dy == 0)
+            return jumpStraight(x, y, dx, dy, fx, fy);
+
+        while (true)
+        {
+            x += dx;
+            y += dy;
+
+            if (!isPassable(x, y))
+                return -1;
+
+            if ((x == fx && y == fy) || hasForcedNeighbour(x, y, dx, dy))
+                return y * width + x;
+
+            // Диагональная ячейка становится точкой прыжка, если из неё есть
+            // прыжок по одной из составляющих прямых.
+            if (jumpStraight(x, y, dx, 0, fx, fy) >= 0 ||
+                    jumpStraight(x, y, 0, dy, fx, fy) >= 0)
+                return y * width + x;
+        }
+    }
+
+    /**
+     * Прыгает по прямому направлению и возвращает индекс точки прыжка или -1. Если таблица
+     * прыжков вычислена, прыжок занимает O(1).
+     **/
+    private int jumpStraight(int x, int y, int dx, int dy, int fx, int fy)
+    {
+        if (jumps != null)
+        {
+            int dir = (dx > 0) ? EAST : (dx < 0) ? WEST : (dy > 0) ? SOUTH : NORTH;
+            int d = jumps[dir][y * width + x];
+            int reach = Math.abs(d);
+
+            // Конечная ячейка на этом луче ближе точки прыжка или стены.
+            int toFinish = (dx != 0) ? (fy == y ? (fx - x) * dx : -1)
+                                     : (fx == x ? (fy - y) * dy : -1);
+            if (toFinish > 0 && toFinish <= reach)
+                return fy * width + fx;
+
+            if (d <= 0)
+                return -1;
+            return (y + d * dy) * width + (x + d * dx);
+        }
+
+        while (true)
+        {
+            x += dx;
+            y += dy;
+
+            if (!isPassable(x, y))
+                return -1;
+
+            if ((x == fx && y == fy) || hasForcedNeighbour(x, y, dx, dy))
+                return y * width + x;
+        }
+    }
+
+    /**
+     * Оценивает стоимость пути между двумя ячейками на карте без препятствий с одинаковой
+     * стоимостью ячеек (октильное расстояние). Оценка допустима и согласована.
+     **/
+    private float estimate(int x, int y, int fx, int fy)
+    {
+        int dx = Math.abs(fx - x);
+        int dy = Math.abs(fy - y);
+        int diagonal = Math.min(dx, dy);
+        int straight = Math.max(dx, dy) - diagonal;
+
+        return diagonal * AStarPathfinder.stepCost(1, 1, cellCost) +
+                straight * AStarPathfinder.stepCost(1, 0, cellCost);
+    }
+
+    /**
+     * Строит цепочку путевых точек, проходящую по всем ячейкам между точками прыжка, и
+     * возвращает последнюю путевую точку. Стоимости накапливаются по шагам так же, как в
+     * {@link AStarPathfinder}.
+     **/
+    private Waypoint buildWaypointChain(GridSearchState s, int lastIndex, int fx, int fy)
+    {
+        int count = 0;
+        for (int i = lastIndex; i != -1; i = s.getParent(i))
+            count++;
+
+        int[] points = new int[count];
+        for (int i = lastIndex, k = count - 1; i != -1; i = s.getParent(i), k--)
+            points[k] = i;
+
+        int x = s.getX(points[0]);
+        int y = s.getY(points[0]);
+        float prevCost = 0;
+
+        Waypoint wp = new Waypoint(new Location(x, y), null);
+        wp.setCosts(prevCost, AStarPathfinder.estimateTravelCost(x, y, fx, fy));
+
+        for (int k = 1; k < count; k++)
+        {
+            int tx = s.getX(points[k]);
+            int ty = s.getY(points[k]);
+            int dx = Integer.signum(tx - x);
+            int dy = Integer.signum(ty - y);
+            float step = AStarPathfinder.stepLength(dx, dy);
+
+            while (x != tx || y != ty)
+            {
+                x += dx;
+                y += dy;
+
+                prevCost += step;
+                prevCost += cellCost;
+
+                wp = new Waypoint(new Location(x, y), wp);
+                wp.setCosts(prevCost, AStarPathfinder.estimateTravelCost(x, y, fx, fy));
+            }
+        }
+        return wp;
+    }
+}
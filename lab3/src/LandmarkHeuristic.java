@@ -0,0 +1,370 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+
+
+/**
+ * Этот класс реализует эвристику ALT (A*, ориентиры, неравенство треугольника). Для нескольких
+ * ячеек-ориентиров L заранее вычисляются стоимости кратчайших путей от L до каждой ячейки и от
+ * каждой ячейки до L. По неравенству треугольника стоимость пути от v до t не меньше, чем
+ * d(L, t) - d(L, v) и d(v, L) - d(t, L); эвристика берет наибольшую из этих оценок по всем
+ * ориентирам и расстояния по прямой. В отличие от расстояния по прямой, такая оценка учитывает
+ * препятствия и стоимость ячеек, поэтому на лабиринтах и дорогих картах поиск раскрывает в
+ * разы меньше ячеек. Эвристика допустима и согласована, так что найденные пути оптимальны.
+ * <p>
+ * Ориентиры по умолчанию расставляются равномерно по краю карты и сдвигаются в ближайшую
+ * проходимую ячейку. Таблицы строятся алгоритмом Дейкстры, по одной задаче на ориентир и
+ * направление, параллельно в {@link ForkJoinPool}. Таблицы занимают 8 байт на ячейку на
+ * ориентир.
+ * <p>
+ * Таблицы действительны только для той версии карты ({@link Map2D#getVersion()}), для
+ * которой они построены: после изменения стоимости любой ячейки эвристика возвращает
+ * расстояние по прямой, пока ее не перестроят методом {@link #rebuild()}. Смена начального
+ * или конечного местоположения карты таблицы не затрагивает. Эвристику можно использовать из
+ * нескольких потоков одновременно, в том числе во время перестроения: таблицы заменяются
+ * целиком.
+ **/
+public class LandmarkHeuristic implements Heuristic
+{
+    /**
+     * Множитель оценок по ориентирам. Таблицы и поиск накапливают стоимости во float в разном
+     * порядке, и разность двух больших сумм может превысить настоящую стоимость на несколько
+     * единиц последнего разряда; небольшой запас сохраняет допустимость, а умножение
+     * согласованной эвристики на число меньше единицы оставляет ее согласованной.
+     **/
+    private static final float SLACK = 0.999f;
+
+    /** Карта, для которой построены таблицы. **/
+    private final Map2D map;
+
+    /** Пул потоков, в котором строятся таблицы. **/
+    private final ForkJoinPool pool;
+
+    /** Ориентиры. **/
+    private final List<Location> landmarks;
+
+    /** Ширина карты. **/
+    private final int width;
+
+    /** Текущие таблицы; заменяются целиком при перестроении. **/
+    private volatile Tables tables;
+
+
+    /** Таблицы стоимостей вместе с версией карты, для которой они построены. **/
+    private static final class Tables
+    {
+        /**
+         * Стоимости путей от ориентиров: значение для ячейки i и ориентира k хранится по
+         * индексу <code>i * K + k</code>, чтобы все значения ячейки лежали рядом.
+         **/
+        final float[] fromLandmark;
+
+        /** Стоимости путей до ориентиров в том же порядке. **/
+        final float[] toLandmark;
+
+        /** Версия карты, для которой построены таблицы. **/
+        final long version;
+
+        Tables(float[] fromLandmark, float[] toLandmark, long version)
+        {
+            this.fromLandmark = fromLandmark;
+            this.toLandmark = toLandmark;
+            this.version = version;
+        }
+    }
+
+
+    /**
+     * Строит эвристику с указанным числом ориентиров, расставленных по краю карты. Таблицы
+     * строятся в общем {@link ForkJoinPool}.
+     **/
+    public LandmarkHeuristic(Map2D map, int count)
+    {
+        this(map, count, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Строит эвристику с указанным числом ориентиров, расставленных по краю карты. Таблицы
+     * строятся в указанном пуле потоков.
+     **/
+    public LandmarkHeuristic(Map2D map, int count, ForkJoinPool pool)
+    {
+        this(map, chooseLandmarks(map, count), pool);
+    }
+
+    /**
+     * Строит эвристику с указанными ориентирами. Непроходимые ориентиры допустимы, но
+     * бесполезны: из них не ведет ни один путь.
+     **/
+    public LandmarkHeuristic(Map2D map, List<Location> landmarks, ForkJoinPool pool)
+    {
+        if (map == null)
+            throw new NullPointerException("map cannot be null");
+
+        if (landmarks == null)
+            throw new NullPointerException("landmarks cannot be null");
+
+        if (pool == null)
+            throw new NullPointerException("pool cannot be null");
+
+        long size = (long) map.getWidth() * map.getHeight() * landmarks.size();
+        if (size > Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException("map is too large for " + landmarks.size() +
+                    " landmarks: " + map.getWidth() + "x" + map.getHeight());
+        }
+
+        for (Location loc : landmarks)
+        {
+            if (!map.contains(loc))
+            {
+                throw new IllegalArgumentException("landmark must be inside the map, got (" +
+                        loc.xCoord + ", " + loc.yCoord + ")");
+            }
+        }
+
+        this.map = map;
+        this.pool = pool;
+        this.landmarks = Collections.unmodifiableList(new ArrayList<Location>(landmarks));
+        width = map.getWidth();
+
+        rebuild();
+    }
+
+    /**
+     * Расставляет ориентиры равномерно по краю карты, начиная с левого верхнего угла, и
+     * сдвигает каждый в ближайшую проходимую ячейку. Совпадающие ориентиры отбрасываются.
+     **/
+    static List<Location> chooseLandmarks(Map2D map, int count)
+    {
+        if (count <= 0)
+            throw new IllegalArgumentException("count must be positive, got " + count);
+
+        int w = map.getWidth();
+        int h = map.getHeight();
+        long perimeter = Math.max(1, 2L * (w + h) - 4);
+
+        List<Location> result = new ArrayList<Location>();
+        for (int k = 0; k < count; k++)
+        {
+            long p = perimeter * k / count;
+            int x;
+            int y;
+            if (p < w)
+            {
+                x = (int) p;
+                y = 0;
+            }
+            else if (p < w + h - 1)
+            {
+                x = w - 1;
+                y = (int) (p - w + 1);
+            }
+            else if (p < 2L * w + h - 2)
+            {
+                x = (int) (2L * w + h - 3 - p);
+                y = h - 1;
+            }
+            else
+            {
+                x = 0;
+                y = (int) (perimeter - p);
+            }
+
+            Location loc = nearestPassable(map, Math.min(x, w - 1), Math.min(y, h - 1));
+            if (loc != null && !result.contains(loc))
+                result.add(loc);
+        }
+        return result;
+    }
+
+    /**
+     * Возвращает ближайшую к (x, y) проходимую ячейку, просматривая квадратные кольца
+     * вокруг нее, или <code>null</code>, если проходимых ячеек нет.
+     **/
+    private static Location nearestPassable(Map2D map, int x, int y)
+    {
+        int maxRadius = Math.max(map.getWidth(), map.getHeight());
+        for (int r = 0; r < maxRadius; r++)
+        {
+            for (int cy = y - r; cy <= y + r; cy++)
+            {
+                // Внутри кольца проверяются только левая и правая стороны.
+                int step = (cy == y - r || cy == y + r) ? 1 : Math.max(1, 2 * r);
+                for (int cx = x - r; cx <= x + r; cx += step)
+                {
+                    if (map.contains(cx, cy) &&
+                            map.getCellValueUnchecked(cx, cy) < AStarPathfinder.COST_LIMIT)
+                    {
+                        return new Location(cx, cy);
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Возвращает карту, для которой построены таблицы. **/
+    public Map2D getMap()
+    {
+        return map;
+    }
+
+    /** Возвращает ориентиры. **/
+    public List<Location> getLandmarks()
+    {
+        return landmarks;
+    }
+
+    /**
+     * Возвращает true, если таблицы построены для текущих стоимостей ячеек карты, то есть
+     * стоимость ни одной ячейки не изменилась после построения.
+     **/
+    public boolean isValid()
+    {
+        return tables.version == map.getVersion();
+    }
+
+    /**
+     * Перестраивает таблицы для текущего состояния карты. Карта не должна изменяться, пока
+     * выполняется вызов.
+     **/
+    public void rebuild()
+    {
+        final int count = landmarks.size();
+        final int cells = map.getWidth() * map.getHeight();
+        final float[] from = new float[cells * count];
+        final float[] to = new float[cells * count];
+        long mapVersion = map.getVersion();
+
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int k = 0; k < count; k++)
+        {
+            final int landmark = k;
+            final Location loc = landmarks.get(k);
+
+            tasks.add(new Callable<Void>() {
+                public Void call()
+                {
+                    dijkstra(loc, false, from, landmark, count);
+                    return null;
+                }
+            });
+            tasks.add(new Callable<Void>() {
+                public Void call()
+                {
+                    dijkstra(loc, true, to, landmark, count);
+                    return null;
+                }
+            });
+        }
+
+        ParallelTasks.invokeAll(pool, tasks, "landmark table build");
+
+        tables = new Tables(from, to, mapVersion);
+    }
+
+    /**
+     * Вычисляет алгоритмом Дейкстры стоимости путей от ориентира до всех ячеек или, если
+     * <code>reverse</code> равен true, от всех ячеек до ориентира, и записывает их в столбец
+     * <code>landmark</code> таблицы. Шаг в ячейку стоит столько же, сколько в
+     * {@link PathfinderContext}: длина шага плюс стоимость ячейки, в которую он ведет.
+     **/
+    private void dijkstra(Location source, boolean reverse, float[] table, int landmark,
+                          int count)
+    {
+        int height = map.getHeight();
+        int cells = width * height;
+        float[] dist = new float[cells];
+        Arrays.fill(dist, Float.POSITIVE_INFINITY);
+
+        NodeHeap heap = new NodeHeap(cells);
+        int sourceIndex = source.yCoord * width + source.xCoord;
+        if (map.getCellValueUnchecked(source.xCoord, source.yCoord) < AStarPathfinder.COST_LIMIT)
+        {
+            dist[sourceIndex] = 0;
+            heap.update(sourceIndex, 0, 0);
+        }
+
+        while (!heap.isEmpty())
+        {
+            int current = heap.poll();
+            int cx = current % width;
+            int cy = current / width;
+            float currCost = dist[current];
+            int currValue = map.getCellValueUnchecked(cx, cy);
+
+            for (int y = cy - 1; y <= cy + 1; y++)
+            {
+                for (int x = cx - 1; x <= cx + 1; x++)
+                {
+                    if (x == cx && y == cy || !map.contains(x, y))
+                        continue;
+
+                    float cost = currCost +
+                            AStarPathfinder.stepLength(x - cx, y - cy);
+
+                    int next = y * width + x;
+                    int value = map.getCellValueUnchecked(x, y);
+                    if (value >= AStarPathfinder.COST_LIMIT)
+                    {
+                        // В непроходимую ячейку шагнуть нельзя, но поиск может начаться в
+                        // ней, поэтому путь из нее до ориентира учитывается без продолжения.
+                        if (reverse && cost + currValue < dist[next])
+                            dist[next] = cost + currValue;
+                        continue;
+                    }
+
+                    // В обратном направлении шаг идет из (x, y) в текущую ячейку.
+                    cost += reverse ? currValue : value;
+
+                    if (cost < dist[next])
+                    {
+                        dist[next] = cost;
+                        heap.update(next, cost, 0);
+                    }
+                }
+            }
+        }
+
+        for (int i = 0; i < cells; i++)
+            table[i * count + landmark] = dist[i];
+    }
+
+    /**
+     * Оценивает стоимость пути от (x, y) до (finishX, finishY) по таблицам ориентиров. Если
+     * карта изменилась после построения таблиц, возвращает расстояние по прямой.
+     **/
+    public float estimateTravelCost(int x, int y, int finishX, int finishY)
+    {
+        float h = AStarPathfinder.estimateTravelCost(x, y, finishX, finishY);
+
+        Tables t = tables;
+        if (t.version != map.getVersion())
+            return h;
+
+        float[] from = t.fromLandmark;
+        float[] to = t.toLandmark;
+
+        int count = landmarks.size();
+        int v = (y * width + x) * count;
+        int f = (finishY * width + finishX) * count;
+
+        // Разность бесконечностей дает NaN, и такое сравнение ложно.
+        float best = 0;
+        for (int k = 0; k < count; k++)
+        {
+            float a = from[f + k] - from[v + k];
+            if (a > best)
+                best = a;
+
+            float b = to[v + k] - to[f + k];
+            if (b > best)
+                best = b;
+        }
+        return Math.max(h, best * SLACK);
+    }
+}
@@ -1,3 +1,7 @@
+import java.util.ArrayList;
+import java.util.List;
+
+
 /**
  * Этот класс представляет собой простую двумерную карту, состоящую из квадратных ячеек.
  * Каждая ячейка указывает стоимость прохождения этой ячейки.
@@ -9,10 +13,14 @@ public class Map2D {
     /** Высота карты. **/
     private int height;
 
+    /** Кодировка ячеек карты. **/
+    private CellEncoding encoding;
+
     /**
-     * Фактические данные карты, которые необходимы алгоритму поиска пути.
+     * Фактические данные карты, которые необходимы алгоритму поиска пути, в одном массиве
+     * по строкам, или <code>null</code>, если ячейки хранит подкласс.
      **/
-    private int[][] cells;
+    private CellStorage storage;
 
     /** Начальное местоположение для поиска пути A*. **/
     private Location start;
@@ -20,10 +28,42 @@ public class Map2D {
     /** Конечное местоположение для поиска пути A*. **/
     private Location finish;
 
+    /** Номер версии карты; увеличивается при каждом изменении стоимости ячейки. **/
+    private long version;
+
+    /** Слушатели изменений ячеек или <code>null</code>, если их нет. **/
+    private List<MapChangeListener> listeners;
 
-    /** Создает новую 2D-карту с указанными шириной и высотой. **/
+
+    /**
+     * Создает новую 2D-карту с указанными шириной и высотой. Ячейки хранятся как int и могут
+     * иметь любую стоимость.
+     **/
     public Map2D(int width, int height)
     {
+        this(width, height, CellEncoding.INT);
+    }
+
+    /**
+     * Создает новую 2D-карту с указанными шириной, высотой и кодировкой ячеек. Например,
+     * карта только из свободных и непроходимых ячеек в кодировке {@link CellEncoding#BIT}
+     * занимает один бит на ячейку.
+     **/
+    public Map2D(int width, int height, CellEncoding encoding)
+    {
+        this(width, height, encoding, true);
+    }
+
+    /**
+     * Создает карту указанного размера. Если <code>allocateCells</code> равен false, массив
+     * ячеек не выделяется: так делают подклассы, которые хранят ячейки сами и
+     * переопределяют {@link #readCell(int, int)} и {@link #writeCell(int, int, int)}.
+     **/
+    protected Map2D(int width, int height, CellEncoding encoding, boolean allocateCells)
+    {
+        if (encoding == null)
+            throw new NullPointerException("encoding cannot be null");
+
         if (width <= 0 || height <= 0)
         {
             throw new IllegalArgumentException(
@@ -34,7 +74,9 @@ public class Map2D {
         this.width = width;
         this.height = height;
 
-        cells = new int[width][height];
+        this.encoding = encoding;
+        if (allocateCells)
+            storage = CellStorage.create(encoding, (long) width * height);
 
         // Придумаем координаты начала и конца.
         start = new Location(0, height / 2);
@@ -49,13 +91,13 @@ public class Map2D {
      **/
     private void checkCoords(int x, int y)
     {
-        if (x < 0 || x > width)
+        if (x < 0 || x >= width)
         {
             throw new IllegalArgumentException("x must be in range [0, " +
                     width + "), got " + x);
         }
 
-        if (y < 0 || y > height)
+        if (y < 0 || y >= height)
         {
             throw new IllegalArgumentException("y must be in range [0, " +
                     height + "), got " + y);
@@ -74,6 +116,22 @@ public class Map2D {
         return height;
     }
 
+    /**
+     * Возвращает номер версии карты. Номер увеличивается при каждом изменении стоимости
+     * ячейки, поэтому по нему можно проверить, не устарел ли результат, вычисленный для карты
+     * ранее. Смена начального или конечного местоположения версию не меняет.
+     **/
+    public long getVersion()
+    {
+        return version;
+    }
+
+    /** Возвращает кодировку ячеек карты. **/
+    public CellEncoding getEncoding()
+    {
+        return encoding;
+    }
+
     /**
      * Возвращает true, если указанные координаты содержатся на карте
      * область.
@@ -90,11 +148,20 @@ public class Map2D {
         return contains(loc.xCoord, loc.yCoord);
     }
 
+    /**
+     * Возвращает хранилище ячеек для массовых операций (например, загрузки из
+     * {@link MapFile}) или <code>null</code>, если ячейки хранит подкласс.
+     **/
+    CellStorage getStorage()
+    {
+        return storage;
+    }
+
     /** Возвращает сохраненное значение стоимости для указанной ячейки. **/
     public int getCellValue(int x, int y)
     {
         checkCoords(x, y);
-        return cells[x][y];
+        return readCell(x, y);
     }
 
     /** Возвращает сохраненное значение стоимости для указанной ячейки. **/
@@ -103,11 +170,73 @@ public class Map2D {
         return getCellValue(loc.xCoord, loc.yCoord);
     }
 
-    /** Задает значение стоимости для указанной ячейки. **/
+    /**
+     * Возвращает стоимость ячейки без проверки координат. Используется алгоритмами поиска,
+     * которые уже проверили координаты через {@link #contains(int, int)}.
+     **/
+    final int getCellValueUnchecked(int x, int y)
+    {
+        return readCell(x, y);
+    }
+
+    /**
+     * Задает значение стоимости для указанной ячейки. Если значение изменилось, об этом
+     * уведомляются все зарегистрированные {@link MapChangeListener}. Если значение нельзя
+     * хранить в кодировке карты (см. {@link CellEncoding}), бросается
+     * <code>IllegalArgumentException</code>.
+     **/
     public void setCellValue(int x, int y, int value)
     {
         checkCoords(x, y);
-        cells[x][y] = value;
+        int oldValue = readCell(x, y);
+        writeCell(x, y, value);
+
+        if (oldValue != value)
+            version++;
+
+        if (listeners != null && oldValue != value)
+        {
+            for (int i = 0; i < listeners.size(); i++)
+                listeners.get(i).cellChanged(this, x, y, oldValue);
+        }
+    }
+
+    /**
+     * Читает значение ячейки из хранилища. Координаты уже проверены. Подклассы с собственным
+     * хранилищем переопределяют этот метод.
+     **/
+    protected int readCell(int x, int y)
+    {
+        return storage.get((long) y * width + x);
+    }
+
+    /**
+     * Записывает значение ячейки в хранилище. Координаты уже проверены, слушателей уведомляет
+     * {@link #setCellValue(int, int, int)}. Подклассы с собственным хранилищем
+     * переопределяют этот метод.
+     **/
+    protected void writeCell(int x, int y, int value)
+    {
+        storage.set((long) y * width + x, value);
+    }
+
+    /** Регистрирует слушателя, который будет получать уведомления об изменении ячеек. **/
+    public void addChangeListener(MapChangeListener listener)
+    {
+        if (listener == null)
+            throw new NullPointerException("listener cannot be null");
+
+        if (listeners == null)
+            listeners = new ArrayList<MapChangeListener>();
+
+        listeners.add(listener);
+    }
+
+    /** Удаляет ранее зарегистрированного слушателя изменений ячеек. **/
+    public void removeChangeListener(MapChangeListener listener)
+    {
+        if (listeners != null)
+            listeners.remove(listener);
     }
 
     /**
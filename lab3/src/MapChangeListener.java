@@ -0,0 +1,13 @@
+/**
+ * Этот интерфейс получает уведомления об изменении ячеек {@link Map2D}. Его используют
+ * структуры данных, построенные по карте, чтобы пересчитывать только затронутую часть вместо
+ * полного перестроения.
+ **/
+public interface MapChangeListener
+{
+    /**
+     * Вызывается после того, как значение стоимости ячейки (x, y) изменилось. Новое значение
+     * можно получить из карты; прежнее значение передается в <code>oldValue</code>.
+     **/
+    void cellChanged(Map2D map, int x, int y, int oldValue);
+}
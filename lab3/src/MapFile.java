@@ -0,0 +1,421 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+
+/**
+ * Этот класс читает и записывает карты {@link Map2D} в компактном двоичном формате. Файл
+ * состоит из заголовка длиной {@value #HEADER_BYTES} байт (все числа little-endian):
+ * <pre>
+ *   0  int   сигнатура "A*MP"
+ *   4  int   версия формата
+ *   8  int   ширина
+ *  12  int   высота
+ *  16  int   бит на ячейку ({@link CellEncoding})
+ *  20  int   флаги ({@link #FLAG_RLE})
+ *  24  int   X и Y начального местоположения
+ *  32  int   X и Y конечного местоположения
+ * </pre>
+ * и тела. Без сжатия тело — поток байт хранилища карты (см. {@link CellStorage}): ячейки по
+ * строкам в закодированном виде. Со сжатием RLE тело — последовательность серий: длина серии
+ * (беззнаковое число переменной длины, по 7 бит в байте) и хранимое значение (1, 1, 2 или 4
+ * байта для BIT, BYTE, SHORT и INT).
+ * <p>
+ * Чтение и запись идут через каналы NIO блоками по {@value #BUFFER_BYTES} байт. Несжатое тело
+ * копируется в массив карты целыми блоками, а серии RLE заполняют диапазоны ячеек, так что
+ * загрузка не вызывает {@link Map2D#setCellValue(int, int, int)} для каждой ячейки.
+ **/
+public class MapFile
+{
+    /** Сигнатура файла карты. **/
+    private static final int MAGIC = 0x504D2A41;   // "A*MP"
+
+    /** Версия формата файла. **/
+    private static final int VERSION = 1;
+
+    /** Размер заголовка в байтах. **/
+    public static final int HEADER_BYTES = 40;
+
+    /** Флаг заголовка: тело сжато кодированием длин серий. **/
+    public static final int FLAG_RLE = 1;
+
+    /** Размер буфера ввода-вывода. **/
+    private static final int BUFFER_BYTES = 1 << 20;
+
+    /** Наибольший размер одной серии RLE в байтах: длина (до 10 байт) и значение. **/
+    private static final int MAX_RUN_BYTES = 10 + 4;
+
+    /** Класс содержит только статические методы. **/
+    private MapFile()
+    {
+    }
+
+    /** Записывает карту в файл, при <code>compress</code> сжимая тело RLE. **/
+    public static void write(Map2D map, File path, boolean compress) throws IOException
+    {
+        if (path == null)
+            throw new NullPointerException("path cannot be null");
+
+        FileOutputStream out = new FileOutputStream(path);
+        try
+        {
+            write(map, out.getChannel(), compress);
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /** Записывает карту в канал, при <code>compress</code> сжимая тело RLE. **/
+    public static void write(Map2D map, WritableByteChannel channel, boolean compress)
+            throws IOException
+    {
+        if (map == null)
+            throw new NullPointerException("map cannot be null");
+
+        CellEncoding encoding = map.getEncoding();
+        ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+        buf.putInt(MAGIC);
+        buf.putInt(VERSION);
+        buf.putInt(map.getWidth());
+        buf.putInt(map.getHeight());
+        buf.putInt(encoding.getBits());
+        buf.putInt(compress ? FLAG_RLE : 0);
+        buf.putInt(map.getStart().xCoord);
+        buf.putInt(map.getStart().yCoord);
+        buf.putInt(map.getFinish().xCoord);
+        buf.putInt(map.getFinish().yCoord);
+
+        CellStorage storage = map.getStorage();
+        if (compress)
+            writeRuns(map, storage, channel, buf);
+        else if (storage != null)
+            writeRaw(storage, channel, buf);
+        else
+            writeRawByCell(map, channel, buf);
+
+        flush(channel, buf);
+    }
+
+    /** Записывает несжатое тело блоками прямо из хранилища карты. **/
+    private static void writeRaw(CellStorage storage, WritableByteChannel channel,
+                                 ByteBuffer buf) throws IOException
+    {
+        long total = storage.byteSize();
+        long offset = 0;
+        while (offset < total)
+        {
+            int n = storage.writeBytes(buf, offset);
+            offset += n;
+            if (n == 0 || !buf.hasRemaining())
+                flush(channel, buf);
+        }
+    }
+
+    /**
+     * Записывает несжатое тело по ячейкам для карт без собственного хранилища (например,
+     * {@link MappedMap2D}).
+     **/
+    private static void writeRawByCell(Map2D map, WritableByteChannel channel, ByteBuffer buf)
+            throws IOException
+    {
+        CellEncoding encoding = map.getEncoding();
+        int bits = encoding.getBits();
+        int pending = 0;
+        int pendingBits = 0;
+
+        for (int y = 0; y < map.getHeight(); y++)
+        {
+            for (int x = 0; x < map.getWidth(); x++)
+            {
+                int raw = encoding.encode(map.getCellValue(x, y));
+                if (buf.remaining() < 4)
+                    flush(channel, buf);
+
+                if (bits == 1)
+                {
+                    pending |= raw << pendingBits;
+                    if (++pendingBits == 8)
+                    {
+                        buf.put((byte) pending);
+                        pending = 0;
+                        pendingBits = 0;
+                    }
+                }
+                else
+                {
+                    putRaw(buf, raw, bits);
+                }
+            }
+        }
+
+        if (pendingBits > 0)
+        {
+            if (!buf.hasRemaining())
+                flush(channel, buf);
+            buf.put((byte) pending);
+        }
+    }
+
+    /** Записывает тело, сжатое RLE. **/
+    private static void writeRuns(Map2D map, CellStorage storage, WritableByteChannel channel,
+                                  ByteBuffer buf) throws IOException
+    {
+        CellEncoding encoding = map.getEncoding();
+        int bits = encoding.getBits();
+        int width = map.getWidth();
+        long size = (long) width * map.getHeight();
+
+        long runStart = 0;
+        int runValue = rawAt(map, storage, 0);
+        for (long i = 1; i <= size; i++)
+        {
+            int raw = i < size ? rawAt(map, storage, i) : ~runValue;
+            if (raw == runValue)
+                continue;
+
+            if (buf.remaining() < MAX_RUN_BYTES)
+                flush(channel, buf);
+
+            putVarLong(buf, i - runStart);
+            putRaw(buf, runValue, Math.max(bits, 8));
+
+            runStart = i;
+            runValue = raw;
+        }
+    }
+
+    /** Хранимое значение ячейки с указанным номером. **/
+    private static int rawAt(Map2D map, CellStorage storage, long index)
+    {
+        if (storage != null)
+            return storage.getRaw(index);
+
+        int width = map.getWidth();
+        return map.getEncoding().encode(map.getCellValue((int) (index % width),
+                (int) (index / width)));
+    }
+
+    /**
+     * Читает карту из файла. Карта создается в памяти с кодировкой, указанной в файле.
+     **/
+    public static Map2D read(File path) throws IOException
+    {
+        if (path == null)
+            throw new NullPointerException("path cannot be null");
+
+        FileInputStream in = new FileInputStream(path);
+        try
+        {
+            FileChannel channel = in.getChannel();
+            return read(channel);
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Читает карту из канала. Если файл поврежден, в том числе если размер карты в заголовке
+     * недопустим для ее кодировки, бросается <code>IOException</code>.
+     **/
+    public static Map2D read(ReadableByteChannel channel) throws IOException
+    {
+        ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+        fill(channel, buf, HEADER_BYTES);
+        buf.flip();
+        if (buf.remaining() < HEADER_BYTES || buf.getInt() != MAGIC)
+            throw new IOException("not a map file");
+        if (buf.getInt() != VERSION)
+            throw new IOException("unsupported map file version");
+
+        int width = buf.getInt();
+        int height = buf.getInt();
+        CellEncoding encoding = encodingFor(buf.getInt());
+        int flags = buf.getInt();
+        Location start = new Location(buf.getInt(), buf.getInt());
+        Location finish = new Location(buf.getInt(), buf.getInt());
+
+        if (encoding == null)
+            throw new IOException("unsupported cell encoding");
+        if (width <= 0 || height <= 0)
+            throw new IOException("invalid map size: " + width + "x" + height);
+
+        // Размер из поврежденного заголовка может не поместиться в выбранную кодировку.
+        Map2D map;
+        try
+        {
+            map = new Map2D(width, height, encoding);
+        }
+        catch (IllegalArgumentException e)
+        {
+            throw new IOException("invalid map size: " + width + "x" + height, e);
+        }
+        CellStorage storage = map.getStorage();
+
+        if ((flags & FLAG_RLE) != 0)
+            readRuns(storage, channel, buf);
+        else
+            readRaw(storage, channel, buf);
+
+        if (!map.contains(start) || !map.contains(finish))
+            throw new IOException("start or finish is outside the map");
+
+        map.setStart(start);
+        map.setFinish(finish);
+        return map;
+    }
+
+    /** Читает несжатое тело блоками прямо в хранилище карты. **/
+    private static void readRaw(CellStorage storage, ReadableByteChannel channel,
+                                ByteBuffer buf) throws IOException
+    {
+        long total = storage.byteSize();
+        long offset = 0;
+        boolean eof = false;
+        while (true)
+        {
+            offset += storage.readBytes(buf, offset);
+            if (offset == total)
+                break;
+            if (eof)
+                throw new IOException("unexpected end of map file");
+
+            buf.compact();
+            eof = fill(channel, buf, buf.capacity()) < 0;
+            buf.flip();
+        }
+    }
+
+    /** Читает тело, сжатое RLE, заполняя хранилище сериями. **/
+    private static void readRuns(CellStorage storage, ReadableByteChannel channel,
+                                 ByteBuffer buf) throws IOException
+    {
+        int bits = Math.max(storage.encoding.getBits(), 8);
+        int blocked = storage.encoding.blockedRaw();
+        long size = storage.size;
+        long index = 0;
+        boolean eof = false;
+
+        while (index < size)
+        {
+            if (buf.remaining() < MAX_RUN_BYTES && !eof)
+            {
+                buf.compact();
+                eof = fill(channel, buf, buf.capacity()) < 0;
+                buf.flip();
+            }
+            if (!buf.hasRemaining())
+                throw new IOException("unexpected end of map file");
+
+            long length = getVarLong(buf);
+            int raw = getRaw(buf, bits);
+
+            if (length <= 0 || length > size - index)
+                throw new IOException("corrupt run length " + length + " at cell " + index);
+            if (storage.encoding != CellEncoding.INT && (raw < 0 || raw > blocked))
+                throw new IOException("corrupt cell value " + raw + " at cell " + index);
+
+            storage.fillRaw(index, index + length, raw);
+            index += length;
+        }
+    }
+
+    /** Кодировка с указанным количеством бит на ячейку или <code>null</code>. **/
+    private static CellEncoding encodingFor(int bits)
+    {
+        CellEncoding[] all = CellEncoding.values();
+        for (int i = 0; i < all.length; i++)
+        {
+            if (all[i].getBits() == bits)
+                return all[i];
+        }
+        return null;
+    }
+
+    /** Записывает хранимое значение размером 8, 16 или 32 бита. **/
+    private static void putRaw(ByteBuffer buf, int raw, int bits)
+    {
+        if (bits == 8)
+            buf.put((byte) raw);
+        else if (bits == 16)
+            buf.putShort((short) raw);
+        else
+            buf.putInt(raw);
+    }
+
+    /** Читает хранимое значение размером 8, 16 или 32 бита. **/
+    private static int getRaw(ByteBuffer buf, int bits) throws IOException
+    {
+        if (buf.remaining() < bits / 8)
+            throw new IOException("unexpected end of map file");
+
+        if (bits == 8)
+            return buf.get() & 0xFF;
+        if (bits == 16)
+            return buf.getShort() & 0xFFFF;
+        return buf.getInt();
+    }
+
+    /** Записывает беззнаковое число переменной длины, по 7 бит в байте. **/
+    private static void putVarLong(ByteBuffer buf, long value)
+    {
+        while ((value & ~0x7FL) != 0)
+        {
+            buf.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buf.put((byte) value);
+    }
+
+    /** Читает беззнаковое число переменной длины. **/
+    private static long getVarLong(ByteBuffer buf) throws IOException
+    {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7)
+        {
+            if (!buf.hasRemaining())
+                throw new IOException("unexpected end of map file");
+
+            byte b = buf.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+        }
+        throw new IOException("corrupt run length");
+    }
+
+    /**
+     * Читает из канала, пока в буфере не окажется не меньше <code>min</code> байт (или пока
+     * буфер не заполнится). Возвращает -1, если канал закончился раньше.
+     **/
+    private static int fill(ReadableByteChannel channel, ByteBuffer buf, int min)
+            throws IOException
+    {
+        while (buf.position() < min && buf.hasRemaining())
+        {
+            if (channel.read(buf) < 0)
+                return -1;
+        }
+        return buf.position();
+    }
+
+    /** Записывает содержимое буфера в канал и очищает буфер. **/
+    private static void flush(WritableByteChannel channel, ByteBuffer buf) throws IOException
+    {
+        buf.flip();
+        while (buf.hasRemaining())
+            channel.write(buf);
+        buf.clear();
+    }
+}
@@ -0,0 +1,224 @@
+import java.util.Random;
+
+
+/**
+ * Этот класс содержит генераторы карт для тестов производительности. Все генераторы
+ * детерминированы: при одинаковых размерах и начальном значении генератора случайных чисел
+ * они строят одну и ту же карту {@link Map2D} при каждом запуске. Начальное местоположение
+ * размещается в левом верхнем углу карты, конечное — в правом нижнем; обе ячейки всегда
+ * проходимы.
+ **/
+public class MapGenerators
+{
+    /** Имена моделей препятствий, которые понимает {@link #generate(String, int, int, long)}. **/
+    public static final String[] MODELS = { "noise", "maze", "rooms", "open" };
+
+    /** Генераторы содержат только статические методы. **/
+    private MapGenerators()
+    {
+    }
+
+    /**
+     * Строит карту указанной модели: <code>"noise"</code>, <code>"maze"</code>,
+     * <code>"rooms"</code> или <code>"open"</code>.
+     **/
+    public static Map2D generate(String model, int width, int height, long seed)
+    {
+        if (model == null)
+            throw new NullPointerException("model cannot be null");
+
+        if (model.equals("noise"))
+            return noise(width, height, seed, 0.3);
+        if (model.equals("maze"))
+            return maze(width, height, seed);
+        if (model.equals("rooms"))
+            return rooms(width, height, seed, 16);
+        if (model.equals("open"))
+            return open(width, height, seed);
+
+        throw new IllegalArgumentException("unknown map model: " + model);
+    }
+
+    /**
+     * Случайный шум: каждая ячейка непроходима с вероятностью <code>density</code>, а
+     * проходимые ячейки получают случайную стоимость от 0 до 4.
+     **/
+    public static Map2D noise(int width, int height, long seed, double density)
+    {
+        if (density < 0 || density > 1)
+        {
+            throw new IllegalArgumentException("density must be in range [0, 1], got " +
+                    density);
+        }
+
+        Map2D map = new Map2D(width, height);
+        Random random = new Random(seed);
+
+        for (int y = 0; y < height; y++)
+        {
+            for (int x = 0; x < width; x++)
+            {
+                if (random.nextDouble() < density)
+                    map.setCellValue(x, y, CellEncoding.BLOCKED);
+                else
+                    map.setCellValue(x, y, random.nextInt(5));
+            }
+        }
+
+        placeEndpoints(map, 0, 0, width - 1, height - 1);
+        return map;
+    }
+
+    /**
+     * Лабиринт, построенный поиском в глубину с возвратом: проходы имеют ширину в одну
+     * ячейку и лежат на нечетных координатах, между любыми двумя проходами ровно один путь.
+     **/
+    public static Map2D maze(int width, int height, long seed)
+    {
+        if (width < 3 || height < 3)
+        {
+            throw new IllegalArgumentException("maze must be at least 3x3, got " + width +
+                    "x" + height);
+        }
+
+        Map2D map = new Map2D(width, height);
+        for (int y = 0; y < height; y++)
+        {
+            for (int x = 0; x < width; x++)
+                map.setCellValue(x, y, CellEncoding.BLOCKED);
+        }
+
+        // Узлы лабиринта — ячейки с нечетными координатами.
+        int cols = (width - 1) / 2;
+        int rows = (height - 1) / 2;
+        boolean[] visited = new boolean[cols * rows];
+        int[] stack = new int[cols * rows];
+        int top = 0;
+
+        int[] dx = { 1, -1, 0, 0 };
+        int[] dy = { 0, 0, 1, -1 };
+        int[] candidates = new int[4];
+        Random random = new Random(seed);
+
+        visited[0] = true;
+        stack[top++] = 0;
+        map.setCellValue(1, 1, 0);
+
+        while (top > 0)
+        {
+            int node = stack[top - 1];
+            int cx = node % cols;
+            int cy = node / cols;
+
+            int n = 0;
+            for (int d = 0; d < 4; d++)
+            {
+                int nx = cx + dx[d];
+                int ny = cy + dy[d];
+                if (nx >= 0 && ny >= 0 && nx < cols && ny < rows && !visited[ny * cols + nx])
+                    candidates[n++] = d;
+            }
+
+            if (n == 0)
+            {
+                top--;
+                continue;
+            }
+
+            int d = candidates[random.nextInt(n)];
+            int nx = cx + dx[d];
+            int ny = cy + dy[d];
+
+            // Пробиваем стену между узлами и сам соседний узел.
+            map.setCellValue(2 * cx + 1 + dx[d], 2 * cy + 1 + dy[d], 0);
+            map.setCellValue(2 * nx + 1, 2 * ny + 1, 0);
+
+            visited[ny * cols + nx] = true;
+            stack[top++] = ny * cols + nx;
+        }
+
+        placeEndpoints(map, 1, 1, 2 * cols - 1, 2 * rows - 1);
+        return map;
+    }
+
+    /**
+     * Комнаты: карта разбита стенами на квадратные комнаты со стороной
+     * <code>roomSize</code>, а в каждой стене между соседними комнатами есть одна дверь в
+     * случайном месте, поэтому путь петляет от двери к двери.
+     **/
+    public static Map2D rooms(int width, int height, long seed, int roomSize)
+    {
+        if (roomSize < 3)
+            throw new IllegalArgumentException("roomSize must be at least 3, got " + roomSize);
+
+        Map2D map = new Map2D(width, height);
+        Random random = new Random(seed);
+
+        for (int y = 0; y < height; y++)
+        {
+            for (int x = 0; x < width; x++)
+            {
+                if (x % roomSize == 0 || y % roomSize == 0)
+                    map.setCellValue(x, y, CellEncoding.BLOCKED);
+            }
+        }
+
+        // Двери в вертикальных стенах.
+        for (int wx = roomSize; wx < width; wx += roomSize)
+        {
+            for (int ry = 0; ry < height; ry += roomSize)
+            {
+                int y = ry + 1 + random.nextInt(roomSize - 1);
+                if (y < height)
+                    map.setCellValue(wx, y, 0);
+            }
+        }
+
+        // Двери в горизонтальных стенах.
+        for (int wy = roomSize; wy < height; wy += roomSize)
+        {
+            for (int rx = 0; rx < width; rx += roomSize)
+            {
+                int x = rx + 1 + random.nextInt(roomSize - 1);
+                if (x < width)
+                    map.setCellValue(x, wy, 0);
+            }
+        }
+
+        placeEndpoints(map, 1, 1, width - 2, height - 2);
+        return map;
+    }
+
+    /**
+     * Открытое поле с одинаковой стоимостью всех проходимых ячеек и редкими одиночными
+     * препятствиями (около 5% ячеек). На такой карте работает поиск с точками прыжка
+     * ({@link JumpPointSearch}), а у обычного A* много равноценных путей.
+     **/
+    public static Map2D open(int width, int height, long seed)
+    {
+        Map2D map = new Map2D(width, height);
+        Random random = new Random(seed);
+
+        for (int y = 0; y < height; y++)
+        {
+            for (int x = 0; x < width; x++)
+            {
+                if (random.nextInt(20) == 0)
+                    map.setCellValue(x, y, CellEncoding.BLOCKED);
+            }
+        }
+
+        placeEndpoints(map, 0, 0, width - 1, height - 1);
+        return map;
+    }
+
+    /** Устанавливает начальное и конечное местоположения и делает их проходимыми. **/
+    private static void placeEndpoints(Map2D map, int startX, int startY,
+                                       int finishX, int finishY)
+    {
+        map.setCellValue(startX, startY, 0);
+        map.setCellValue(finishX, finishY, 0);
+        map.setStart(new Location(startX, startY));
+        map.setFinish(new Location(finishX, finishY));
+    }
+}
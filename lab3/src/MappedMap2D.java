@@ -0,0 +1,398 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+/**
+ * Этот класс представляет карту {@link Map2D}, ячейки которой хранятся в файле и отображаются
+ * в память через {@link FileChannel#map}. Карта не занимает кучу Java: операционная система
+ * подгружает страницы файла при первом обращении и вытесняет их при нехватке памяти, поэтому
+ * карта может быть намного больше оперативной памяти.
+ * <p>
+ * Ячейки хранятся плитками {@value #TILE}×{@value #TILE} в выбранной кодировке
+ * ({@link CellEncoding}), плитки идут по строкам. Соседние
+ * ячейки карты, которые перебирает поиск пути, почти всегда лежат в одной плитке, то есть
+ * на одних и тех же страницах памяти. Файл отображается сегментами по
+ * {@value #SEGMENT_BYTES} байт, и каждый сегмент отображается только при первом обращении к
+ * нему.
+ * <p>
+ * Новый файл создается разреженным и заполнен нулями, то есть все ячейки проходимы и имеют
+ * стоимость 0. Файл начинается с заголовка, в котором хранятся размеры карты, начальное и
+ * конечное местоположения. Чтение ячеек безопасно из нескольких потоков; запись должна
+ * выполняться из одного потока, так как в кодировке {@link CellEncoding#BIT} соседние ячейки
+ * делят один байт.
+ **/
+public class MappedMap2D extends Map2D implements Closeable
+{
+    /** Сигнатура файла карты. **/
+    private static final int MAGIC = 0x4D324D50;   // "M2MP"
+
+    /** Версия формата файла. Версия 1 не хранит кодировку и всегда использует INT. **/
+    private static final int VERSION = 2;
+
+    /** Размер заголовка файла в байтах. **/
+    private static final int HEADER_BYTES = 64;
+
+    /** Сторона плитки в ячейках. **/
+    public static final int TILE = 64;
+
+    /** Логарифм {@link #TILE} по основанию 2. **/
+    private static final int TILE_SHIFT = 6;
+
+    /** Логарифм {@link #SEGMENT_BYTES} по основанию 2. **/
+    private static final int SEGMENT_SHIFT = 26;
+
+    /** Размер отображаемого сегмента в байтах (кратен размеру плитки). **/
+    public static final int SEGMENT_BYTES = 1 << SEGMENT_SHIFT;
+
+    /** Файл карты. **/
+    private final RandomAccessFile file;
+
+    /** Канал файла карты. **/
+    private final FileChannel channel;
+
+    /** Режим отображения: чтение и запись или только чтение. **/
+    private final FileChannel.MapMode mode;
+
+    /** Количество бит на ячейку. **/
+    private final int bits;
+
+    /** Размер плитки в байтах. **/
+    private final int tileBytes;
+
+    /** Количество плиток по горизонтали. **/
+    private final int tilesAcross;
+
+    /** Размер области ячеек в байтах. **/
+    private final long dataBytes;
+
+    /** Отображенные сегменты; элемент равен <code>null</code>, пока сегмент не нужен. **/
+    private final AtomicReferenceArray<MappedByteBuffer> segments;
+
+    /** Отображение заголовка файла. **/
+    private final MappedByteBuffer header;
+
+    /** True, если карта закрыта. **/
+    private volatile boolean closed;
+
+    /** Открывает отображение файла карты, заголовок которого уже проверен или записан. **/
+    private MappedMap2D(RandomAccessFile file, int width, int height, CellEncoding encoding,
+                        boolean readOnly) throws IOException
+    {
+        super(width, height, encoding, false);
+
+        this.file = file;
+        channel = file.getChannel();
+        mode = readOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE;
+
+        bits = encoding.getBits();
+        tileBytes = tileBytes(encoding);
+        tilesAcross = tilesFor(width);
+        dataBytes = dataBytes(width, height, encoding);
+
+        long segmentCount = (dataBytes + SEGMENT_BYTES - 1) >>> SEGMENT_SHIFT;
+        segments = new AtomicReferenceArray<MappedByteBuffer>((int) segmentCount);
+
+        header = channel.map(mode, 0, HEADER_BYTES);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+
+        super.setStart(new Location(header.getInt(20), header.getInt(24)));
+        super.setFinish(new Location(header.getInt(28), header.getInt(32)));
+    }
+
+    /**
+     * Создает новый файл карты указанного размера с ячейками int (или перезаписывает
+     * существующий) и открывает его для чтения и записи.
+     **/
+    public static MappedMap2D create(File path, int width, int height) throws IOException
+    {
+        return create(path, width, height, CellEncoding.INT);
+    }
+
+    /**
+     * Создает новый файл карты указанного размера и кодировки (или перезаписывает
+     * существующий) и открывает его для чтения и записи. Файл создается разреженным, поэтому
+     * место на диске занимают только те плитки, в которые что-то записано.
+     **/
+    public static MappedMap2D create(File path, int width, int height, CellEncoding encoding)
+            throws IOException
+    {
+        if (path == null)
+            throw new NullPointerException("path cannot be null");
+
+        if (encoding == null)
+            throw new NullPointerException("encoding cannot be null");
+
+        if (width <= 0 || height <= 0)
+        {
+            throw new IllegalArgumentException(
+                    "width and height must be positive values; got " + width +
+                            "x" + height);
+        }
+
+        RandomAccessFile file = new RandomAccessFile(path, "rw");
+        try
+        {
+            file.setLength(0);
+            file.setLength(HEADER_BYTES + dataBytes(width, height, encoding));
+
+            ByteBuffer buf = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            buf.putInt(0, MAGIC);
+            buf.putInt(4, VERSION);
+            buf.putInt(8, width);
+            buf.putInt(12, height);
+            buf.putInt(16, TILE);
+            // Начало и конец по умолчанию такие же, как у Map2D.
+            buf.putInt(20, 0);
+            buf.putInt(24, height / 2);
+            buf.putInt(28, width - 1);
+            buf.putInt(32, height / 2);
+            buf.putInt(36, encoding.getBits());
+
+            file.getChannel().write(buf, 0);
+            return new MappedMap2D(file, width, height, encoding, false);
+        }
+        catch (IOException e)
+        {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Открывает существующий файл карты. Если <code>readOnly</code>, файл отображается
+     * только для чтения, и {@link #setCellValue(int, int, int)} бросает исключение.
+     **/
+    public static MappedMap2D open(File path, boolean readOnly) throws IOException
+    {
+        if (path == null)
+            throw new NullPointerException("path cannot be null");
+
+        RandomAccessFile file = new RandomAccessFile(path, readOnly ? "r" : "rw");
+        try
+        {
+            ByteBuffer buf = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            if (file.getChannel().read(buf, 0) != HEADER_BYTES || buf.getInt(0) != MAGIC)
+                throw new IOException("not a map file: " + path);
+
+            int version = buf.getInt(4);
+            if ((version != 1 && version != VERSION) || buf.getInt(16) != TILE)
+                throw new IOException("unsupported map file version: " + path);
+
+            CellEncoding encoding = CellEncoding.INT;
+            if (version > 1)
+            {
+                encoding = encodingFor(buf.getInt(36));
+                if (encoding == null)
+                    throw new IOException("unsupported cell encoding in " + path);
+            }
+
+            int width = buf.getInt(8);
+            int height = buf.getInt(12);
+            if (width <= 0 || height <= 0 ||
+                    file.length() < HEADER_BYTES + dataBytes(width, height, encoding))
+            {
+                throw new IOException("map file is truncated or corrupt: " + path);
+            }
+
+            return new MappedMap2D(file, width, height, encoding, readOnly);
+        }
+        catch (IOException e)
+        {
+            file.close();
+            throw e;
+        }
+    }
+
+    /** Количество плиток, покрывающих указанное количество ячеек. **/
+    private static int tilesFor(int cells)
+    {
+        return (cells + TILE - 1) >>> TILE_SHIFT;
+    }
+
+    /** Кодировка с указанным количеством бит на ячейку или <code>null</code>. **/
+    private static CellEncoding encodingFor(int bits)
+    {
+        CellEncoding[] all = CellEncoding.values();
+        for (int i = 0; i < all.length; i++)
+        {
+            if (all[i].getBits() == bits)
+                return all[i];
+        }
+        return null;
+    }
+
+    /** Размер плитки в байтах для указанной кодировки (делит размер сегмента). **/
+    private static int tileBytes(CellEncoding encoding)
+    {
+        return TILE * TILE * encoding.getBits() / 8;
+    }
+
+    /** Размер области ячеек в байтах для карты указанного размера. **/
+    private static long dataBytes(int width, int height, CellEncoding encoding)
+    {
+        return (long) tilesFor(width) * tilesFor(height) * tileBytes(encoding);
+    }
+
+    /** Смещение ячейки от начала области ячеек в битах. **/
+    private long bitOffsetOf(int x, int y)
+    {
+        long tile = (long) (y >>> TILE_SHIFT) * tilesAcross + (x >>> TILE_SHIFT);
+        int inTile = ((y & (TILE - 1)) << TILE_SHIFT) | (x & (TILE - 1));
+        return (tile * tileBytes << 3) + (long) inTile * bits;
+    }
+
+    /** Возвращает сегмент с указанным номером, отображая его при первом обращении. **/
+    private MappedByteBuffer segment(int index)
+    {
+        MappedByteBuffer buffer = segments.get(index);
+        if (buffer == null)
+            buffer = mapSegment(index);
+        return buffer;
+    }
+
+    /** Отображает сегмент с указанным номером. **/
+    private synchronized MappedByteBuffer mapSegment(int index)
+    {
+        if (closed)
+            throw new IllegalStateException("map is closed");
+
+        MappedByteBuffer buffer = segments.get(index);
+        if (buffer != null)
+            return buffer;
+
+        long position = (long) index << SEGMENT_SHIFT;
+        long size = Math.min(SEGMENT_BYTES, dataBytes - position);
+        try
+        {
+            buffer = channel.map(mode, HEADER_BYTES + position, size);
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("cannot map segment " + index, e);
+        }
+
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        segments.set(index, buffer);
+        return buffer;
+    }
+
+    /** Читает значение ячейки из отображенного файла. **/
+    protected int readCell(int x, int y)
+    {
+        long bitOffset = bitOffsetOf(x, y);
+        long offset = bitOffset >>> 3;
+        MappedByteBuffer buffer = segment((int) (offset >>> SEGMENT_SHIFT));
+        int pos = (int) (offset & (SEGMENT_BYTES - 1));
+
+        int raw;
+        switch (bits)
+        {
+            case 1:
+                raw = (buffer.get(pos) >>> (int) (bitOffset & 7)) & 1;
+                break;
+            case 8:
+                raw = buffer.get(pos) & 0xFF;
+                break;
+            case 16:
+                raw = buffer.getShort(pos) & 0xFFFF;
+                break;
+            default:
+                raw = buffer.getInt(pos);
+                break;
+        }
+        return getEncoding().decode(raw);
+    }
+
+    /** Записывает значение ячейки в отображенный файл. **/
+    protected void writeCell(int x, int y, int value)
+    {
+        if (mode == FileChannel.MapMode.READ_ONLY)
+            throw new UnsupportedOperationException("map is opened read-only");
+
+        int raw = getEncoding().encode(value);
+
+        long bitOffset = bitOffsetOf(x, y);
+        long offset = bitOffset >>> 3;
+        MappedByteBuffer buffer = segment((int) (offset >>> SEGMENT_SHIFT));
+        int pos = (int) (offset & (SEGMENT_BYTES - 1));
+
+        switch (bits)
+        {
+            case 1:
+                int mask = 1 << (int) (bitOffset & 7);
+                int b = buffer.get(pos);
+                buffer.put(pos, (byte) (raw != 0 ? b | mask : b & ~mask));
+                break;
+            case 8:
+                buffer.put(pos, (byte) raw);
+                break;
+            case 16:
+                buffer.putShort(pos, (short) raw);
+                break;
+            default:
+                buffer.putInt(pos, raw);
+                break;
+        }
+    }
+
+    /** Устанавливает начальное местоположение и сохраняет его в заголовке файла. **/
+    public void setStart(Location loc)
+    {
+        super.setStart(loc);
+        if (mode != FileChannel.MapMode.READ_ONLY)
+        {
+            header.putInt(20, loc.xCoord);
+            header.putInt(24, loc.yCoord);
+        }
+    }
+
+    /** Устанавливает конечное местоположение и сохраняет его в заголовке файла. **/
+    public void setFinish(Location loc)
+    {
+        super.setFinish(loc);
+        if (mode != FileChannel.MapMode.READ_ONLY)
+        {
+            header.putInt(28, loc.xCoord);
+            header.putInt(32, loc.yCoord);
+        }
+    }
+
+    /** Записывает измененные страницы всех отображенных сегментов на диск. **/
+    public void flush()
+    {
+        if (mode == FileChannel.MapMode.READ_ONLY)
+            return;
+
+        header.force();
+        for (int i = 0; i < segments.length(); i++)
+        {
+            MappedByteBuffer buffer = segments.get(i);
+            if (buffer != null)
+                buffer.force();
+        }
+    }
+
+    /**
+     * Записывает изменения на диск и закрывает файл. Отображения освобождаются сборщиком
+     * мусора; обращаться к ячейкам закрытой карты нельзя.
+     **/
+    public synchronized void close() throws IOException
+    {
+        if (closed)
+            return;
+
+        flush();
+        closed = true;
+        for (int i = 0; i < segments.length(); i++)
+            segments.set(i, null);
+
+        file.close();
+    }
+}
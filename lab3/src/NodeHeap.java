@@ -0,0 +1,215 @@
+/**
+ * Этот класс представляет собой индексированную двоичную мин-кучу целочисленных вершин
+ * (обычно индексов ячеек карты <code>y * width + x</code>). Каждая вершина хранит основной ключ
+ * и дополнительный ключ, который разрешает равенство основных ключей: при равных ключах раньше
+ * извлекается вершина с меньшим дополнительным ключом.
+ * Куча не создает объектов при работе, а очистка выполняется за O(1): позиция вершины
+ * считается действительной, только если она указывает на эту же вершину внутри кучи.
+ **/
+public class NodeHeap
+{
+    /** Вершины в порядке кучи; корень находится в нулевой ячейке. **/
+    private int[] nodes;
+
+    /** Основные ключи, параллельные массиву {@link #nodes}. **/
+    private float[] keys;
+
+    /** Дополнительные ключи, параллельные массиву {@link #nodes}. **/
+    private float[] ties;
+
+    /** Позиция каждой вершины в куче; действительна только при совпадении с {@link #nodes}. **/
+    private int[] positions;
+
+    /** Количество вершин в куче. **/
+    private int size;
+
+    /** Создает пустую кучу для вершин в диапазоне [0, capacity). **/
+    public NodeHeap(int capacity)
+    {
+        if (capacity < 0)
+            throw new IllegalArgumentException("capacity must be >= 0; got " + capacity);
+
+        nodes = new int[capacity];
+        keys = new float[capacity];
+        ties = new float[capacity];
+        positions = new int[capacity];
+    }
+
+    /** Возвращает максимальное количество различных вершин в куче. **/
+    public int capacity()
+    {
+        return nodes.length;
+    }
+
+    /** Возвращает количество вершин в куче. **/
+    public int size()
+    {
+        return size;
+    }
+
+    /** Возвращает true, если куча пуста. **/
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    /** Удаляет все вершины из кучи за O(1). **/
+    public void clear()
+    {
+        size = 0;
+    }
+
+    /** Возвращает true, если указанная вершина находится в куче. **/
+    public boolean contains(int node)
+    {
+        int i = positions[node];
+        return i >= 0 && i < size && nodes[i] == node;
+    }
+
+    /**
+     * Добавляет вершину с указанными ключами или, если она уже в куче, изменяет её ключи
+     * (в любую сторону) и восстанавливает порядок кучи.
+     **/
+    public void update(int node, float key, float tie)
+    {
+        int i;
+        if (contains(node))
+        {
+            i = positions[node];
+        }
+        else
+        {
+            i = size++;
+            nodes[i] = node;
+            positions[node] = i;
+        }
+
+        keys[i] = key;
+        ties[i] = tie;
+
+        siftDown(siftUp(i));
+    }
+
+    /** Возвращает вершину с минимальным ключом, не удаляя её, или -1, если куча пуста. **/
+    public int peek()
+    {
+        return size == 0 ? -1 : nodes[0];
+    }
+
+    /** Возвращает минимальный основной ключ. Куча не должна быть пустой. **/
+    public float peekKey()
+    {
+        return keys[0];
+    }
+
+    /** Возвращает дополнительный ключ вершины с минимальным ключом. Куча не должна быть пустой. **/
+    public float peekTie()
+    {
+        return ties[0];
+    }
+
+    /** Возвращает основной ключ вершины, находящейся в куче. **/
+    public float getKey(int node)
+    {
+        return keys[positions[node]];
+    }
+
+    /** Удаляет и возвращает вершину с минимальным ключом или -1, если куча пуста. **/
+    public int poll()
+    {
+        if (size == 0)
+            return -1;
+
+        int min = nodes[0];
+        removeAt(0);
+        return min;
+    }
+
+    /** Удаляет указанную вершину из кучи. Возвращает false, если её там не было. **/
+    public boolean remove(int node)
+    {
+        if (!contains(node))
+            return false;
+
+        removeAt(positions[node]);
+        return true;
+    }
+
+    /** Удаляет элемент кучи с индексом i, перемещая на его место последний элемент. **/
+    private void removeAt(int i)
+    {
+        int removed = nodes[i];
+        size--;
+
+        if (i != size)
+        {
+            nodes[i] = nodes[size];
+            keys[i] = keys[size];
+            ties[i] = ties[size];
+            positions[nodes[i]] = i;
+            siftDown(siftUp(i));
+        }
+
+        // Делаем позицию удаленной вершины недействительной даже для повторно
+        // использованной ячейки кучи.
+        positions[removed] = -1;
+    }
+
+    /** Возвращает true, если элемент a должен извлекаться раньше элемента b. **/
+    private boolean less(int a, int b)
+    {
+        if (keys[a] != keys[b])
+            return keys[a] < keys[b];
+        return ties[a] < ties[b];
+    }
+
+    /** Меняет местами два элемента кучи. **/
+    private void swap(int a, int b)
+    {
+        int n = nodes[a];
+        nodes[a] = nodes[b];
+        nodes[b] = n;
+
+        float k = keys[a];
+        keys[a] = keys[b];
+        keys[b] = k;
+
+        float t = ties[a];
+        ties[a] = ties[b];
+        ties[b] = t;
+
+        positions[nodes[a]] = a;
+        positions[nodes[b]] = b;
+    }
+
+    /** Поднимает элемент с индексом i вверх и возвращает его новый индекс. **/
+    private int siftUp(int i)
+    {
+        while (i > 0)
+        {
+            int parent = (i - 1) >>> 1;
+            if (!less(i, parent))
+                break;
+            swap(i, parent);
+            i = parent;
+        }
+        return i;
+    }
+
+    /** Опускает элемент с индексом i вниз, пока он больше одного из своих потомков. **/
+    private void siftDown(int i)
+    {
+        int half = size >>> 1;
+        while (i < half)
+        {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < size && less(right, child))
+                child = right;
+            if (!less(child, i))
+                break;
+            swap(i, child);
+            i = child;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+
+/**
+ * Этот класс выполняет набор задач в {@link ForkJoinPool} и дожидается их завершения. Если
+ * задача бросила непроверяемое исключение, оно бросается вызывающему как есть; прочие ошибки
+ * и прерывание ожидания оборачиваются в <code>IllegalStateException</code>.
+ **/
+final class ParallelTasks
+{
+    private ParallelTasks()
+    {
+    }
+
+    /**
+     * Выполняет задачи в пуле и возвращает их результаты в том же порядке. Строка
+     * <code>what</code> описывает вычисление в сообщениях исключений, например
+     * "flow field build".
+     **/
+    static <T> List<T> invokeAll(ForkJoinPool pool, Collection<? extends Callable<T>> tasks,
+                                 String what)
+    {
+        List<Future<T>> futures = pool.invokeAll(tasks);
+        List<T> results = new ArrayList<T>(futures.size());
+        for (Future<T> f : futures)
+        {
+            try
+            {
+                results.add(f.get());
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(what + " was interrupted", e);
+            }
+            catch (ExecutionException e)
+            {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException)
+                    throw (RuntimeException) cause;
+                throw new IllegalStateException(what + " failed", cause);
+            }
+        }
+        return results;
+    }
+}
@@ -0,0 +1,279 @@
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * Этот класс кэширует результаты поиска пути A* по одной карте {@link Map2D}. Результат
+ * хранится по паре (начало, конец) вместе с версией карты {@link Map2D#getVersion()}, при
+ * которой он был вычислен, и считается действительным, пока версия карты не изменилась.
+ * Размер кэша ограничен: когда записей становится больше <code>maxEntries</code>, удаляется
+ * запись, которая дольше всех не использовалась.
+ * <p>
+ * Если включен режим <code>retainUnaffected</code>, кэш подписывается на изменения карты и
+ * сохраняет найденные пути, которые не проходят через измененную ячейку, когда ее стоимость
+ * только выросла: такой путь остается кратчайшим. Уменьшение стоимости может открыть более
+ * короткий путь, поэтому оно сбрасывает весь кэш. Смена начального или конечного
+ * местоположения карты кэш не сбрасывает: записи хранятся по паре местоположений.
+ * <p>
+ * Возвращаемые путевые точки общие для всех вызывающих и не должны изменяться.
+ **/
+public class PathCache implements MapChangeListener
+{
+    /** Карта, для которой кэшируются пути. **/
+    private final Map2D map;
+
+    /** Наибольшее число записей в кэше. **/
+    private final int maxEntries;
+
+    /** Сохранять ли записи, не затронутые изменением карты. **/
+    private final boolean retainUnaffected;
+
+    /** Записи кэша в порядке использования: первой идет дольше всех не использованная. **/
+    private final LinkedHashMap<PathQuery, CachedPath> entries;
+
+    /** Число запросов, на которые ответил кэш. **/
+    private long hits;
+
+    /** Число запросов, для которых пришлось выполнить поиск. **/
+    private long misses;
+
+    /** Число записей, удаленных из-за ограничения размера. **/
+    private long evictions;
+
+
+    /** Одна запись кэша: найденный путь и версия карты, при которой он действителен. **/
+    private static final class CachedPath
+    {
+        /** Версия карты, при которой запись действительна. **/
+        long version;
+
+        /** Последняя путевая точка пути или <code>null</code>, если путь не найден. **/
+        final Waypoint path;
+
+        /** Отсортированные индексы (y * ширина + x) ячеек пути. **/
+        final long[] cells;
+
+        /** Прямоугольник, содержащий все ячейки пути. **/
+        final int minX, minY, maxX, maxY;
+
+        CachedPath(long version, Waypoint path, int width)
+        {
+            this.version = version;
+            this.path = path;
+
+            int n = 0;
+            for (Waypoint wp = path; wp != null; wp = wp.prevWaypoint)
+                n++;
+
+            cells = new long[n];
+            int x0 = Integer.MAX_VALUE, y0 = Integer.MAX_VALUE;
+            int x1 = Integer.MIN_VALUE, y1 = Integer.MIN_VALUE;
+            int i = 0;
+            for (Waypoint wp = path; wp != null; wp = wp.prevWaypoint)
+            {
+                int x = wp.loc.xCoord;
+                int y = wp.loc.yCoord;
+                cells[i++] = (long) y * width + x;
+                x0 = Math.min(x0, x);
+                y0 = Math.min(y0, y);
+                x1 = Math.max(x1, x);
+                y1 = Math.max(y1, y);
+            }
+            Arrays.sort(cells);
+
+            minX = x0;
+            minY = y0;
+            maxX = x1;
+            maxY = y1;
+        }
+
+        /** Возвращает true, если путь проходит через ячейку (x, y). **/
+        boolean touches(int x, int y, int width)
+        {
+            if (x < minX || x > maxX || y < minY || y > maxY)
+                return false;
+
+            return Arrays.binarySearch(cells, (long) y * width + x) >= 0;
+        }
+    }
+
+
+    /** Создает кэш путей для карты, который сбрасывает все записи при любом изменении карты. **/
+    public PathCache(Map2D map, int maxEntries)
+    {
+        this(map, maxEntries, false);
+    }
+
+    /**
+     * Создает кэш путей для карты. Если <code>retainUnaffected</code> равен true, кэш
+     * регистрируется как {@link MapChangeListener} карты и сохраняет записи, которые
+     * изменение ячейки не затрагивает; такой кэш нужно освободить методом
+     * {@link #dispose()}.
+     **/
+    public PathCache(Map2D map, final int maxEntries, boolean retainUnaffected)
+    {
+        if (map == null)
+            throw new NullPointerException("map cannot be null");
+
+        if (maxEntries <= 0)
+        {
+            throw new IllegalArgumentException("maxEntries must be positive, got " +
+                    maxEntries);
+        }
+
+        this.map = map;
+        this.maxEntries = maxEntries;
+        this.retainUnaffected = retainUnaffected;
+
+        entries = new LinkedHashMap<PathQuery, CachedPath>(16, 0.75f, true)
+        {
+            protected boolean removeEldestEntry(Map.Entry<PathQuery, CachedPath> eldest)
+            {
+                if (size() > PathCache.this.maxEntries)
+                {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+
+        if (retainUnaffected)
+            map.addChangeListener(this);
+    }
+
+    /** Возвращает карту, для которой кэшируются пути. **/
+    public Map2D getMap()
+    {
+        return map;
+    }
+
+    /**
+     * Возвращает путь между началом и концом карты, вычисляя его, только если в кэше нет
+     * действительного результата. Возвращает последнюю путевую точку пути или
+     * <code>null</code>, если путь не найден.
+     **/
+    public Waypoint computePath()
+    {
+        return computePath(map.getStart(), map.getFinish());
+    }
+
+    /**
+     * Возвращает путь между указанными местоположениями, вычисляя его, только если в кэше
+     * нет действительного результата.
+     **/
+    public Waypoint computePath(Location start, Location finish)
+    {
+        if (start == null)
+            throw new NullPointerException("start cannot be null");
+
+        if (finish == null)
+            throw new NullPointerException("finish cannot be null");
+
+        PathQuery key = new PathQuery(start, finish);
+        long version;
+
+        synchronized (this)
+        {
+            version = map.getVersion();
+            CachedPath entry = entries.get(key);
+            if (entry != null && entry.version == version)
+            {
+                hits++;
+                return entry.path;
+            }
+            misses++;
+        }
+
+        // Поиск выполняется без блокировки, чтобы другие запросы могли обращаться к кэшу.
+        Waypoint path = AStarPathfinder.computePath(map, start, finish);
+        CachedPath entry = new CachedPath(version, path, map.getWidth());
+
+        synchronized (this)
+        {
+            // Если карта изменилась во время поиска, запись сразу будет устаревшей.
+            if (version == map.getVersion())
+                entries.put(key, entry);
+        }
+        return path;
+    }
+
+    /**
+     * Вызывается картой после изменения ячейки, если включен режим
+     * <code>retainUnaffected</code>. Записи, которые были действительны до изменения и не
+     * затронуты им, переносятся на новую версию карты, остальные удаляются.
+     **/
+    public synchronized void cellChanged(Map2D map, int x, int y, int oldValue)
+    {
+        long version = map.getVersion();
+        boolean increased = map.getCellValue(x, y) > oldValue;
+        int width = map.getWidth();
+
+        Iterator<CachedPath> it = entries.values().iterator();
+        while (it.hasNext())
+        {
+            CachedPath entry = it.next();
+            if (entry.version == version - 1 && increased && !entry.touches(x, y, width))
+                entry.version = version;
+            else
+                it.remove();
+        }
+    }
+
+    /** Возвращает число запросов, на которые ответил кэш. **/
+    public synchronized long getHitCount()
+    {
+        return hits;
+    }
+
+    /** Возвращает число запросов, для которых пришлось выполнить поиск. **/
+    public synchronized long getMissCount()
+    {
+        return misses;
+    }
+
+    /** Возвращает число записей, удаленных из-за ограничения размера. **/
+    public synchronized long getEvictionCount()
+    {
+        return evictions;
+    }
+
+    /** Возвращает долю запросов, на которые ответил кэш, или 0, если запросов не было. **/
+    public synchronized double getHitRate()
+    {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /** Возвращает число записей в кэше, включая устаревшие. **/
+    public synchronized int size()
+    {
+        return entries.size();
+    }
+
+    /** Возвращает наибольшее число записей в кэше. **/
+    public int getMaxEntries()
+    {
+        return maxEntries;
+    }
+
+    /** Удаляет все записи и обнуляет счетчики. **/
+    public synchronized void clear()
+    {
+        entries.clear();
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+
+    /** Отписывает кэш от изменений карты и удаляет все записи. **/
+    public synchronized void dispose()
+    {
+        if (retainUnaffected)
+            map.removeChangeListener(this);
+
+        entries.clear();
+    }
+}
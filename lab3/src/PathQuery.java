@@ -0,0 +1,56 @@
+/**
+ * Этот класс описывает один запрос поиска пути: начальное и конечное местоположения. В отличие
+ * от {@link Map2D#getStart()} и {@link Map2D#getFinish()}, запросы не изменяют карту, поэтому
+ * много запросов можно выполнять одновременно над одной картой.
+ **/
+public class PathQuery
+{
+    /** Место, откуда начинается путь. **/
+    private final Location start;
+
+    /** Место, где путь должен заканчиваться. **/
+    private final Location finish;
+
+    /** Создает запрос поиска пути между указанными местоположениями. **/
+    public PathQuery(Location start, Location finish)
+    {
+        if (start == null)
+            throw new NullPointerException("start cannot be null");
+
+        if (finish == null)
+            throw new NullPointerException("finish cannot be null");
+
+        this.start = start;
+        this.finish = finish;
+    }
+
+    /** Возвращает место, откуда начинается путь. **/
+    public Location getStart()
+    {
+        return start;
+    }
+
+    /** Возвращает место, где путь должен заканчиваться. **/
+    public Location getFinish()
+    {
+        return finish;
+    }
+
+    /** Запросы равны, если совпадают их начальные и конечные местоположения. **/
+    public boolean equals(Object obj)
+    {
+        if (obj instanceof PathQuery)
+        {
+            PathQuery q = (PathQuery) obj;
+            return start.equals(q.start) && finish.equals(q.finish);
+        }
+        return false;
+    }
+
+    public int hashCode()
+    {
+        int h = 31 * start.xCoord + start.yCoord;
+        h = 31 * h + finish.xCoord;
+        return 31 * h + finish.yCoord;
+    }
+}
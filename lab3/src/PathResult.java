@@ -0,0 +1,261 @@
+/**
+ * Этот класс хранит результат поиска пути в виде плоских массивов координат и стоимостей,
+ * упорядоченных от начала пути к его концу. Объект рассчитан на повторное использование:
+ * массивы растут только тогда, когда очередной путь длиннее всех предыдущих, поэтому после
+ * «прогрева» заполнение результата не создает объектов.
+ **/
+public class PathResult
+{
+    /** Состояние результата. **/
+    private SearchStatus status = SearchStatus.NOT_FOUND;
+
+    /** Количество шагов пути, включая начальную и конечную ячейки. **/
+    private int length;
+
+    /** Координаты X шагов пути. **/
+    private int[] xs;
+
+    /** Координаты Y шагов пути. **/
+    private int[] ys;
+
+    /** Фактическая стоимость пути от начала до каждого шага. **/
+    private float[] prevCosts;
+
+    /** Оценка оставшейся стоимости от каждого шага до конечного пункта. **/
+    private float[] remainingCosts;
+
+    /** Создает пустой результат. **/
+    public PathResult()
+    {
+        xs = new int[16];
+        ys = new int[16];
+        prevCosts = new float[16];
+        remainingCosts = new float[16];
+    }
+
+    /** Сбрасывает результат в состояние «путь не найден». **/
+    public void clear()
+    {
+        status = SearchStatus.NOT_FOUND;
+        length = 0;
+    }
+
+    /** Возвращает true, если путь до конечной ячейки был найден. **/
+    public boolean isFound()
+    {
+        return status == SearchStatus.COMPLETE;
+    }
+
+    /**
+     * Возвращает состояние результата. Для {@link SearchStatus#PARTIAL} результат содержит
+     * путь не до конечной ячейки, а до ближайшей к ней ячейки, найденной до остановки поиска.
+     **/
+    public SearchStatus getStatus()
+    {
+        return status;
+    }
+
+    /** Помечает заполненный путь как частичный. **/
+    void markPartial()
+    {
+        status = SearchStatus.PARTIAL;
+    }
+
+    /** Возвращает количество шагов пути, включая начальную и конечную ячейки. **/
+    public int getLength()
+    {
+        return length;
+    }
+
+    /** Возвращает координату X шага с указанным номером. **/
+    public int getX(int step)
+    {
+        checkStep(step);
+        return xs[step];
+    }
+
+    /** Возвращает координату Y шага с указанным номером. **/
+    public int getY(int step)
+    {
+        checkStep(step);
+        return ys[step];
+    }
+
+    /** Возвращает фактическую стоимость пути от начала до шага с указанным номером. **/
+    public float getPrevCost(int step)
+    {
+        checkStep(step);
+        return prevCosts[step];
+    }
+
+    /** Возвращает полную стоимость пути или 0, если путь не найден. **/
+    public float getTotalCost()
+    {
+        return length == 0 ? 0 : prevCosts[length - 1];
+    }
+
+    /**
+     * Заполняет результат путем, который заканчивается в ячейке с указанным индексом, проходя
+     * по индексам предыдущих ячеек в состоянии поиска.
+     **/
+    void fill(GridSearchState state, int lastIndex)
+    {
+        int n = 0;
+        for (int i = lastIndex; i != -1; i = state.getParent(i))
+            n++;
+
+        ensureCapacity(n);
+
+        int k = n - 1;
+        for (int i = lastIndex; i != -1; i = state.getParent(i), k--)
+        {
+            xs[k] = state.getX(i);
+            ys[k] = state.getY(i);
+            prevCosts[k] = state.getPrevCost(i);
+            remainingCosts[k] = state.getRemainingCost(i);
+        }
+
+        length = n;
+        status = SearchStatus.COMPLETE;
+    }
+
+    /**
+     * Заполняет результат путем, который заканчивается в ячейке <code>lastIndex</code>, по
+     * массиву индексов предыдущих ячеек (<code>y * width + x</code>, -1 для начала пути).
+     * Стоимости накапливаются по шагам так же, как в {@link AStarPathfinder}, поэтому они
+     * точны, даже если стоимости в самом поиске уже устарели.
+     **/
+    void fill(int[] parents, int lastIndex, Map2D map, int finishX, int finishY)
+    {
+        int width = map.getWidth();
+        int n = 0;
+        for (int i = lastIndex; i != -1; i = parents[i])
+            n++;
+
+        ensureCapacity(n);
+
+        int k = n - 1;
+        for (int i = lastIndex; i != -1; i = parents[i], k--)
+        {
+            xs[k] = i % width;
+            ys[k] = i / width;
+        }
+
+        for (k = 0; k < n; k++)
+        {
+            if (k == 0)
+            {
+                prevCosts[k] = 0;
+            }
+            else
+            {
+                prevCosts[k] = prevCosts[k - 1] +
+                        AStarPathfinder.stepLength(xs[k] - xs[k - 1], ys[k] - ys[k - 1]);
+                prevCosts[k] += map.getCellValueUnchecked(xs[k], ys[k]);
+            }
+            remainingCosts[k] = AStarPathfinder.estimateTravelCost(xs[k], ys[k], finishX, finishY);
+        }
+
+        length = n;
+        status = SearchStatus.COMPLETE;
+    }
+
+    /**
+     * Заполняет результат путем двунаправленного поиска: от начала до точки встречи по
+     * предыдущим ячейкам прямого поиска и от точки встречи до конца по ячейкам обратного
+     * поиска. Стоимости второй половины накапливаются по шагам так же, как в
+     * {@link AStarPathfinder}.
+     **/
+    void fill(GridSearchState forward, GridSearchState backward, int meetIndex, Map2D map,
+              int finishX, int finishY)
+    {
+        int n = 0;
+        for (int i = meetIndex; i != -1; i = forward.getParent(i))
+            n++;
+        int head = n;
+        for (int i = backward.getParent(meetIndex); i != -1; i = backward.getParent(i))
+            n++;
+
+        ensureCapacity(n);
+
+        int k = head - 1;
+        for (int i = meetIndex; i != -1; i = forward.getParent(i), k--)
+        {
+            xs[k] = forward.getX(i);
+            ys[k] = forward.getY(i);
+            prevCosts[k] = forward.getPrevCost(i);
+            remainingCosts[k] = AStarPathfinder.estimateTravelCost(xs[k], ys[k], finishX, finishY);
+        }
+
+        k = head;
+        for (int i = backward.getParent(meetIndex); i != -1; i = backward.getParent(i), k++)
+        {
+            int x = backward.getX(i);
+            int y = backward.getY(i);
+            xs[k] = x;
+            ys[k] = y;
+            prevCosts[k] = prevCosts[k - 1] +
+                    AStarPathfinder.stepLength(x - xs[k - 1], y - ys[k - 1]);
+            prevCosts[k] += map.getCellValueUnchecked(x, y);
+            remainingCosts[k] = AStarPathfinder.estimateTravelCost(x, y, finishX, finishY);
+        }
+
+        length = n;
+        status = SearchStatus.COMPLETE;
+    }
+
+    /**
+     * Строит цепочку путевых точек для найденного пути и возвращает последнюю путевую точку,
+     * как это делает {@link AStarPathfinder#computePath(Map2D)}. Для частичного результата
+     * возвращается цепочка частичного пути. Если путь не найден, возвращается
+     * <code>null</code>.
+     **/
+    public Waypoint toWaypoint()
+    {
+        if (length == 0)
+            return null;
+
+        Waypoint wp = null;
+        for (int k = 0; k < length; k++)
+        {
+            wp = new Waypoint(new Location(xs[k], ys[k]), wp);
+            wp.setCosts(prevCosts[k], remainingCosts[k]);
+        }
+        return wp;
+    }
+
+    /**
+     * Возвращает путь в компактном виде {@link CompactPath} или <code>null</code>, если путь
+     * не найден. Для частичного результата возвращается частичный путь.
+     **/
+    public CompactPath toCompactPath()
+    {
+        if (length == 0)
+            return null;
+
+        return new CompactPath(xs, ys, length, prevCosts[length - 1]);
+    }
+
+    /** Увеличивает массивы, если в них не помещается путь указанной длины. **/
+    private void ensureCapacity(int n)
+    {
+        if (n <= xs.length)
+            return;
+
+        int capacity = Math.max(n, xs.length * 2);
+        xs = new int[capacity];
+        ys = new int[capacity];
+        prevCosts = new float[capacity];
+        remainingCosts = new float[capacity];
+    }
+
+    /** Проверяет, что номер шага находится в пределах пути. **/
+    private void checkStep(int step)
+    {
+        if (step < 0 || step >= length)
+        {
+            throw new IndexOutOfBoundsException("step must be in range [0, " +
+                    length + "), got " + step);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+
+/**
+ * Событие JFR для одного поиска пути в {@link PathfinderContext}. Длительность события —
+ * время поиска. Пока запись JFR выключена, {@link PathfinderContext} не создает событие
+ * вовсе, проверяя {@link #TYPE}, так что его стоимость сводится к проверке флага. Для JFR
+ * нужен JDK 11 или новее.
+ **/
+@Name("lab3.PathSearch")
+@Label("Path Search")
+@Category("Pathfinding")
+@Description("One A* path search")
+class PathSearchEvent extends Event
+{
+    /** Тип события; {@link EventType#isEnabled()} показывает, записывается ли оно сейчас. **/
+    static final EventType TYPE = EventType.getEventType(PathSearchEvent.class);
+
+    @Label("Map Width")
+    int mapWidth;
+
+    @Label("Map Height")
+    int mapHeight;
+
+    @Label("Start X")
+    int startX;
+
+    @Label("Start Y")
+    int startY;
+
+    @Label("Finish X")
+    int finishX;
+
+    @Label("Finish Y")
+    int finishY;
+
+    @Label("Found")
+    boolean found;
+
+    @Label("Path Length")
+    int pathLength;
+
+    @Label("Path Cost")
+    float pathCost;
+
+    @Label("Nodes Expanded")
+    long nodesExpanded;
+}
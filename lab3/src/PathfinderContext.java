@@ -0,0 +1,516 @@
+/**
+ * Этот класс содержит переиспользуемый контекст поиска пути A*. Контекст хранит состояние поиска
+ * в плоских массивах ({@link GridSearchState}) и использует его повторно для каждого запроса:
+ * благодаря счетчикам поколений массивы не нужно очищать между поисками, а после первого поиска
+ * по карте данного размера новые массивы не выделяются. Вместе с переиспользуемым
+ * {@link PathResult} поиск пути не создает объектов вовсе.
+ * <p>
+ * Контекст не является потокобезопасным: каждый поток должен использовать свой контекст.
+ **/
+public class PathfinderContext
+{
+    /**
+     * Как часто (в раскрытых ячейках) проверяются срок и отмена поиска; бюджет раскрытых
+     * ячеек проверяется на каждом шаге.
+     **/
+    private static final int LIMIT_CHECK_MASK = 255;
+
+    /** Состояние поиска; создается при первом запросе и растет вместе с картами. **/
+    private GridSearchState state;
+
+    /** Состояние обратного поиска для двунаправленного режима; создается при первом запросе. **/
+    private GridSearchState backwardState;
+
+    /** Статистика для записи метрик, когда вызывающий не передал свою. **/
+    private SearchStats scratchStats;
+
+    /** Создает пустой контекст. Массивы выделяются при первом поиске. **/
+    public PathfinderContext()
+    {
+    }
+
+    /**
+     * Создает контекст, который ведет поиск в переданном состоянии, пока карты в нем
+     * помещаются.
+     **/
+    PathfinderContext(GridSearchState state)
+    {
+        this.state = state;
+    }
+
+    /**
+     * Возвращает состояние поиска, подготовленное для новой карты. Массивы выделяются заново
+     * только если карта больше всех предыдущих.
+     **/
+    private GridSearchState prepareState(Map2D map)
+    {
+        long cells = (long) map.getWidth() * map.getHeight();
+        if (state == null || cells > state.capacity())
+            state = new GridSearchState(map);
+        else
+            state.reset(map);
+        return state;
+    }
+
+    /** Возвращает состояние обратного поиска, подготовленное для новой карты. **/
+    private GridSearchState prepareBackwardState(Map2D map)
+    {
+        long cells = (long) map.getWidth() * map.getHeight();
+        if (backwardState == null || cells > backwardState.capacity())
+            backwardState = new GridSearchState(map);
+        else
+            backwardState.reset(map);
+        return backwardState;
+    }
+
+    /**
+     * Вычисляет путь между начальным и конечным местоположениями карты и записывает его в
+     * <code>result</code>. Возвращает true, если путь найден.
+     **/
+    public boolean computePath(Map2D map, PathResult result)
+    {
+        Location start = map.getStart();
+        Location finish = map.getFinish();
+        return computePath(map, start.xCoord, start.yCoord, finish.xCoord, finish.yCoord, result);
+    }
+
+    /**
+     * Вычисляет путь между указанными ячейками карты и записывает его в <code>result</code>.
+     * Возвращает true, если путь найден. Пути совпадают с путями
+     * {@link AStarPathfinder#computePath(Map2D)}.
+     **/
+    public boolean computePath(Map2D map, int startX, int startY, int finishX, int finishY,
+                               PathResult result)
+    {
+        return computePath(map, startX, startY, finishX, finishY, result, null);
+    }
+
+    /**
+     * Вычисляет путь так же, как {@link #computePath(Map2D, int, int, int, int, PathResult)},
+     * собирая статистику, уведомляя слушателя и записывая метрики согласно
+     * <code>options</code>. Если <code>options</code> равен <code>null</code> или в нем ничего
+     * не включено, поиск не выполняет никакой дополнительной работы, кроме проверок на
+     * <code>null</code>. Если запись JFR включена, каждый поиск также создает событие
+     * {@link PathSearchEvent}.
+     * <p>
+     * Если в <code>options</code> задан срок, бюджет раскрытых ячеек или токен отмены и поиск
+     * остановлен раньше, чем нашел путь, метод возвращает false, а <code>result</code>
+     * содержит путь до раскрытой ячейки с наименьшей оценкой оставшейся стоимости со
+     * статусом {@link SearchStatus#PARTIAL}.
+     **/
+    public boolean computePath(Map2D map, int startX, int startY, int finishX, int finishY,
+                               PathResult result, SearchOptions options)
+    {
+        if (!map.contains(startX, startY) || !map.contains(finishX, finishY))
+            throw new IllegalArgumentException("start and finish must be inside the map");
+
+        return search(map, startX, startY, finishX, finishY, null, result, options) >= 0;
+    }
+
+    /**
+     * Вычисляет путь от указанной ячейки до ближайшей по стоимости пути цели из набора одним
+     * поиском A*: оценка оставшейся стоимости — расстояние до ближайшей цели, и поиск
+     * заканчивается на первой цели, которую нужно раскрыть. Записывает путь в
+     * <code>result</code> и возвращает номер достигнутой цели в наборе или -1, если ни одна
+     * цель не достижима. Параметры <code>options</code> действуют так же, как в
+     * {@link #computePath(Map2D, int, int, int, int, PathResult, SearchOptions)}, кроме
+     * эвристики: ее заменяет набор целей.
+     **/
+    public int computePathToNearest(Map2D map, int startX, int startY, GoalSet goals,
+                                    PathResult result, SearchOptions options)
+    {
+        if (goals == null)
+            throw new NullPointerException("goals cannot be null");
+
+        if (!map.contains(startX, startY))
+            throw new IllegalArgumentException("start must be inside the map");
+
+        for (int i = 0; i < goals.size(); i++)
+        {
+            Location goal = goals.get(i);
+            if (!map.contains(goal.xCoord, goal.yCoord))
+                throw new IllegalArgumentException("goals must be inside the map");
+        }
+
+        Location first = goals.get(0);
+        return search(map, startX, startY, first.xCoord, first.yCoord, goals, result, options);
+    }
+
+    /**
+     * Общий поиск A* для одной конечной ячейки или, если <code>goals</code> не равен
+     * <code>null</code>, для набора целей; в этом случае <code>finishX</code> и
+     * <code>finishY</code> используются только в событии JFR. Возвращает номер достигнутой
+     * цели (0 для одной конечной ячейки) или -1.
+     **/
+    private int search(Map2D map, int startX, int startY, int finishX, int finishY,
+                       GoalSet goals, PathResult result, SearchOptions options)
+    {
+        SearchStats stats = null;
+        SearchListener listener = null;
+        SearchMetrics metrics = null;
+        ReachabilityIndex reachability = null;
+        Heuristic heuristic = null;
+        float weight = 1;
+        boolean limited = false;
+        boolean hasDeadline = false;
+        long deadline = 0;
+        long maxExpansions = Long.MAX_VALUE;
+        CancellationToken token = null;
+        if (options != null)
+        {
+            stats = options.getStats();
+            listener = options.getListener();
+            metrics = options.getMetrics();
+            reachability = options.getReachability();
+            heuristic = options.getHeuristic();
+            weight = options.getWeight();
+            hasDeadline = options.hasDeadline();
+            deadline = options.getDeadline();
+            maxExpansions = options.getMaxExpansions();
+            token = options.getCancellationToken();
+            limited = hasDeadline || token != null || maxExpansions != Long.MAX_VALUE;
+
+            if (reachability != null && reachability.getMap() != map)
+            {
+                throw new IllegalArgumentException(
+                        "reachability index was built for a different map");
+            }
+
+            // Метрикам нужна статистика, даже если вызывающий её не запросил.
+            if (metrics != null && stats == null)
+            {
+                if (scratchStats == null)
+                    scratchStats = new SearchStats();
+                stats = scratchStats;
+            }
+        }
+
+        // Событие создается, только пока JFR его записывает.
+        PathSearchEvent event = null;
+        if (PathSearchEvent.TYPE.isEnabled())
+        {
+            event = new PathSearchEvent();
+            event.begin();
+        }
+
+        long startNanos = 0;
+        if (stats != null)
+        {
+            stats.reset();
+            startNanos = System.nanoTime();
+        }
+
+        result.clear();
+
+        if (goals != null)
+            heuristic = goals;
+
+        boolean found = false;
+        int reached = -1;
+        long expanded = 0;
+
+        // Недостижимую конечную ячейку отбрасываем, не начиная поиск.
+        if (reachability == null || isAnyReachable(reachability, startX, startY, finishX,
+                finishY, goals))
+        {
+            GridSearchState s = prepareState(map);
+            int startIndex = s.indexOf(startX, startY);
+            int finishIndex = s.indexOf(finishX, finishY);
+
+            float startRemaining = (heuristic == null)
+                    ? AStarPathfinder.estimateTravelCost(startX, startY, finishX, finishY)
+                    : heuristic.estimateTravelCost(startX, startY, finishX, finishY);
+            startRemaining *= weight;
+            s.openNode(startIndex, 0, startRemaining, -1);
+
+            if (stats != null)
+            {
+                stats.heuristicCalls = 1;
+                stats.generated = 1;
+                stats.peakOpen = 1;
+            }
+            if (listener != null)
+                listener.nodeOpened(startX, startY, 0, startRemaining);
+
+            // Ближайшая к концу раскрытая ячейка для частичного результата.
+            int closest = startIndex;
+            float closestRemaining = startRemaining;
+            boolean stopped = false;
+
+            int current;
+            while ((current = s.peekMinOpen()) >= 0)
+            {
+                int goal = (goals == null) ? (current == finishIndex ? 0 : -1)
+                        : goals.indexOf(s.getX(current), s.getY(current));
+                if (goal >= 0)
+                {
+                    result.fill(s, current);
+                    found = true;
+                    reached = goal;
+                    break;
+                }
+
+                if (limited)
+                {
+                    if (expanded >= maxExpansions ||
+                            ((expanded & LIMIT_CHECK_MASK) == 0 &&
+                                    ((token != null && token.isCancelled()) ||
+                                            (hasDeadline && System.nanoTime() - deadline >= 0))))
+                    {
+                        stopped = true;
+                        break;
+                    }
+
+                    if (s.getRemainingCost(current) < closestRemaining)
+                    {
+                        closest = current;
+                        closestRemaining = s.getRemainingCost(current);
+                    }
+                }
+
+                if (listener != null)
+                {
+                    listener.nodeExpanded(s.getX(current), s.getY(current),
+                            s.getPrevCost(current), s.getRemainingCost(current));
+                }
+
+                expand(s, map, current, finishX, finishY, heuristic, weight, stats, listener);
+                s.closeNode(current);
+                expanded++;
+
+                if (stats != null && s.numOpenWaypoints() > stats.peakOpen)
+                    stats.peakOpen = s.numOpenWaypoints();
+            }
+
+            if (stopped)
+            {
+                result.fill(s, closest);
+                result.markPartial();
+            }
+        }
+
+        if (stats != null)
+        {
+            stats.nanos = System.nanoTime() - startNanos;
+            stats.expanded = expanded;
+            stats.closed = expanded;
+            stats.found = found;
+
+            if (metrics != null)
+                metrics.record(stats);
+        }
+
+        if (event != null && event.shouldCommit())
+        {
+            event.mapWidth = map.getWidth();
+            event.mapHeight = map.getHeight();
+            event.startX = startX;
+            event.startY = startY;
+            if (goals != null && found)
+            {
+                event.finishX = goals.get(reached).xCoord;
+                event.finishY = goals.get(reached).yCoord;
+            }
+            else
+            {
+                event.finishX = finishX;
+                event.finishY = finishY;
+            }
+            event.found = found;
+            event.pathLength = result.getLength();
+            event.pathCost = result.getTotalCost();
+            event.nodesExpanded = expanded;
+            event.commit();
+        }
+
+        return reached;
+    }
+
+    /**
+     * Возвращает true, если по индексу связности из начальной ячейки достижима конечная
+     * ячейка или, если задан набор целей, хотя бы одна цель.
+     **/
+    private static boolean isAnyReachable(ReachabilityIndex reachability, int startX,
+                                          int startY, int finishX, int finishY, GoalSet goals)
+    {
+        if (goals == null)
+            return reachability.isReachable(startX, startY, finishX, finishY);
+
+        for (int i = 0; i < goals.size(); i++)
+        {
+            Location goal = goals.get(i);
+            if (reachability.isReachable(startX, startY, goal.xCoord, goal.yCoord))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Вычисляет путь между указанными ячейками двунаправленным поиском A*: прямой поиск идет от
+     * начала, обратный — от конца, и на каждом шаге раскрывается та сторона, у которой меньше
+     * открытых ячеек. Поиск останавливается, когда минимальная оценка одной из сторон становится
+     * не меньше стоимости лучшего найденного пути через точку встречи; обе эвристики
+     * согласованы, поэтому найденный путь оптимален. Если конечная ячейка замурована, обратный
+     * поиск исчерпывается почти сразу, и поиск завершается без обхода всей карты.
+     * Записывает путь в <code>result</code> и возвращает true, если путь найден.
+     **/
+    public boolean computeBidirectionalPath(Map2D map, int startX, int startY,
+                                            int finishX, int finishY, PathResult result)
+    {
+        if (!map.contains(startX, startY) || !map.contains(finishX, finishY))
+            throw new IllegalArgumentException("start and finish must be inside the map");
+
+        result.clear();
+
+        GridSearchState fwd = prepareState(map);
+        GridSearchState bwd = prepareBackwardState(map);
+
+        int startIndex = fwd.indexOf(startX, startY);
+        int finishIndex = fwd.indexOf(finishX, finishY);
+
+        fwd.openNode(startIndex, 0,
+                AStarPathfinder.estimateTravelCost(startX, startY, finishX, finishY), -1);
+        bwd.openNode(finishIndex, 0,
+                AStarPathfinder.estimateTravelCost(finishX, finishY, startX, startY), -1);
+
+        // Стоимость лучшего найденного пути через точку встречи и сама точка встречи.
+        float best = Float.POSITIVE_INFINITY;
+        int meet = (startIndex == finishIndex) ? startIndex : -1;
+        if (meet >= 0)
+            best = 0;
+
+        while (fwd.numOpenWaypoints() > 0 && bwd.numOpenWaypoints() > 0)
+        {
+            int topF = fwd.peekMinOpen();
+            int topB = bwd.peekMinOpen();
+            float minF = fwd.getPrevCost(topF) + fwd.getRemainingCost(topF);
+            float minB = bwd.getPrevCost(topB) + bwd.getRemainingCost(topB);
+
+            // Любой еще не найденный путь стоит не меньше минимальной оценки каждой стороны.
+            if (Math.max(minF, minB) >= best)
+                break;
+
+            boolean forward = fwd.numOpenWaypoints() <= bwd.numOpenWaypoints();
+            int current = forward ? topF : topB;
+            GridSearchState s = forward ? fwd : bwd;
+            GridSearchState other = forward ? bwd : fwd;
+
+            int cx = s.getX(current);
+            int cy = s.getY(current);
+            float currCost = s.getPrevCost(current);
+
+            // В обратном поиске шаг (x, y) -> текущая ячейка стоит столько же, сколько вход
+            // в текущую ячейку.
+            int enterCurrent = forward ? 0 : map.getCellValueUnchecked(cx, cy);
+            int targetX = forward ? finishX : startX;
+            int targetY = forward ? finishY : startY;
+
+            for (int y = cy - 1; y <= cy + 1; y++)
+            {
+                for (int x = cx - 1; x <= cx + 1; x++)
+                {
+                    if (!map.contains(x, y) || (x == cx && y == cy))
+                        continue;
+
+                    int next = s.indexOf(x, y);
+                    if (s.isClosed(next))
+                        continue;
+
+                    float prevCost = currCost +
+                            AStarPathfinder.stepLength(x - cx, y - cy);
+                    prevCost += forward ? map.getCellValueUnchecked(x, y) : enterCurrent;
+
+                    if (prevCost >= AStarPathfinder.COST_LIMIT)
+                        continue;
+
+                    s.openNode(next, prevCost,
+                            AStarPathfinder.estimateTravelCost(x, y, targetX, targetY), current);
+
+                    if (other.isOpen(next) || other.isClosed(next))
+                    {
+                        float total = s.getPrevCost(next) + other.getPrevCost(next);
+                        if (total < best)
+                        {
+                            best = total;
+                            meet = next;
+                        }
+                    }
+                }
+            }
+
+            s.closeNode(current);
+        }
+
+        if (meet < 0)
+            return false;
+
+        result.fill(fwd, bwd, meet, map, finishX, finishY);
+        return true;
+    }
+
+    /**
+     * Добавляет или обновляет в открытом списке всех соседей указанной ячейки. Стоимости
+     * вычисляются в том же порядке и с той же точностью, что и в {@link AStarPathfinder}.
+     * Оценка оставшейся стоимости умножается на вес взвешенного A*. Эвристика, статистика и
+     * слушатель могут быть равны <code>null</code>.
+     **/
+    private static void expand(GridSearchState s, Map2D map, int current,
+                               int finishX, int finishY, Heuristic heuristic, float weight,
+                               SearchStats stats, SearchListener listener)
+    {
+        int cx = s.getX(current);
+        int cy = s.getY(current);
+        float currCost = s.getPrevCost(current);
+
+        for (int y = cy - 1; y <= cy + 1; y++)
+        {
+            for (int x = cx - 1; x <= cx + 1; x++)
+            {
+                if (!map.contains(x, y))
+                    continue;
+
+                if (x == cx && y == cy)
+                    continue;
+
+                int next = s.indexOf(x, y);
+                if (s.isClosed(next))
+                    continue;
+
+                float prevCost = currCost +
+                        AStarPathfinder.stepLength(x - cx, y - cy);
+
+                prevCost += map.getCellValueUnchecked(x, y);
+
+                if (prevCost >= AStarPathfinder.COST_LIMIT)
+                    continue;
+
+                // Без заданной эвристики вызываем расстояние по прямой напрямую, без
+                // виртуального вызова.
+                float remainingCost = (heuristic == null)
+                        ? AStarPathfinder.estimateTravelCost(x, y, finishX, finishY)
+                        : heuristic.estimateTravelCost(x, y, finishX, finishY);
+                remainingCost *= weight;
+
+                if (stats == null && listener == null)
+                {
+                    s.openNode(next, prevCost, remainingCost, current);
+                    continue;
+                }
+
+                boolean wasOpen = s.isOpen(next);
+                boolean changed = s.openNode(next, prevCost, remainingCost, current);
+
+                if (stats != null)
+                {
+                    stats.heuristicCalls++;
+                    if (changed && wasOpen)
+                        stats.reopened++;
+                    else if (changed)
+                        stats.generated++;
+                }
+                if (changed && listener != null)
+                    listener.nodeOpened(x, y, prevCost, remainingCost);
+            }
+        }
+    }
+}
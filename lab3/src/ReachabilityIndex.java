@@ -0,0 +1,612 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+
+
+/**
+ * Этот класс хранит разметку связных компонент проходимых ячеек карты {@link Map2D}, чтобы
+ * до начала поиска за O(1) отвечать, существует ли путь между двумя ячейками. Без индекса
+ * поиск к замурованной конечной ячейке обходит всю достижимую часть карты, прежде чем вернуть
+ * <code>null</code>.
+ * <p>
+ * Ячейка проходима, если ее стоимость меньше {@link AStarPathfinder#COST_LIMIT}; соседями
+ * считаются все восемь окружающих ячеек, как в поиске A*. Индекс строится системой
+ * непересекающихся множеств: карта делится на горизонтальные полосы, которые размечаются
+ * параллельно, затем объединяются границы полос.
+ * <p>
+ * Индекс подписывается на изменения карты и обновляется на месте. Когда ячейка становится
+ * проходимой, компоненты ее соседей сливаются: меньшие перекрашиваются в номер наибольшей.
+ * Когда ячейка становится непроходимой, сначала проверяется, связаны ли ее соседи друг с
+ * другом в кольце вокруг нее; только если нет, из групп соседей одновременно запускаются
+ * обходы в ширину, и новые номера получают лишь те части, обход которых закончился первым,
+ * поэтому работа пропорциональна размеру отрезанных частей, а не всей компоненты.
+ * <p>
+ * Индекс не требует, чтобы путь укладывался в {@link AStarPathfinder#COST_LIMIT}: если он
+ * сообщает, что ячейки не связаны, пути точно нет, а обратное означает лишь, что путь не
+ * перекрыт препятствиями. После использования индекс нужно освободить методом
+ * {@link #dispose()}.
+ **/
+public class ReachabilityIndex implements MapChangeListener
+{
+    /** Номер компоненты непроходимой ячейки. **/
+    public static final int BLOCKED = -1;
+
+    /** Карта, для которой построен индекс. **/
+    private final Map2D map;
+
+    /** Ширина карты. **/
+    private final int width;
+
+    /** Высота карты. **/
+    private final int height;
+
+    /** Номер компоненты каждой ячейки по строкам или {@link #BLOCKED}. **/
+    private final int[] labels;
+
+    /** Число ячеек в компоненте с данным номером; 0 для свободных номеров. **/
+    private int[] sizes;
+
+    /** Стек освободившихся номеров компонент. **/
+    private int[] freeIds;
+
+    /** Число номеров в {@link #freeIds}. **/
+    private int numFreeIds;
+
+    /** Наименьший номер, который еще ни разу не выдавался. **/
+    private int nextId;
+
+    /** Число компонент. **/
+    private int numComponents;
+
+
+    /**
+     * Строит индекс для карты в общем {@link ForkJoinPool} и подписывает его на изменения
+     * карты.
+     **/
+    public ReachabilityIndex(Map2D map)
+    {
+        this(map, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Строит индекс для карты в указанном пуле потоков и подписывает его на изменения карты.
+     * Карта не должна изменяться, пока выполняется конструктор.
+     **/
+    public ReachabilityIndex(Map2D map, ForkJoinPool pool)
+    {
+        if (map == null)
+            throw new NullPointerException("map cannot be null");
+
+        if (pool == null)
+            throw new NullPointerException("pool cannot be null");
+
+        long cells = (long) map.getWidth() * map.getHeight();
+        if (cells > Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException("map is too large for a reachability index: " +
+                    map.getWidth() + "x" + map.getHeight());
+        }
+
+        this.map = map;
+        width = map.getWidth();
+        height = map.getHeight();
+        labels = new int[(int) cells];
+
+        build(pool);
+        map.addChangeListener(this);
+    }
+
+    /** Возвращает карту, для которой построен индекс. **/
+    public Map2D getMap()
+    {
+        return map;
+    }
+
+    /** Возвращает true, если ячейка с такой стоимостью проходима. **/
+    private static boolean isPassable(int value)
+    {
+        return value < AStarPathfinder.COST_LIMIT;
+    }
+
+    /** Возвращает true, если ячейка (x, y) проходима. **/
+    private boolean isPassable(int x, int y)
+    {
+        return isPassable(map.getCellValueUnchecked(x, y));
+    }
+
+    /**
+     * Размечает компоненты. Каждая полоса строк объединяет свои ячейки независимо от других,
+     * затем последовательно объединяются соседние строки на границах полос, и множества
+     * получают номера компонент.
+     **/
+    private void build(ForkJoinPool pool)
+    {
+        final int[] parent = new int[labels.length];
+
+        int stripes = Math.max(1, Math.min(height, pool.getParallelism() * 4));
+        final int stripeHeight = (height + stripes - 1) / stripes;
+
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int from = 0; from < height; from += stripeHeight)
+        {
+            final int first = from;
+            final int last = Math.min(from + stripeHeight, height);
+
+            tasks.add(new Callable<Void>() {
+                public Void call()
+                {
+                    buildStripe(parent, first, last);
+                    return null;
+                }
+            });
+        }
+
+        ParallelTasks.invokeAll(pool, tasks, "reachability index build");
+
+        // Первая строка каждой полосы соединяется с последней строкой предыдущей.
+        for (int y = stripeHeight; y < height; y += stripeHeight)
+        {
+            for (int x = 0; x < width; x++)
+            {
+                int i = y * width + x;
+                if (parent[i] == BLOCKED)
+                    continue;
+
+                for (int dx = -1; dx <= 1; dx++)
+                {
+                    int nx = x + dx;
+                    if (nx >= 0 && nx < width && parent[i - width + dx] != BLOCKED)
+                        union(parent, i, i - width + dx);
+                }
+            }
+        }
+
+        // Корень множества — его наименьший индекс, поэтому корень получает номер раньше
+        // остальных ячеек.
+        sizes = new int[16];
+        freeIds = new int[16];
+        for (int i = 0; i < labels.length; i++)
+        {
+            if (parent[i] == BLOCKED)
+            {
+                labels[i] = BLOCKED;
+                continue;
+            }
+
+            int root = find(parent, i);
+            int id = (root == i) ? allocateId() : labels[root];
+            labels[i] = id;
+            sizes[id]++;
+        }
+    }
+
+    /** Объединяет проходимые ячейки строк [first, last) без обращения к другим полосам. **/
+    private void buildStripe(int[] parent, int first, int last)
+    {
+        for (int y = first; y < last; y++)
+        {
+            for (int x = 0; x < width; x++)
+            {
+                int i = y * width + x;
+                if (!isPassable(x, y))
+                {
+                    parent[i] = BLOCKED;
+                    continue;
+                }
+
+                parent[i] = i;
+
+                if (x > 0 && parent[i - 1] != BLOCKED)
+                    union(parent, i, i - 1);
+
+                if (y == first)
+                    continue;
+
+                for (int dx = -1; dx <= 1; dx++)
+                {
+                    int nx = x + dx;
+                    if (nx >= 0 && nx < width && parent[i - width + dx] != BLOCKED)
+                        union(parent, i, i - width + dx);
+                }
+            }
+        }
+    }
+
+    /** Возвращает корень множества ячейки, сокращая путь к нему вдвое. **/
+    private static int find(int[] parent, int i)
+    {
+        while (parent[i] != i)
+        {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    /** Объединяет множества двух ячеек; корнем становится меньший индекс. **/
+    private static void union(int[] parent, int a, int b)
+    {
+        int ra = find(parent, a);
+        int rb = find(parent, b);
+        if (ra < rb)
+            parent[rb] = ra;
+        else if (rb < ra)
+            parent[ra] = rb;
+    }
+
+    /** Выдает номер для новой компоненты с нулевым размером. **/
+    private int allocateId()
+    {
+        numComponents++;
+        if (numFreeIds > 0)
+            return freeIds[--numFreeIds];
+
+        if (nextId == sizes.length)
+            sizes = Arrays.copyOf(sizes, sizes.length * 2);
+        return nextId++;
+    }
+
+    /** Возвращает номер компоненты, которая исчезла. **/
+    private void releaseId(int id)
+    {
+        numComponents--;
+        sizes[id] = 0;
+        if (numFreeIds == freeIds.length)
+            freeIds = Arrays.copyOf(freeIds, freeIds.length * 2);
+        freeIds[numFreeIds++] = id;
+    }
+
+    /**
+     * Возвращает true, если из ячейки a можно дойти до ячейки b, не проходя через
+     * непроходимые ячейки. Начальная ячейка, как и в поиске A*, сама может быть
+     * непроходимой: из нее можно шагнуть в любую проходимую соседнюю.
+     **/
+    public synchronized boolean isReachable(int ax, int ay, int bx, int by)
+    {
+        if (!map.contains(ax, ay) || !map.contains(bx, by))
+            throw new IllegalArgumentException("both cells must be inside the map");
+
+        if (ax == bx && ay == by)
+            return true;
+
+        int target = labels[by * width + bx];
+        if (target == BLOCKED)
+            return false;
+
+        int source = labels[ay * width + ax];
+        if (source != BLOCKED)
+            return source == target;
+
+        for (int d = 0; d < GridDirections.COUNT; d++)
+        {
+            int nx = ax + GridDirections.getDeltaX(d);
+            int ny = ay + GridDirections.getDeltaY(d);
+            if (map.contains(nx, ny) && labels[ny * width + nx] == target)
+                return true;
+        }
+        return false;
+    }
+
+    /** Возвращает true, если из местоположения a можно дойти до местоположения b. **/
+    public boolean isReachable(Location a, Location b)
+    {
+        return isReachable(a.xCoord, a.yCoord, b.xCoord, b.yCoord);
+    }
+
+    /**
+     * Возвращает номер компоненты ячейки или {@link #BLOCKED}, если ячейка непроходима.
+     * Номера компонент могут меняться при изменении карты.
+     **/
+    public synchronized int getComponent(int x, int y)
+    {
+        if (!map.contains(x, y))
+            throw new IllegalArgumentException("cell must be inside the map");
+
+        return labels[y * width + x];
+    }
+
+    /** Возвращает число ячеек в компоненте ячейки или 0, если ячейка непроходима. **/
+    public synchronized int getComponentSize(int x, int y)
+    {
+        int id = getComponent(x, y);
+        return (id == BLOCKED) ? 0 : sizes[id];
+    }
+
+    /** Возвращает число связных компонент проходимых ячеек. **/
+    public synchronized int getComponentCount()
+    {
+        return numComponents;
+    }
+
+    /** Отписывает индекс от изменений карты. После этого индекс перестает обновляться. **/
+    public void dispose()
+    {
+        map.removeChangeListener(this);
+    }
+
+    /** Обновляет разметку, если ячейка стала проходимой или непроходимой. **/
+    public synchronized void cellChanged(Map2D map, int x, int y, int oldValue)
+    {
+        boolean was = isPassable(oldValue);
+        boolean now = isPassable(x, y);
+
+        if (was && !now)
+            cellBlocked(x, y);
+        else if (!was && now)
+            cellOpened(x, y);
+    }
+
+    /**
+     * Ячейка стала проходимой: она присоединяется к наибольшей из соседних компонент, а
+     * остальные соседние компоненты перекрашиваются в ее номер.
+     **/
+    private void cellOpened(int x, int y)
+    {
+        int target = BLOCKED;
+        for (int d = 0; d < GridDirections.COUNT; d++)
+        {
+            int nx = x + GridDirections.getDeltaX(d);
+            int ny = y + GridDirections.getDeltaY(d);
+            if (!map.contains(nx, ny))
+                continue;
+
+            int id = labels[ny * width + nx];
+            if (id != BLOCKED && (target == BLOCKED || sizes[id] > sizes[target]))
+                target = id;
+        }
+
+        int index = y * width + x;
+        if (target == BLOCKED)
+        {
+            target = allocateId();
+            labels[index] = target;
+            sizes[target] = 1;
+            return;
+        }
+
+        labels[index] = target;
+        sizes[target]++;
+
+        for (int d = 0; d < GridDirections.COUNT; d++)
+        {
+            int nx = x + GridDirections.getDeltaX(d);
+            int ny = y + GridDirections.getDeltaY(d);
+            if (!map.contains(nx, ny))
+                continue;
+
+            int id = labels[ny * width + nx];
+            if (id != BLOCKED && id != target)
+            {
+                sizes[target] += sizes[id];
+                relabel(ny * width + nx, id, target);
+                releaseId(id);
+            }
+        }
+    }
+
+    /** Перекрашивает компоненту <code>from</code>, содержащую ячейку, в номер <code>to</code>. **/
+    private void relabel(int seed, int from, int to)
+    {
+        IntQueue queue = new IntQueue();
+        labels[seed] = to;
+        queue.add(seed);
+
+        while (queue.head < queue.size)
+        {
+            int i = queue.items[queue.head++];
+            int cx = i % width;
+            int cy = i / width;
+
+            for (int d = 0; d < GridDirections.COUNT; d++)
+            {
+                int nx = cx + GridDirections.getDeltaX(d);
+                int ny = cy + GridDirections.getDeltaY(d);
+                if (!map.contains(nx, ny))
+                    continue;
+
+                int n = ny * width + nx;
+                if (labels[n] == from)
+                {
+                    labels[n] = to;
+                    queue.add(n);
+                }
+            }
+        }
+    }
+
+    /**
+     * Ячейка стала непроходимой. Ее проходимые соседи делятся на группы, связанные друг с
+     * другом в кольце вокруг ячейки; если группа одна, компонента не распалась. Иначе из
+     * каждой группы по очереди делается по одному шагу обхода в ширину: обходы, которые
+     * встретились, сливаются, а часть, обход которой закончился, получает новый номер. Когда
+     * незаконченной остается одна часть, она сохраняет прежний номер компоненты.
+     **/
+    private void cellBlocked(int x, int y)
+    {
+        int index = y * width + x;
+        int old = labels[index];
+        labels[index] = BLOCKED;
+        sizes[old]--;
+
+        // Проходимые соседи и группы, связанные в кольце.
+        int[] cells = new int[8];
+        int[] group = new int[8];
+        int n = 0;
+        for (int d = 0; d < GridDirections.COUNT; d++)
+        {
+            int nx = x + GridDirections.getDeltaX(d);
+            int ny = y + GridDirections.getDeltaY(d);
+            if (map.contains(nx, ny) && labels[ny * width + nx] == old)
+            {
+                cells[n] = ny * width + nx;
+                group[n] = n;
+                n++;
+            }
+        }
+
+        if (n == 0)
+        {
+            releaseId(old);
+            return;
+        }
+
+        for (int i = 0; i < n; i++)
+        {
+            for (int j = i + 1; j < n; j++)
+            {
+                if (Math.abs(cells[i] % width - cells[j] % width) <= 1 &&
+                        Math.abs(cells[i] / width - cells[j] / width) <= 1)
+                {
+                    union(group, i, j);
+                }
+            }
+        }
+
+        // Одна стартовая ячейка на группу.
+        int groups = 0;
+        int[] seeds = new int[8];
+        for (int i = 0; i < n; i++)
+        {
+            if (find(group, i) == i)
+                seeds[groups++] = cells[i];
+        }
+
+        if (groups == 1)
+            return;
+
+        splitComponent(old, seeds, groups);
+    }
+
+    /**
+     * Одновременно обходит компоненту <code>old</code> из нескольких стартовых ячеек. Каждый
+     * обход помечает посещенные ячейки своим временным номером, поэтому встречу двух обходов
+     * видно по номеру соседней ячейки.
+     **/
+    private void splitComponent(int old, int[] seeds, int count)
+    {
+        IntQueue[] queues = new IntQueue[count];
+        int[] ids = new int[count];
+        int[] piece = new int[count];
+        boolean[] finished = new boolean[count];
+
+        for (int g = 0; g < count; g++)
+        {
+            queues[g] = new IntQueue();
+            ids[g] = allocateId();
+            piece[g] = g;
+            labels[seeds[g]] = ids[g];
+            queues[g].add(seeds[g]);
+        }
+
+        int active = count;
+        while (active > 1)
+        {
+            for (int g = 0; g < count && active > 1; g++)
+            {
+                IntQueue q = queues[g];
+                if (q.head == q.size)
+                    continue;
+
+                int i = q.items[q.head++];
+                int cx = i % width;
+                int cy = i / width;
+
+                for (int d = 0; d < GridDirections.COUNT; d++)
+                {
+                    int nx = cx + GridDirections.getDeltaX(d);
+                    int ny = cy + GridDirections.getDeltaY(d);
+                    if (!map.contains(nx, ny))
+                        continue;
+
+                    int c = ny * width + nx;
+                    int label = labels[c];
+                    if (label == old)
+                    {
+                        labels[c] = ids[g];
+                        q.add(c);
+                        continue;
+                    }
+
+                    // Встреча с другим обходом: обе части — одна компонента.
+                    for (int h = 0; h < count; h++)
+                    {
+                        if (h != g && label == ids[h])
+                        {
+                            int pg = find(piece, g);
+                            int ph = find(piece, h);
+                            if (pg != ph)
+                            {
+                                union(piece, pg, ph);
+                                active--;
+                            }
+                            break;
+                        }
+                    }
+                }
+
+                // Часть закончилась, если ни у одного ее обхода не осталось ячеек.
+                int p = find(piece, g);
+                if (!finished[p] && q.head == q.size)
+                {
+                    boolean done = true;
+                    for (int h = 0; h < count; h++)
+                    {
+                        if (find(piece, h) == p && queues[h].head < queues[h].size)
+                            done = false;
+                    }
+                    if (done)
+                    {
+                        finished[p] = true;
+                        active--;
+                    }
+                }
+            }
+        }
+
+        // Законченные части получают номер своего корневого обхода, а незаконченная часть
+        // возвращает прежний номер.
+        for (int g = 0; g < count; g++)
+        {
+            int p = find(piece, g);
+            int target = finished[p] ? ids[p] : old;
+            IntQueue q = queues[g];
+
+            if (target != ids[g])
+            {
+                for (int k = 0; k < q.size; k++)
+                    labels[q.items[k]] = target;
+            }
+
+            if (finished[p])
+            {
+                sizes[target] += q.size;
+                sizes[old] -= q.size;
+            }
+        }
+
+        for (int g = 0; g < count; g++)
+        {
+            int p = find(piece, g);
+            if (!finished[p] || p != g)
+                releaseId(ids[g]);
+        }
+    }
+
+
+    /** Простая очередь целых чисел, которая хранит все добавленные элементы. **/
+    private static final class IntQueue
+    {
+        int[] items = new int[64];
+        int head;
+        int size;
+
+        void add(int value)
+        {
+            if (size == items.length)
+                items = Arrays.copyOf(items, size * 2);
+            items[size++] = value;
+        }
+    }
+}
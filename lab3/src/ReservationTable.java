@@ -0,0 +1,217 @@
+import java.util.Arrays;
+
+
+/**
+ * Этот класс представляет собой таблицу резервирования в пространстве-времени для совместного
+ * поиска путей нескольких агентов: для каждой пары (ячейка, момент времени) хранится номер
+ * агента, который будет в этой ячейке в этот момент. Таблица — хеш-таблица с открытой
+ * адресацией по упакованным ключам <code>(время << 32) | ячейка</code>, поэтому занимает
+ * память только под сделанные резервирования и не создает объектов при работе.
+ * <p>
+ * Ячейки задаются индексами <code>y * width + x</code>, время — неотрицательным номером шага.
+ * Объект не является потокобезопасным.
+ **/
+public class ReservationTable
+{
+    /** Значение {@link #getOwner}, если ячейка в этот момент свободна. **/
+    public static final int FREE = -1;
+
+    /** Ключ пустой позиции таблицы; не совпадает ни с одним ключом с неотрицательным временем. **/
+    private static final long EMPTY = -1L;
+
+    /** Упакованные ключи; {@link #EMPTY} в свободных позициях. **/
+    private long[] keys;
+
+    /** Агенты, параллельные массиву {@link #keys}. **/
+    private int[] owners;
+
+    /** Количество резервирований в таблице. **/
+    private int size;
+
+
+    /** Создает пустую таблицу. **/
+    public ReservationTable()
+    {
+        this(256);
+    }
+
+    /** Создает пустую таблицу, в которую помещается указанное число резервирований без роста. **/
+    public ReservationTable(int expectedSize)
+    {
+        if (expectedSize < 0)
+        {
+            throw new IllegalArgumentException("expectedSize must be >= 0; got " +
+                    expectedSize);
+        }
+
+        int capacity = 16;
+        while (capacity < expectedSize * 2)
+            capacity *= 2;
+
+        keys = new long[capacity];
+        owners = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+    }
+
+    /**
+     * Резервирует ячейку в указанный момент для агента. Возвращает false и ничего не меняет,
+     * если эту пару (ячейка, время) уже зарезервировал другой агент: чужое резервирование
+     * никогда не заменяется.
+     **/
+    public boolean reserve(int cell, int time, int agent)
+    {
+        if (cell < 0 || time < 0 || agent < 0)
+        {
+            throw new IllegalArgumentException("cell, time and agent must be >= 0; got " +
+                    cell + ", " + time + ", " + agent);
+        }
+
+        if ((size + 1) * 2 > keys.length)
+            grow();
+
+        long key = pack(cell, time);
+        int i = find(key);
+        if (keys[i] != EMPTY)
+            return owners[i] == agent;
+
+        keys[i] = key;
+        owners[i] = agent;
+        size++;
+        return true;
+    }
+
+    /**
+     * Снимает резервирование ячейки в указанный момент, если его сделал этот агент, и
+     * возвращает true; иначе ничего не меняет и возвращает false.
+     **/
+    public boolean release(int cell, int time, int agent)
+    {
+        if (cell < 0 || time < 0)
+            return false;
+
+        int i = find(pack(cell, time));
+        if (keys[i] == EMPTY || owners[i] != agent)
+            return false;
+
+        // Ключи, которые при вставке прошли мимо освобожденной позиции, сдвигаются в нее,
+        // чтобы поиск по-прежнему находил их, не встречая пустой позиции.
+        int mask = keys.length - 1;
+        int j = i;
+        while (true)
+        {
+            j = (j + 1) & mask;
+            if (keys[j] == EMPTY)
+                break;
+
+            int home = slot(keys[j]);
+            boolean between = (i <= j) ? (i < home && home <= j) : (i < home || home <= j);
+            if (!between)
+            {
+                keys[i] = keys[j];
+                owners[i] = owners[j];
+                i = j;
+            }
+        }
+
+        keys[i] = EMPTY;
+        size--;
+        return true;
+    }
+
+    /**
+     * Возвращает агента, зарезервировавшего ячейку в указанный момент, или {@link #FREE}.
+     **/
+    public int getOwner(int cell, int time)
+    {
+        if (cell < 0 || time < 0)
+            return FREE;
+
+        int i = find(pack(cell, time));
+        return (keys[i] == EMPTY) ? FREE : owners[i];
+    }
+
+    /** Возвращает true, если ячейка в указанный момент свободна или занята этим же агентом. **/
+    public boolean isFree(int cell, int time, int agent)
+    {
+        int owner = getOwner(cell, time);
+        return owner == FREE || owner == agent;
+    }
+
+    /**
+     * Возвращает true, если агент может перейти из ячейки <code>from</code> в момент
+     * <code>time</code> в ячейку <code>to</code> в момент <code>time + 1</code>: ячейка
+     * назначения свободна, и другой агент не идет навстречу по тому же ребру. Ожидание на
+     * месте задается равными <code>from</code> и <code>to</code>.
+     **/
+    public boolean canMove(int from, int to, int time, int agent)
+    {
+        if (!isFree(to, time + 1, agent))
+            return false;
+
+        if (from == to)
+            return true;
+
+        int other = getOwner(to, time);
+        return other == FREE || other == agent || getOwner(from, time + 1) != other;
+    }
+
+    /** Возвращает количество резервирований в таблице. **/
+    public int size()
+    {
+        return size;
+    }
+
+    /** Удаляет все резервирования; память таблицы сохраняется для повторного использования. **/
+    public void clear()
+    {
+        if (size == 0)
+            return;
+
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+    }
+
+    /** Упаковывает ячейку и время в ключ таблицы. **/
+    private static long pack(int cell, int time)
+    {
+        return ((long) time << 32) | (cell & 0xffffffffL);
+    }
+
+    /** Возвращает позицию ключа или пустую позицию, в которую его нужно поместить. **/
+    private int find(long key)
+    {
+        int mask = keys.length - 1;
+        int i = slot(key);
+        while (keys[i] != EMPTY && keys[i] != key)
+            i = (i + 1) & mask;
+        return i;
+    }
+
+    /** Возвращает позицию, с которой начинается поиск ключа. **/
+    private int slot(long key)
+    {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & (keys.length - 1);
+    }
+
+    /** Увеличивает таблицу вдвое и заново размещает резервирования. **/
+    private void grow()
+    {
+        long[] oldKeys = keys;
+        int[] oldOwners = owners;
+
+        keys = new long[oldKeys.length * 2];
+        owners = new int[oldKeys.length * 2];
+        Arrays.fill(keys, EMPTY);
+
+        for (int j = 0; j < oldKeys.length; j++)
+        {
+            if (oldKeys[j] != EMPTY)
+            {
+                int i = find(oldKeys[j]);
+                keys[i] = oldKeys[j];
+                owners[i] = oldOwners[j];
+            }
+        }
+    }
+}
@@ -0,0 +1,188 @@
+import java.util.Arrays;
+
+
+/**
+ * Этот класс вычисляет точную стоимость кратчайшего пути от любой ячейки до одной конечной
+ * ячейки обратным возобновляемым поиском (Reverse Resumable A*). Поиск идет от конечной
+ * ячейки к первой запрошенной ячейке и останавливается, как только стоимость запрошенной
+ * ячейки известна; следующий запрос продолжает тот же поиск с места остановки. Поэтому
+ * эвристику выгодно разделять между всеми агентами с одной целью: каждая ячейка раскрывается
+ * не более одного раза на все их запросы.
+ * <p>
+ * Стоимости учитывают значения ячеек так же, как {@link AStarPathfinder}. Если карта
+ * изменилась ({@link Map2D#getVersion()}), поиск начинается заново. Объект занимает память,
+ * пропорциональную размеру карты, и не является потокобезопасным.
+ **/
+public class ReverseResumableHeuristic implements Heuristic
+{
+    /** Карта, по которой ведется поиск. **/
+    private final Map2D map;
+
+    /** Конечная ячейка. **/
+    private final int goalX;
+    private final int goalY;
+
+    /** Стоимость пути от ячейки до конечной ячейки; точная для закрытых ячеек. **/
+    private final float[] dist;
+
+    /** Ячейки, стоимость которых окончательна. **/
+    private final boolean[] closed;
+
+    /** Открытый список обратного поиска. **/
+    private final NodeHeap open;
+
+    /** Ячейка, к которой направлен поиск; первая запрошенная после сброса. **/
+    private int originX;
+    private int originY;
+
+    /** Версия карты, для которой действительны стоимости, или -1 до первого запроса. **/
+    private long version = -1;
+
+    /** Количество ячеек, раскрытых с последнего сброса. **/
+    private long expanded;
+
+
+    /** Создает эвристику для пути к указанной ячейке карты. **/
+    public ReverseResumableHeuristic(Map2D map, Location goal)
+    {
+        if (map == null)
+            throw new NullPointerException("map cannot be null");
+
+        if (goal == null)
+            throw new NullPointerException("goal cannot be null");
+
+        if (!map.contains(goal.xCoord, goal.yCoord))
+            throw new IllegalArgumentException("goal must be inside the map");
+
+        long cells = (long) map.getWidth() * map.getHeight();
+        if (cells > Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException("map is too large: " + map.getWidth() + "x" +
+                    map.getHeight());
+        }
+
+        this.map = map;
+        goalX = goal.xCoord;
+        goalY = goal.yCoord;
+
+        dist = new float[(int) cells];
+        closed = new boolean[(int) cells];
+        open = new NodeHeap((int) cells);
+    }
+
+    /** Возвращает карту эвристики. **/
+    public Map2D getMap()
+    {
+        return map;
+    }
+
+    /** Возвращает конечную ячейку. **/
+    public Location getGoal()
+    {
+        return new Location(goalX, goalY);
+    }
+
+    /**
+     * Возвращает стоимость кратчайшего пути от ячейки (x, y) до конечной ячейки или
+     * {@link Float#POSITIVE_INFINITY}, если пути нет. При необходимости продолжает поиск.
+     **/
+    public float getDistance(int x, int y)
+    {
+        if (!map.contains(x, y))
+            throw new IllegalArgumentException("cell must be inside the map");
+
+        if (version != map.getVersion())
+            reset(x, y);
+
+        int target = y * map.getWidth() + x;
+        resume(target);
+        return dist[target];
+    }
+
+    /**
+     * Возвращает точную стоимость пути, если <code>(finishX, finishY)</code> — конечная
+     * ячейка этой эвристики, и расстояние по прямой для любой другой конечной ячейки.
+     **/
+    public float estimateTravelCost(int x, int y, int finishX, int finishY)
+    {
+        if (finishX != goalX || finishY != goalY)
+            return AStarPathfinder.estimateTravelCost(x, y, finishX, finishY);
+
+        return getDistance(x, y);
+    }
+
+    /** Возвращает количество ячеек, раскрытых с последнего изменения карты. **/
+    public long getNodesExpanded()
+    {
+        return expanded;
+    }
+
+    /** Начинает обратный поиск заново, направляя его к ячейке (x, y). **/
+    private void reset(int x, int y)
+    {
+        version = map.getVersion();
+        originX = x;
+        originY = y;
+        expanded = 0;
+
+        Arrays.fill(dist, Float.POSITIVE_INFINITY);
+        Arrays.fill(closed, false);
+        open.clear();
+
+        int goal = goalY * map.getWidth() + goalX;
+        dist[goal] = 0;
+        float h = AStarPathfinder.estimateTravelCost(goalX, goalY, originX, originY);
+        open.update(goal, h, h);
+    }
+
+    /**
+     * Раскрывает ячейки, пока стоимость указанной ячейки не станет окончательной или
+     * открытый список не опустеет. Расстояние по прямой до ячейки, к которой направлен
+     * поиск, согласовано, поэтому стоимости закрытых ячеек точны при любом порядке запросов.
+     **/
+    private void resume(int target)
+    {
+        int width = map.getWidth();
+        while (!closed[target] && !open.isEmpty())
+        {
+            int current = open.poll();
+            closed[current] = true;
+            expanded++;
+
+            int cx = current % width;
+            int cy = current / width;
+
+            // Шаг из соседа в текущую ячейку стоит шаг плюс значение текущей ячейки.
+            int enterCost = map.getCellValueUnchecked(cx, cy);
+
+            for (int y = cy - 1; y <= cy + 1; y++)
+            {
+                for (int x = cx - 1; x <= cx + 1; x++)
+                {
+                    if (!map.contains(x, y))
+                        continue;
+
+                    if (x == cx && y == cy)
+                        continue;
+
+                    int next = y * width + x;
+                    if (closed[next])
+                        continue;
+
+                    float step = AStarPathfinder.stepCost(x - cx, y - cy, enterCost);
+
+                    if (step >= AStarPathfinder.COST_LIMIT)
+                        continue;
+
+                    float cost = dist[current] + step;
+                    if (cost >= dist[next])
+                        continue;
+
+                    dist[next] = cost;
+                    float h = AStarPathfinder.estimateTravelCost(x, y, originX, originY);
+                    open.update(next, cost + h, h);
+                }
+            }
+        }
+    }
+}
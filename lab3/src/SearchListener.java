@@ -0,0 +1,14 @@
+/**
+ * Этот интерфейс получает уведомления о ходе поиска пути. Методы вызываются из потока, в
+ * котором идет поиск, для каждой ячейки, поэтому их реализация должна быть быстрой.
+ **/
+public interface SearchListener
+{
+    /**
+     * Вызывается, когда ячейка добавляется в открытый список или получает более дешевый путь.
+     **/
+    void nodeOpened(int x, int y, float prevCost, float remainingCost);
+
+    /** Вызывается перед раскрытием ячейки, то есть при переносе её в закрытый список. **/
+    void nodeExpanded(int x, int y, float prevCost, float remainingCost);
+}
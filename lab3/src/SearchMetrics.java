@@ -0,0 +1,219 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Этот класс накапливает метрики поиска пути по всем поискам: счетчики поисков и раскрытых
+ * ячеек и гистограммы времени поиска и числа раскрытых ячеек. Запись безопасна для вызова из
+ * многих потоков одновременно и не создает объектов. Метод {@link #export()} выдает метрики в
+ * текстовом формате Prometheus, чтобы их можно было собирать и строить по ним оповещения.
+ **/
+public class SearchMetrics
+{
+    /** Общий реестр процесса. **/
+    private static final SearchMetrics DEFAULT = new SearchMetrics("lab3_path_search");
+
+    /** Префикс имен метрик. **/
+    private final String prefix;
+
+    /** Количество поисков. **/
+    private final LongAdder searches = new LongAdder();
+
+    /** Количество поисков, в которых путь не найден. **/
+    private final LongAdder notFound = new LongAdder();
+
+    /** Суммарное количество раскрытых ячеек. **/
+    private final LongAdder expanded = new LongAdder();
+
+    /** Суммарное количество ячеек, добавленных в открытый список. **/
+    private final LongAdder generated = new LongAdder();
+
+    /** Время поиска в микросекундах. **/
+    private final Histogram latency = new Histogram();
+
+    /** Количество раскрытых ячеек за поиск. **/
+    private final Histogram expansions = new Histogram();
+
+    /** Создает реестр, имена метрик которого начинаются с указанного префикса. **/
+    public SearchMetrics(String prefix)
+    {
+        if (prefix == null)
+            throw new NullPointerException("prefix cannot be null");
+
+        this.prefix = prefix;
+    }
+
+    /** Возвращает общий реестр процесса. **/
+    public static SearchMetrics getDefault()
+    {
+        return DEFAULT;
+    }
+
+    /** Записывает результаты одного поиска. **/
+    public void record(SearchStats stats)
+    {
+        searches.increment();
+        if (!stats.isFound())
+            notFound.increment();
+
+        expanded.add(stats.getNodesExpanded());
+        generated.add(stats.getNodesGenerated());
+
+        latency.record(stats.getNanos() / 1000);
+        expansions.record(stats.getNodesExpanded());
+    }
+
+    /** Возвращает количество записанных поисков. **/
+    public long getSearchCount()
+    {
+        return searches.sum();
+    }
+
+    /** Возвращает количество поисков, в которых путь не найден. **/
+    public long getNotFoundCount()
+    {
+        return notFound.sum();
+    }
+
+    /**
+     * Возвращает верхнюю границу указанного процентиля времени поиска в микросекундах с
+     * точностью до степени двойки, например <code>getLatencyPercentile(0.99)</code>.
+     **/
+    public long getLatencyPercentile(double p)
+    {
+        return latency.percentile(p);
+    }
+
+    /** Сбрасывает все метрики. **/
+    public void reset()
+    {
+        searches.reset();
+        notFound.reset();
+        expanded.reset();
+        generated.reset();
+        latency.reset();
+        expansions.reset();
+    }
+
+    /** Возвращает все метрики в текстовом формате Prometheus. **/
+    public String export()
+    {
+        StringBuilder sb = new StringBuilder();
+
+        counter(sb, prefix + "_total", "Number of path searches.", searches.sum());
+        counter(sb, prefix + "_not_found_total", "Number of searches that found no path.",
+                notFound.sum());
+        counter(sb, prefix + "_nodes_expanded_total", "Number of expanded cells.",
+                expanded.sum());
+        counter(sb, prefix + "_nodes_generated_total", "Number of opened cells.",
+                generated.sum());
+
+        latency.export(sb, prefix + "_duration_microseconds", "Path search duration.");
+        expansions.export(sb, prefix + "_expanded_nodes", "Cells expanded per search.");
+
+        return sb.toString();
+    }
+
+    /** Выводит один счетчик. **/
+    private static void counter(StringBuilder sb, String name, String help, long value)
+    {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" counter\n");
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    /**
+     * Гистограмма с корзинами по степеням двойки: в корзину i попадают значения из
+     * диапазона (2^(i-1), 2^i], в корзину 0 — нули и единицы.
+     **/
+    private static class Histogram
+    {
+        /** Количество корзин: хватает для любого неотрицательного long. **/
+        private static final int BUCKETS = 64;
+
+        /** Количество значений в каждой корзине. **/
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+        /** Сумма значений. **/
+        private final LongAdder sum = new LongAdder();
+
+        /** Записывает значение. **/
+        void record(long value)
+        {
+            if (value < 0)
+                value = 0;
+
+            counts.incrementAndGet(bucketOf(value));
+            sum.add(value);
+        }
+
+        /** Номер корзины для значения. **/
+        private static int bucketOf(long value)
+        {
+            return value <= 1 ? 0 : 64 - Long.numberOfLeadingZeros(value - 1);
+        }
+
+        /** Верхняя граница корзины. **/
+        private static long upperBound(int bucket)
+        {
+            return bucket >= 63 ? Long.MAX_VALUE : 1L << bucket;
+        }
+
+        /** Возвращает верхнюю границу корзины, в которую попадает процентиль p. **/
+        long percentile(double p)
+        {
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++)
+                total += counts.get(i);
+            if (total == 0)
+                return 0;
+
+            long rank = (long) Math.ceil(p * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++)
+            {
+                seen += counts.get(i);
+                if (seen >= rank)
+                    return upperBound(i);
+            }
+            return Long.MAX_VALUE;
+        }
+
+        /** Сбрасывает гистограмму. **/
+        void reset()
+        {
+            for (int i = 0; i < BUCKETS; i++)
+                counts.set(i, 0);
+            sum.reset();
+        }
+
+        /** Выводит гистограмму с накопленными корзинами, пропуская пустой хвост. **/
+        void export(StringBuilder sb, String name, String help)
+        {
+            sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+            sb.append("# TYPE ").append(name).append(" histogram\n");
+
+            long total = 0;
+            int last = -1;
+            for (int i = 0; i < BUCKETS; i++)
+            {
+                long c = counts.get(i);
+                total += c;
+                if (c != 0)
+                    last = i;
+            }
+
+            long cumulative = 0;
+            for (int i = 0; i <= last && i < BUCKETS - 1; i++)
+            {
+                cumulative += counts.get(i);
+                sb.append(name).append("_bucket{le=\"").append(upperBound(i)).append("\"} ")
+                        .append(cumulative).append('\n');
+            }
+
+            sb.append(name).append("_bucket{le=\"+Inf\"} ").append(total).append('\n');
+            sb.append(name).append("_sum ").append(sum.sum()).append('\n');
+            sb.append(name).append("_count ").append(total).append('\n');
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/**
+ * Этот класс содержит необязательные параметры поиска пути для
+ * {@link PathfinderContext#computePath(Map2D, int, int, int, int, PathResult, SearchOptions)}.
+ * По умолчанию все параметры выключены, и поиск с такими параметрами работает так же, как
+ * без них. Объект можно использовать повторно для многих поисков, но не из нескольких потоков
+ * одновременно, если в нем задана статистика или слушатель.
+ **/
+public class SearchOptions
+{
+    /** Статистика, которую заполняет поиск, или <code>null</code>. **/
+    private SearchStats stats;
+
+    /** Слушатель хода поиска или <code>null</code>. **/
+    private SearchListener listener;
+
+    /** Реестр метрик, в который записывается каждый поиск, или <code>null</code>. **/
+    private SearchMetrics metrics;
+
+    /** Индекс связных компонент для быстрого отказа или <code>null</code>. **/
+    private ReachabilityIndex reachability;
+
+    /** Эвристика поиска или <code>null</code> для расстояния по прямой. **/
+    private Heuristic heuristic;
+
+    /** Вес эвристики; 1 для обычного A*. **/
+    private float weight = 1;
+
+    /** True, если задан срок поиска. **/
+    private boolean hasDeadline;
+
+    /** Срок поиска по {@link System#nanoTime()}. **/
+    private long deadlineNanos;
+
+    /** Наибольшее число раскрытых ячеек. **/
+    private long maxExpansions = Long.MAX_VALUE;
+
+    /** Токен отмены или <code>null</code>. **/
+    private CancellationToken cancellationToken;
+
+    /** Возвращает статистику, которую заполняет поиск, или <code>null</code>. **/
+    public SearchStats getStats()
+    {
+        return stats;
+    }
+
+    /** Задает статистику, которую будет заполнять поиск; <code>null</code> выключает её. **/
+    public void setStats(SearchStats stats)
+    {
+        this.stats = stats;
+    }
+
+    /** Возвращает слушатель хода поиска или <code>null</code>. **/
+    public SearchListener getListener()
+    {
+        return listener;
+    }
+
+    /** Задает слушатель хода поиска; <code>null</code> выключает уведомления. **/
+    public void setListener(SearchListener listener)
+    {
+        this.listener = listener;
+    }
+
+    /** Возвращает реестр метрик или <code>null</code>. **/
+    public SearchMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * Задает реестр метрик, в который записывается каждый поиск, например
+     * {@link SearchMetrics#getDefault()}; <code>null</code> выключает запись.
+     **/
+    public void setMetrics(SearchMetrics metrics)
+    {
+        this.metrics = metrics;
+    }
+
+    /** Возвращает индекс связных компонент или <code>null</code>. **/
+    public ReachabilityIndex getReachability()
+    {
+        return reachability;
+    }
+
+    /**
+     * Задает индекс связных компонент карты. Если по индексу конечная ячейка недостижима из
+     * начальной, поиск сразу возвращает отсутствие пути, не раскрывая ни одной ячейки.
+     * Индекс должен быть построен для той же карты, по которой выполняется поиск;
+     * <code>null</code> выключает проверку.
+     **/
+    public void setReachability(ReachabilityIndex reachability)
+    {
+        this.reachability = reachability;
+    }
+
+    /** Возвращает эвристику поиска или <code>null</code> для расстояния по прямой. **/
+    public Heuristic getHeuristic()
+    {
+        return heuristic;
+    }
+
+    /**
+     * Задает эвристику поиска, например {@link LandmarkHeuristic}; <code>null</code>
+     * возвращает расстояние по прямой. Эвристика должна быть согласованной (см.
+     * {@link Heuristic}), иначе найденный путь может оказаться не кратчайшим.
+     **/
+    public void setHeuristic(Heuristic heuristic)
+    {
+        this.heuristic = heuristic;
+    }
+
+    /** Возвращает вес эвристики; 1 означает обычный A*. **/
+    public float getWeight()
+    {
+        return weight;
+    }
+
+    /**
+     * Задает вес эвристики для взвешенного A*: ячейки упорядочиваются по g + w·h. Чем больше
+     * вес, тем меньше ячеек раскрывает поиск, а стоимость найденного пути при согласованной
+     * эвристике не превышает стоимость кратчайшего, умноженную на вес. Оценки оставшейся
+     * стоимости в результате поиска также умножены на вес.
+     **/
+    public void setWeight(float weight)
+    {
+        if (!(weight >= 1) || Float.isInfinite(weight))
+        {
+            throw new IllegalArgumentException("weight must be a finite value >= 1, got " +
+                    weight);
+        }
+
+        this.weight = weight;
+    }
+
+    /** Возвращает true, если задан срок поиска. **/
+    public boolean hasDeadline()
+    {
+        return hasDeadline;
+    }
+
+    /** Возвращает срок поиска по {@link System#nanoTime()}; имеет смысл, если он задан. **/
+    public long getDeadline()
+    {
+        return deadlineNanos;
+    }
+
+    /**
+     * Задает срок поиска — значение {@link System#nanoTime()}, после которого поиск
+     * останавливается и возвращает частичный результат ({@link SearchStatus#PARTIAL}). Срок
+     * проверяется раз в несколько сотен раскрытых ячеек.
+     **/
+    public void setDeadline(long deadlineNanos)
+    {
+        this.deadlineNanos = deadlineNanos;
+        hasDeadline = true;
+    }
+
+    /** Снимает срок поиска. **/
+    public void clearDeadline()
+    {
+        hasDeadline = false;
+    }
+
+    /** Возвращает наибольшее число раскрытых ячеек или {@link Long#MAX_VALUE}. **/
+    public long getMaxExpansions()
+    {
+        return maxExpansions;
+    }
+
+    /**
+     * Задает бюджет поиска: если раскрыто столько ячеек, а путь еще не найден, поиск
+     * останавливается и возвращает частичный результат.
+     **/
+    public void setMaxExpansions(long maxExpansions)
+    {
+        if (maxExpansions <= 0)
+        {
+            throw new IllegalArgumentException("maxExpansions must be positive, got " +
+                    maxExpansions);
+        }
+
+        this.maxExpansions = maxExpansions;
+    }
+
+    /** Возвращает токен отмены или <code>null</code>. **/
+    public CancellationToken getCancellationToken()
+    {
+        return cancellationToken;
+    }
+
+    /**
+     * Задает токен, через который поиск можно отменить из другого потока; отмененный поиск
+     * возвращает частичный результат. <code>null</code> выключает отмену.
+     **/
+    public void setCancellationToken(CancellationToken cancellationToken)
+    {
+        this.cancellationToken = cancellationToken;
+    }
+
+    /**
+     * Возвращает true, если ни один параметр не включен и поиск с этими параметрами работает
+     * так же, как без них.
+     **/
+    boolean isDefault()
+    {
+        return stats == null && listener == null && metrics == null && reachability == null &&
+                heuristic == null && weight == 1 && !hasDeadline &&
+                maxExpansions == Long.MAX_VALUE && cancellationToken == null;
+    }
+}
@@ -0,0 +1,40 @@
+/**
+ * Этот интерфейс описывает состояние, необходимое алгоритму A* для вычисления пути по карте:
+ * набор «открытых путевых точек» и набор «закрытых путевых точек». Через него
+ * {@link AStarPathfinder} может работать как с {@link AStarState} на хэш-картах, так и с
+ * {@link GridSearchState} на плоских массивах.
+ **/
+public interface SearchState
+{
+    /** Возвращает карту, по которой перемещается навигатор A*. **/
+    Map2D getMap();
+
+    /**
+     * Возвращает открытую путевую точку с минимальной общей стоимостью или <code>null</code>,
+     * если открытых путевых точек нет.
+     **/
+    Waypoint getMinOpenWaypoint();
+
+    /**
+     * Добавляет путевую точку в коллекцию «открытых путевых точек» или заменяет открытую путевую
+     * точку в том же месте, если у новой точки меньше «предыдущая стоимость». Возвращает true,
+     * если коллекция изменилась.
+     **/
+    boolean addOpenWaypoint(Waypoint newWP);
+
+    /** Возвращает текущее количество открытых путевых точек. **/
+    int numOpenWaypoints();
+
+    /** Перемещает путевую точку в указанном месте из открытого списка в закрытый список. **/
+    void closeWaypoint(Location loc);
+
+    /** Возвращает true, если указанное местоположение находится в закрытом списке. **/
+    boolean isLocationClosed(Location loc);
+
+    /**
+     * Возвращает путевую точку, записанную для указанного места (открытую или закрытую), вместе со
+     * всей цепочкой предыдущих путевых точек до начала пути, или <code>null</code>, если такой
+     * точки нет.
+     **/
+    Waypoint getWaypoint(Location loc);
+}
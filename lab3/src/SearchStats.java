@@ -0,0 +1,118 @@
+/**
+ * Этот класс хранит статистику одного поиска пути: сколько ячеек было раскрыто и добавлено в
+ * открытый список, наибольший размер открытого списка, число вычислений эвристики и время
+ * поиска. Объект заполняется поиском, если передан через {@link SearchOptions}, и
+ * переиспользуется: каждый новый поиск сначала сбрасывает его.
+ **/
+public class SearchStats
+{
+    /** Количество раскрытых ячеек. **/
+    long expanded;
+
+    /** Количество ячеек, впервые добавленных в открытый список. **/
+    long generated;
+
+    /** Количество случаев, когда ячейка в открытом списке получила более дешевый путь. **/
+    long reopened;
+
+    /** Наибольший размер открытого списка. **/
+    int peakOpen;
+
+    /** Количество ячеек в закрытом списке к концу поиска. **/
+    long closed;
+
+    /** Количество вычислений эвристики. **/
+    long heuristicCalls;
+
+    /** Время поиска в наносекундах. **/
+    long nanos;
+
+    /** True, если путь был найден. **/
+    boolean found;
+
+    /** Сбрасывает все счетчики. **/
+    public void reset()
+    {
+        expanded = 0;
+        generated = 0;
+        reopened = 0;
+        peakOpen = 0;
+        closed = 0;
+        heuristicCalls = 0;
+        nanos = 0;
+        found = false;
+    }
+
+    /** Возвращает количество раскрытых ячеек. **/
+    public long getNodesExpanded()
+    {
+        return expanded;
+    }
+
+    /** Возвращает количество ячеек, добавленных в открытый список. **/
+    public long getNodesGenerated()
+    {
+        return generated;
+    }
+
+    /**
+     * Возвращает количество случаев, когда ячейка, уже находившаяся в открытом списке, снова
+     * открывалась с более дешевым путем. Закрытые ячейки при согласованной эвристике повторно
+     * не открываются.
+     **/
+    public long getNodesReopened()
+    {
+        return reopened;
+    }
+
+    /** Возвращает наибольший размер открытого списка за время поиска. **/
+    public int getPeakOpenSize()
+    {
+        return peakOpen;
+    }
+
+    /** Возвращает количество ячеек в закрытом списке к концу поиска. **/
+    public long getClosedSize()
+    {
+        return closed;
+    }
+
+    /** Возвращает количество вычислений эвристики. **/
+    public long getHeuristicCalls()
+    {
+        return heuristicCalls;
+    }
+
+    /** Возвращает время поиска в наносекундах. **/
+    public long getNanos()
+    {
+        return nanos;
+    }
+
+    /** Возвращает true, если путь был найден. **/
+    public boolean isFound()
+    {
+        return found;
+    }
+
+    /** Переносит показатели указанной статистики в эту. **/
+    public void copyFrom(SearchStats other)
+    {
+        expanded = other.expanded;
+        generated = other.generated;
+        reopened = other.reopened;
+        peakOpen = other.peakOpen;
+        closed = other.closed;
+        heuristicCalls = other.heuristicCalls;
+        nanos = other.nanos;
+        found = other.found;
+    }
+
+    public String toString()
+    {
+        return "SearchStats[found=" + found + ", expanded=" + expanded +
+                ", generated=" + generated + ", reopened=" + reopened +
+                ", peakOpen=" + peakOpen + ", closed=" + closed +
+                ", heuristicCalls=" + heuristicCalls + ", nanos=" + nanos + "]";
+    }
+}
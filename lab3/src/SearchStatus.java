@@ -0,0 +1,18 @@
+/**
+ * Состояние результата поиска пути ({@link PathResult#getStatus()}).
+ **/
+public enum SearchStatus
+{
+    /** Путь до конечной ячейки найден. **/
+    COMPLETE,
+
+    /**
+     * Поиск остановлен раньше времени: истек срок, исчерпан бюджет раскрытых ячеек или поиск
+     * отменен. Результат содержит путь до ячейки с наименьшей оценкой оставшейся стоимости
+     * среди раскрытых, по которому можно начать движение, пока поиск продолжается.
+     **/
+    PARTIAL,
+
+    /** Путь не существует или поиск еще не выполнялся. **/
+    NOT_FOUND
+}
@@ -26,6 +26,12 @@ public class Waypoint {
      **/
     private float remainingCost;
 
+    /**
+     * Позиция этой путевой точки в {@link WaypointHeap} или -1, если она не находится в куче.
+     * Стоимости путевой точки нельзя изменять, пока она находится в куче.
+     **/
+    int heapIndex = -1;
+
 
     /**
      * Построить новую путевую точку для указанного места. Предыдущая путевая точка
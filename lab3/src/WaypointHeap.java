@@ -0,0 +1,153 @@
+/**
+ * Этот класс представляет собой индексированную двоичную кучу путевых точек, упорядоченную по
+ * общей стоимости ({@link Waypoint#getTotalCost()}). При равной общей стоимости раньше
+ * извлекается путевая точка с меньшей эвристической оценкой ({@link Waypoint#getRemainingCost()}),
+ * поэтому порядок извлечения не зависит от порядка вставки в хэш-карту.
+ * Каждая путевая точка хранит свой индекс в куче, что позволяет за O(log n) заменять её
+ * более дешевой путевой точкой (операция decrease-key).
+ **/
+public class WaypointHeap
+{
+    /** Элементы кучи; корень находится в нулевой ячейке. **/
+    private Waypoint[] heap;
+
+    /** Количество путевых точек в куче. **/
+    private int size;
+
+    /** Создает пустую кучу с небольшой начальной емкостью. **/
+    public WaypointHeap()
+    {
+        heap = new Waypoint[64];
+    }
+
+    /** Возвращает количество путевых точек в куче. **/
+    public int size()
+    {
+        return size;
+    }
+
+    /** Возвращает true, если куча пуста. **/
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    /** Возвращает путевую точку с минимальной стоимостью, не удаляя её, или <code>null</code>. **/
+    public Waypoint peek()
+    {
+        return size == 0 ? null : heap[0];
+    }
+
+    /** Добавляет путевую точку в кучу. **/
+    public void add(Waypoint wp)
+    {
+        if (size == heap.length)
+        {
+            Waypoint[] grown = new Waypoint[size * 2];
+            System.arraycopy(heap, 0, grown, 0, size);
+            heap = grown;
+        }
+
+        heap[size] = wp;
+        wp.heapIndex = size;
+        size++;
+        siftUp(size - 1);
+    }
+
+    /**
+     * Заменяет путевую точку, уже находящуюся в куче, другой путевой точкой (обычно для того же
+     * места, но с меньшей стоимостью) и восстанавливает порядок кучи.
+     **/
+    public void replace(Waypoint oldWP, Waypoint newWP)
+    {
+        int i = oldWP.heapIndex;
+        if (i < 0 || i >= size || heap[i] != oldWP)
+            throw new IllegalArgumentException("waypoint is not in the heap");
+
+        oldWP.heapIndex = -1;
+        heap[i] = newWP;
+        newWP.heapIndex = i;
+
+        siftUp(i);
+        siftDown(newWP.heapIndex);
+    }
+
+    /** Удаляет указанную путевую точку из кучи. Возвращает false, если её там не было. **/
+    public boolean remove(Waypoint wp)
+    {
+        int i = wp.heapIndex;
+        if (i < 0 || i >= size || heap[i] != wp)
+            return false;
+
+        wp.heapIndex = -1;
+        size--;
+
+        if (i != size)
+        {
+            Waypoint last = heap[size];
+            heap[i] = last;
+            last.heapIndex = i;
+            siftUp(i);
+            siftDown(last.heapIndex);
+        }
+        heap[size] = null;
+        return true;
+    }
+
+    /** Удаляет и возвращает путевую точку с минимальной стоимостью или <code>null</code>. **/
+    public Waypoint poll()
+    {
+        Waypoint min = peek();
+        if (min != null)
+            remove(min);
+        return min;
+    }
+
+    /** Возвращает true, если путевая точка <code>a</code> должна извлекаться раньше <code>b</code>. **/
+    private static boolean less(Waypoint a, Waypoint b)
+    {
+        float fa = a.getTotalCost();
+        float fb = b.getTotalCost();
+        if (fa != fb)
+            return fa < fb;
+        return a.getRemainingCost() < b.getRemainingCost();
+    }
+
+    /** Поднимает элемент с индексом i вверх, пока он меньше своего родителя. **/
+    private void siftUp(int i)
+    {
+        Waypoint wp = heap[i];
+        while (i > 0)
+        {
+            int parent = (i - 1) >>> 1;
+            if (!less(wp, heap[parent]))
+                break;
+            heap[i] = heap[parent];
+            heap[i].heapIndex = i;
+            i = parent;
+        }
+        heap[i] = wp;
+        wp.heapIndex = i;
+    }
+
+    /** Опускает элемент с индексом i вниз, пока он больше одного из своих потомков. **/
+    private void siftDown(int i)
+    {
+        Waypoint wp = heap[i];
+        int half = size >>> 1;
+        while (i < half)
+        {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < size && less(heap[right], heap[child]))
+                child = right;
+            if (!less(heap[child], wp))
+                break;
+            heap[i] = heap[child];
+            heap[i].heapIndex = i;
+            i = child;
+        }
+        heap[i] = wp;
+        wp.heapIndex = i;
+    }
+}